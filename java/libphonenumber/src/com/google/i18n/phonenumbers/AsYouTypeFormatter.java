@@ -631,8 +631,7 @@ public class AsYouTypeFormatter {
       normalizedChar = nextChar;
       accruedInputWithoutFormatting.append(nextChar);
     } else {
-      int radix = 10;
-      normalizedChar = Character.forDigit(Character.digit(nextChar, radix), radix);
+      normalizedChar = PhoneNumberNormalizer.toAsciiDigit(nextChar);
       accruedInputWithoutFormatting.append(normalizedChar);
       nationalNumber.append(normalizedChar);
     }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of {@link PhoneNumberUtil#parseAll}: for each string parsed, in the order they were
+ * given, either the phone number it was parsed into or the reason it could not be parsed.
+ */
+public final class BatchParseResult {
+  private final PhoneNumber[] numbers;
+  private final NumberParseException.ErrorType[] errorTypes;
+
+  BatchParseResult(PhoneNumber[] numbers, NumberParseException.ErrorType[] errorTypes) {
+    this.numbers = numbers;
+    this.errorTypes = errorTypes;
+  }
+
+  /** Returns the number of strings that were parsed, whether successfully or not. */
+  public int size() {
+    return numbers.length;
+  }
+
+  /**
+   * Returns the phone number parsed from the string at the given index, or null if it could not be
+   * parsed.
+   */
+  public PhoneNumber getNumber(int index) {
+    return numbers[index];
+  }
+
+  /**
+   * Returns the error type of the exception {@link PhoneNumberUtil#parse} would have thrown for the
+   * string at the given index, or null if it was parsed.
+   */
+  public NumberParseException.ErrorType getErrorType(int index) {
+    return errorTypes[index];
+  }
+
+  /**
+   * Returns the phone numbers parsed, in the order of the strings they were parsed from, with null
+   * for those that could not be parsed.
+   */
+  public List<PhoneNumber> getNumbers() {
+    return Collections.unmodifiableList(Arrays.asList(numbers));
+  }
+
+  /** Returns the number of strings that could not be parsed. */
+  public int getErrorCount() {
+    int count = 0;
+    for (NumberParseException.ErrorType errorType : errorTypes) {
+      if (errorType != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
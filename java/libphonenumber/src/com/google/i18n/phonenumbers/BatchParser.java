@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses a list of strings for {@link PhoneNumberUtil#parseAll}, optionally splitting the work
+ * into tasks run on an {@link Executor}.
+ *
+ * <p>When each string has its own default region, the strings are parsed grouped by region, so
+ * that the metadata of a region is looked up once per group rather than once per string. The
+ * results are still returned in the order of the input.
+ */
+final class BatchParser {
+  // The number of strings a worker takes at a time. This is small enough to spread a few thousand
+  // strings over many threads, and large enough that workers rarely contend for the next chunk.
+  static final int CHUNK_SIZE = 256;
+
+  private final PhoneNumberUtil util;
+  // Copied into arrays so that the tasks have random access to them, whatever the lists are.
+  private final CharSequence[] inputs;
+  private final String defaultRegion;
+  private final String[] regions;
+  // The order the strings are parsed in, as indexes into inputs, or null for the input order.
+  private final int[] order;
+  private final PhoneNumber[] numbers;
+  private final NumberParseException.ErrorType[] errorTypes;
+  // The start of the next chunk of the parsing order that no worker has taken yet.
+  private final AtomicInteger nextChunk = new AtomicInteger();
+
+  /**
+   * Creates a parser for the given strings, each to be parsed with the default region at the same
+   * index in defaultRegions, or with defaultRegion if defaultRegions is null.
+   */
+  BatchParser(PhoneNumberUtil util, List<? extends CharSequence> numbersToParse,
+      String defaultRegion, List<String> defaultRegions) {
+    int size = numbersToParse.size();
+    if (defaultRegions != null && defaultRegions.size() != size) {
+      throw new IllegalArgumentException("Got " + size + " numbers to parse but "
+          + defaultRegions.size() + " default regions");
+    }
+    this.util = util;
+    this.inputs = numbersToParse.toArray(new CharSequence[size]);
+    this.defaultRegion = defaultRegion;
+    this.regions = (defaultRegions != null) ? defaultRegions.toArray(new String[size]) : null;
+    this.order = (regions != null) ? groupByRegion(regions) : null;
+    this.numbers = new PhoneNumber[size];
+    this.errorTypes = new NumberParseException.ErrorType[size];
+  }
+
+  /**
+   * Parses all the strings in the calling thread.
+   */
+  BatchParseResult parse() {
+    parseRange(0, inputs.length, new ParseContext());
+    return getResult();
+  }
+
+  /**
+   * Parses all the strings in tasks run on the given executor, and waits for them to finish.
+   *
+   * @throws InterruptedException if the calling thread was interrupted while waiting
+   */
+  BatchParseResult parse(Executor executor) throws InterruptedException {
+    try {
+      // The future completes once every task has finished, which also makes their results
+      // visible to this thread.
+      start(executor).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    return getResult();
+  }
+
+  /**
+   * Returns the results of the strings parsed so far.
+   */
+  // @VisibleForTesting
+  BatchParseResult getResult() {
+    return new BatchParseResult(numbers, errorTypes);
+  }
+
+  /**
+   * Starts the workers parsing the strings on the given executor, and returns a future that
+   * completes when they have all finished. There is one worker per processor, or per chunk if there
+   * are fewer chunks, and each worker takes chunks with one ParseContext until none are left.
+   */
+  // @VisibleForTesting
+  Future<Void> start(Executor executor) {
+    int chunkCount = (inputs.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    int workerCount = Math.min(chunkCount, Runtime.getRuntime().availableProcessors());
+    List<Runnable> tasks = new ArrayList<Runnable>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          ParseContext context = new ParseContext();
+          int from;
+          while ((from = nextChunk.getAndAdd(CHUNK_SIZE)) < inputs.length) {
+            parseRange(from, Math.min(inputs.length, from + CHUNK_SIZE), context);
+          }
+        }
+      });
+    }
+    return MetadataPreloader.run(tasks, executor, "batch parsing tasks still running");
+  }
+
+  /**
+   * Parses the strings at positions from (inclusive) to to (exclusive) of the parsing order with
+   * the given context, and stores the results at the indexes of those strings.
+   */
+  private void parseRange(int from, int to, ParseContext context) {
+    PhoneNumber number = null;
+    for (int i = from; i < to; i++) {
+      int index = (order != null) ? order[i] : i;
+      String region = (regions != null) ? regions[index] : defaultRegion;
+      if (region != null && !context.hasDefaultRegion(util, region)) {
+        context.setDefaultRegion(util, region, util.getMetadataForRegion(region));
+      }
+      // A number that failed to parse may have been partly filled in, so it is cleared and used
+      // for the next string.
+      if (number == null) {
+        number = new PhoneNumber();
+      } else {
+        number.clear();
+      }
+      NumberParseException.ErrorType errorType =
+          util.tryParse(inputs[index], region, number, context);
+      if (errorType == null) {
+        numbers[index] = number;
+        number = null;
+      } else {
+        errorTypes[index] = errorType;
+      }
+    }
+  }
+
+  /**
+   * Returns the indexes of the given regions, ordered so that equal regions are next to each
+   * other, and otherwise in their original order.
+   */
+  // @VisibleForTesting
+  static int[] groupByRegion(String[] regions) {
+    // For each region, the number of times it occurs, and then where its group starts.
+    Map<String, int[]> groups = new LinkedHashMap<String, int[]>();
+    for (String region : regions) {
+      int[] count = groups.get(region);
+      if (count == null) {
+        groups.put(region, new int[] {1});
+      } else {
+        count[0]++;
+      }
+    }
+    int start = 0;
+    for (int[] group : groups.values()) {
+      int count = group[0];
+      group[0] = start;
+      start += count;
+    }
+    int[] order = new int[regions.length];
+    for (int i = 0; i < regions.length; i++) {
+      order[groups.get(regions[i])[0]++] = i;
+    }
+    return order;
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MetadataLoader} that can also hand over the contents of a metadata file as a buffer,
+ * for example one it has memory-mapped or already holds in memory. The library then reads the
+ * metadata straight from the buffer instead of through a stream.
+ */
+public interface ByteBufferMetadataLoader extends MetadataLoader {
+  /**
+   * Returns the contents of the metadata file, between the buffer's position and limit. This
+   * method may be called concurrently so implementations must be thread-safe.
+   *
+   * <p>The contents may be either the file as it is bundled with the library, or the serialized
+   * metadata protocol buffer without the Java serialization framing around it. The library does
+   * not modify the buffer or its position, and does not keep a reference to it.
+   *
+   * @param metadataFileName File name (including path) of metadata to load, as for
+   *     {@link #loadMetadata}.
+   * @return The contents of the metadata file, or null in case the metadata file could not be
+   *     found.
+   */
+  public ByteBuffer loadMetadataBuffer(String metadataFileName);
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * Finds the extension at the end of a phone number, by walking back from its end rather than
+ * running a regular expression over the whole number.
+ *
+ * <p>An extension is accepted exactly when {@link PhoneNumberUtil#EXTN_PATTERNS_FOR_PARSING},
+ * matched case insensitively, matches the end of the number, and the start found is the one the
+ * leftmost match would have. ExtensionScannerTest checks the two agree. The extension is one of:
+ * <ul>
+ *   <li>";ext=" followed by up to 7 digits, as in RFC 3966.
+ *   <li>A keyword such as "ext", "anexo" or "x", with optional white space or commas before it, an
+ *       optional colon or full stop after it, and then optional white space, commas or dashes
+ *       followed by up to 7 digits and an optional hash sign.
+ *   <li>Dashes or spaces followed by up to 5 digits and a hash sign, as American numbers are
+ *       sometimes written, such as "- 503#".
+ * </ul>
+ *
+ * <p>Every kind of extension ends with its digits, so they are found first. The keywords are then
+ * looked for in a trie of their reversed spellings, walked back from where each of them could end.
+ */
+final class ExtensionScanner {
+  private static final int MAX_EXTENSION_DIGITS = 7;
+  private static final int MAX_HASH_EXTENSION_DIGITS = 5;
+
+  // The keywords that can come before the digits of an extension, spelled out from the
+  // alternatives in the middle of the expression built by PhoneNumberUtil.createExtnPattern. Each
+  // accented o is written both as one character and with a combining acute accent, and the
+  // full-width keywords are separate from the ASCII ones. The comma is only a keyword when parsing.
+  private static final Node REVERSED_KEYWORDS = new Node();
+  static {
+    String[] accentedO = {"", "ensio", "ensio\u0301", "ensi\u00F3"};
+    for (String e : new String[] {"", "e"}) {
+      for (String ending : accentedO) {
+        for (String n : new String[] {"", "n"}) {
+          addKeyword(e + "xt" + ending + n);
+        }
+      }
+    }
+    for (String e : new String[] {"", "\uFF45"}) {
+      for (String n : new String[] {"", "\uFF4E"}) {
+        addKeyword(e + "\uFF58\uFF54" + n);
+      }
+    }
+    for (char symbol : ",x\uFF58#\uFF03~\uFF5E".toCharArray()) {
+      addKeyword(String.valueOf(symbol));
+    }
+    addKeyword("int");
+    addKeyword("anexo");
+    addKeyword("\uFF49\uFF4E\uFF54");
+  }
+
+  private ExtensionScanner() {
+  }
+
+  /**
+   * Returns the index at which the extension ending at {@code end} starts, looking no further back
+   * than {@code from}, or -1 if the number doesn't end with an extension. When several starts are
+   * possible, such as with white space before a keyword, the first one is returned.
+   */
+  static int findExtensionStart(CharSequence number, int from, int end) {
+    int digitsEnd = findDigitsEnd(number, from, end);
+    int digitsStart = findDigitsStart(number, from, digitsEnd);
+    int digits = Character.codePointCount(number, digitsStart, digitsEnd);
+    if (digits == 0 || digits > MAX_EXTENSION_DIGITS) {
+      return -1;
+    }
+    boolean endsWithHash = digitsEnd < end;
+    int start = -1;
+    if (!endsWithHash) {
+      int prefixStart = digitsStart - PhoneNumberUtil.RFC3966_EXTN_PREFIX.length();
+      if (prefixStart >= from
+          && matchesIgnoreCase(number, prefixStart, PhoneNumberUtil.RFC3966_EXTN_PREFIX)) {
+        start = prefixStart;
+      }
+    }
+    int keywordStart = findKeywordStart(number, from, digitsStart);
+    if (keywordStart >= 0) {
+      int i = keywordStart;
+      while (i > from && isLeadingChar(number.charAt(i - 1))) {
+        i--;
+      }
+      start = earlierStart(start, i);
+    }
+    if (endsWithHash && digits <= MAX_HASH_EXTENSION_DIGITS) {
+      int i = digitsStart;
+      while (i > from && (number.charAt(i - 1) == '-' || number.charAt(i - 1) == ' ')) {
+        i--;
+      }
+      if (i < digitsStart) {
+        start = earlierStart(start, i);
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Returns the end of the digits of the extension ending at {@code end}, which is before the
+   * hash sign if there is one.
+   */
+  static int findDigitsEnd(CharSequence number, int from, int end) {
+    return (end > from && number.charAt(end - 1) == '#') ? end - 1 : end;
+  }
+
+  /**
+   * Returns the start of the digits that end at {@code digitsEnd}, looking no further back than
+   * {@code from}.
+   */
+  static int findDigitsStart(CharSequence number, int from, int digitsEnd) {
+    int i = digitsEnd;
+    while (i > from) {
+      char c = number.charAt(i - 1);
+      int codePoint = c;
+      if (Character.isLowSurrogate(c) && i - 2 >= from
+          && Character.isHighSurrogate(number.charAt(i - 2))) {
+        codePoint = Character.toCodePoint(number.charAt(i - 2), c);
+      }
+      if (!Character.isDigit(codePoint)) {
+        break;
+      }
+      i -= Character.charCount(codePoint);
+    }
+    return i;
+  }
+
+  /**
+   * Returns the end of the number before any line terminator it ends with, which is the last place
+   * the $ of a regular expression matches.
+   */
+  static int endBeforeFinalLineTerminator(CharSequence number) {
+    int end = number.length();
+    if (end >= 2 && number.charAt(end - 2) == '\r' && number.charAt(end - 1) == '\n') {
+      return end - 2;
+    }
+    if (end >= 1) {
+      char c = number.charAt(end - 1);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return end - 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Returns the start of the first keyword that can be followed by the digits starting at
+   * {@code digitsStart}, or -1 if there is none. Between the keyword and the digits there may be
+   * a colon or full stop, and then white space, commas and dashes.
+   */
+  private static int findKeywordStart(CharSequence number, int from, int digitsStart) {
+    int separatorStart = digitsStart;
+    while (separatorStart > from && isSeparator(number.charAt(separatorStart - 1))) {
+      separatorStart--;
+    }
+    int start = -1;
+    // A keyword may end anywhere in the separators, since a comma is both.
+    for (int keywordEnd = digitsStart; keywordEnd >= separatorStart; keywordEnd--) {
+      start = earlierStart(start, findReversedKeyword(number, from, keywordEnd));
+    }
+    if (separatorStart > from && isKeywordPunctuation(number.charAt(separatorStart - 1))) {
+      start = earlierStart(start, findReversedKeyword(number, from, separatorStart - 1));
+    }
+    return start;
+  }
+
+  /**
+   * Returns the start of the longest keyword ending at {@code keywordEnd}, or -1 if there is none.
+   */
+  private static int findReversedKeyword(CharSequence number, int from, int keywordEnd) {
+    int start = -1;
+    Node node = REVERSED_KEYWORDS;
+    for (int i = keywordEnd; i > from; i--) {
+      node = node.child(number.charAt(i - 1));
+      if (node == null) {
+        break;
+      }
+      if (node.isKeyword) {
+        start = i - 1;
+      }
+    }
+    return start;
+  }
+
+  private static int earlierStart(int start, int otherStart) {
+    if (otherStart < 0) {
+      return start;
+    }
+    return (start < 0 || otherStart < start) ? otherStart : start;
+  }
+
+  private static boolean matchesIgnoreCase(CharSequence number, int start, String folded) {
+    for (int i = 0; i < folded.length(); i++) {
+      if (!equalsIgnoreCase(number.charAt(start + i), folded.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a character of the number matches a character of a keyword, which is already
+   * case folded, in the same way as a case-insensitive Unicode regular expression.
+   */
+  private static boolean equalsIgnoreCase(char c, char folded) {
+    return c == folded || fold(c) == folded;
+  }
+
+  private static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /** Returns whether the character can come before a keyword. */
+  private static boolean isLeadingChar(char c) {
+    return c == ' ' || c == '\u00A0' || c == '\t' || c == ',';
+  }
+
+  /** Returns whether the character can come between a keyword and the digits. */
+  private static boolean isSeparator(char c) {
+    return isLeadingChar(c) || c == '-';
+  }
+
+  private static boolean isKeywordPunctuation(char c) {
+    return c == ':' || c == '.' || c == '\uFF0E';
+  }
+
+  private static void addKeyword(String keyword) {
+    Node node = REVERSED_KEYWORDS;
+    for (int i = keyword.length() - 1; i >= 0; i--) {
+      node = node.addChild(fold(keyword.charAt(i)));
+    }
+    node.isKeyword = true;
+  }
+
+  /**
+   * A node of the trie of reversed keywords, reached by reading the end of a keyword backwards.
+   */
+  private static final class Node {
+    private char[] chars = new char[0];
+    private Node[] children = new Node[0];
+    // Whether the characters read to get here are a whole keyword.
+    private boolean isKeyword;
+
+    Node child(char c) {
+      for (int i = 0; i < chars.length; i++) {
+        if (equalsIgnoreCase(c, chars[i])) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node addChild(char folded) {
+      for (int i = 0; i < chars.length; i++) {
+        if (chars[i] == folded) {
+          return children[i];
+        }
+      }
+      char[] newChars = new char[chars.length + 1];
+      System.arraycopy(chars, 0, newChars, 0, chars.length);
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(children, 0, newChildren, 0, children.length);
+      Node child = new Node();
+      newChars[chars.length] = folded;
+      newChildren[children.length] = child;
+      chars = newChars;
+      children = newChildren;
+      return child;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.internal.DigitAutomaton;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+
+/**
+ * Picks the formatting pattern for a national number from a list of {@link NumberFormat}s in a
+ * single pass over its digits, with the same result as
+ * {@link PhoneNumberUtil#chooseFormattingPatternForNumber}.
+ *
+ * <p>The leading digits pattern and the number pattern of every format are compiled into one
+ * {@link DigitAutomaton}. A number starts with digits matching a leading digits pattern L exactly
+ * when the whole number matches {@code L\d*}, so that is what the automaton matches.
+ */
+final class FormatSelector {
+  /** Returned by {@link #choose} when no format applies to the number. */
+  static final int NO_FORMAT = -1;
+  /** Returned by {@link #choose} when the selector can't handle the number. */
+  static final int UNDETERMINED = -2;
+
+  // Pattern 2 * i matches the numbers starting with the leading digits of format i, and pattern
+  // 2 * i + 1 is the number pattern of format i. Null if the formats could not be compiled.
+  private final DigitAutomaton automaton;
+  private final int formatCount;
+
+  /**
+   * Rebuilds a selector from the automaton of one built earlier for the same formats, as returned
+   * by {@link #getAutomaton}.
+   */
+  FormatSelector(DigitAutomaton automaton, int formatCount) {
+    this.automaton = automaton;
+    this.formatCount = formatCount;
+  }
+
+  /**
+   * Builds a selector for the given formats. This is expensive compared to choosing a format, so
+   * the result should be cached.
+   */
+  static FormatSelector create(NumberFormat[] formats) {
+    String[] patterns = new String[2 * formats.length];
+    for (int i = 0; i < formats.length; i++) {
+      int size = formats[i].leadingDigitsPattern.length;
+      // We always use the last leading_digits_pattern, as it is the most detailed.
+      patterns[2 * i] = (size == 0)
+          ? "\\d*" : "(?:" + formats[i].leadingDigitsPattern[size - 1] + ")\\d*";
+      patterns[2 * i + 1] = formats[i].pattern;
+    }
+    return new FormatSelector(DigitAutomaton.compile(patterns), formats.length);
+  }
+
+  /** Returns the automaton choosing formats, or null if the formats could not be compiled. */
+  DigitAutomaton getAutomaton() {
+    return automaton;
+  }
+
+  /**
+   * Returns the index of the first format whose leading digits and pattern match the given
+   * national number, {@link #NO_FORMAT} if there is none, or {@link #UNDETERMINED} if the number
+   * contains something other than ASCII digits or the formats could not be compiled.
+   */
+  int choose(String nationalNumber) {
+    if (automaton == null) {
+      return UNDETERMINED;
+    }
+    int state = automaton.getFinalState(nationalNumber);
+    if (state == DigitAutomaton.NOT_DIGITS) {
+      return UNDETERMINED;
+    }
+    if (state == DigitAutomaton.NO_MATCH) {
+      return NO_FORMAT;
+    }
+    for (int i = 0; i < formatCount; i++) {
+      if (automaton.accepts(state, 2 * i) && automaton.accepts(state, 2 * i + 1)) {
+        return i;
+      }
+    }
+    return NO_FORMAT;
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.protobuf.nano.CodedInputByteBufferNano;
+import com.google.protobuf.nano.MessageNano;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Implementation of {@link MetadataSource} that reads from a single file mapped into memory. The
+ * file starts with an index giving the offset and length of the metadata of each region, and each
+ * region is decoded the first time it is asked for. Processes mapping the same file share its
+ * pages, and only the regions actually used take up heap.
+ *
+ * <p>The file format, with all integers big-endian, is:
+ * <pre>
+ *   int magic ("PNMD")
+ *   int version (1)
+ *   int entryCount
+ *   entryCount times: int key, int offset, int length
+ *   the serialized PhoneMetadata messages
+ * </pre>
+ * A key is {@code c0 * 256 + c1} for a region code made of the letters c0 and c1, or
+ * {@link #NON_GEO_KEY_FLAG} plus the country calling code for a non-geographical entity. Offsets
+ * are from the start of the file.
+ *
+ * <p>Such a file can be written from the metadata bundled with the library with the
+ * BuildMappedMetadataFile command of the Java build tools.
+ */
+final class MappedFileMetadataSourceImpl implements MetadataSource {
+  static final int MAGIC = 0x504e4d44;
+  static final int VERSION = 1;
+  static final int NON_GEO_KEY_FLAG = 0x10000;
+
+  private static final int HEADER_SIZE = 12;
+  private static final int ENTRY_SIZE = 12;
+  private static final int REGION_SLOTS = RegionCodeSlots.REGION_SLOTS;
+  private static final int NON_GEO_SLOTS = RegionCodeSlots.CALLING_CODE_SLOTS;
+
+  // The mapped file. Reads go through duplicates, since the position of a buffer is not
+  // thread-safe.
+  private final ByteBuffer buffer;
+  // The offset and length of the metadata in each slot, or -1 if there is none. Slots below
+  // REGION_SLOTS are for region codes, and the rest for non-geographical country calling codes.
+  private final int[] offsets = new int[REGION_SLOTS + NON_GEO_SLOTS];
+  private final int[] lengths = new int[REGION_SLOTS + NON_GEO_SLOTS];
+  // The metadata decoded so far, by slot.
+  private final AtomicReferenceArray<PhoneMetadata> decoded =
+      new AtomicReferenceArray<PhoneMetadata>(REGION_SLOTS + NON_GEO_SLOTS);
+
+  /**
+   * Maps the given metadata file into memory and reads its index.
+   *
+   * @throws IOException if the file cannot be read or is not a valid metadata file
+   */
+  MappedFileMetadataSourceImpl(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer mapped;
+    try {
+      // The mapping stays valid after the file is closed.
+      mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+    this.buffer = mapped;
+    readIndex(file.getPath());
+  }
+
+  // @VisibleForTesting
+  MappedFileMetadataSourceImpl(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    readIndex("buffer");
+  }
+
+  private void readIndex(String name) throws IOException {
+    Arrays.fill(offsets, -1);
+    Arrays.fill(lengths, -1);
+    ByteBuffer in = buffer.duplicate();
+    if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+      throw new IOException("not a metadata file: " + name);
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported metadata file version " + version + ": " + name);
+    }
+    int entryCount = in.getInt();
+    if (entryCount < 0 || in.remaining() / ENTRY_SIZE < entryCount) {
+      throw new IOException("corrupt metadata file index: " + name);
+    }
+    for (int i = 0; i < entryCount; i++) {
+      int key = in.getInt();
+      int offset = in.getInt();
+      int length = in.getInt();
+      int slot = getSlotForKey(key);
+      if (slot < 0 || offset < 0 || length < 0 || offset > in.limit() - length) {
+        throw new IOException("corrupt metadata file entry " + i + ": " + name);
+      }
+      offsets[slot] = offset;
+      lengths[slot] = length;
+    }
+  }
+
+  @Override
+  public PhoneMetadata getMetadataForRegion(String regionCode) {
+    return getMetadataForSlot(RegionCodeSlots.getRegionSlot(regionCode));
+  }
+
+  @Override
+  public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
+    if (!RegionCodeSlots.isCallingCodeInRange(countryCallingCode)) {
+      return null;
+    }
+    return getMetadataForSlot(REGION_SLOTS + countryCallingCode);
+  }
+
+  /**
+   * Decodes the metadata of every region in the file now, rather than on first access.
+   *
+   * @return the metadata of every region and non-geographical entity in the file
+   */
+  List<PhoneMetadata> decodeAll() {
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (int slot = 0; slot < offsets.length; slot++) {
+      PhoneMetadata metadata = getMetadataForSlot(slot);
+      if (metadata != null) {
+        metadataList.add(metadata);
+      }
+    }
+    return metadataList;
+  }
+
+  private PhoneMetadata getMetadataForSlot(int slot) {
+    if (slot < 0 || offsets[slot] < 0) {
+      return null;
+    }
+    PhoneMetadata metadata = decoded.get(slot);
+    MetadataLoadListener listener = MetadataManager.getLoadListener();
+    if (listener == null) {
+      return (metadata != null) ? metadata : decode(slot);
+    }
+    String key = getKeyForSlot(slot);
+    listener.onCacheLookup(MetadataLoadListener.MetadataType.PHONE_NUMBER, key, metadata != null);
+    if (metadata != null) {
+      return metadata;
+    }
+    listener.onLoadStarted(MetadataLoadListener.MetadataType.PHONE_NUMBER, key);
+    long start = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      metadata = decode(slot);
+      succeeded = true;
+      return metadata;
+    } finally {
+      listener.onLoadFinished(MetadataLoadListener.MetadataType.PHONE_NUMBER, key,
+          succeeded ? lengths[slot] : 0, System.nanoTime() - start, succeeded);
+    }
+  }
+
+  private PhoneMetadata decode(int slot) {
+    byte[] bytes = new byte[lengths[slot]];
+    ByteBuffer in = buffer.duplicate();
+    in.position(offsets[slot]);
+    in.get(bytes);
+    PhoneMetadata metadata = new PhoneMetadata();
+    try {
+      metadata.mergeFrom(CodedInputByteBufferNano.newInstance(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException("cannot load/parse metadata", e);
+    }
+    MetadataInterner.intern(metadata);
+    // Callers may rely on getting the same instance every time, so only one decoded copy wins.
+    return decoded.compareAndSet(slot, null, metadata) ? metadata : decoded.get(slot);
+  }
+
+  // Returns the region code or country calling code of the given slot, for the load listener.
+  private static String getKeyForSlot(int slot) {
+    if (slot >= REGION_SLOTS) {
+      return String.valueOf(slot - REGION_SLOTS);
+    }
+    return new String(new char[] {(char) ('A' + slot / 26), (char) ('A' + slot % 26)});
+  }
+
+  private static int getSlotForKey(int key) {
+    if ((key & NON_GEO_KEY_FLAG) != 0) {
+      int countryCallingCode = key - NON_GEO_KEY_FLAG;
+      return RegionCodeSlots.isCallingCodeInRange(countryCallingCode)
+          ? REGION_SLOTS + countryCallingCode : -1;
+    }
+    return (key < 0) ? -1 : RegionCodeSlots.getRegionSlot(key >> 8, key & 0xff);
+  }
+
+  /**
+   * Returns the key under which the given metadata is stored in a metadata file.
+   */
+  static int getKey(PhoneMetadata metadata) {
+    if (PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(metadata.id)) {
+      return NON_GEO_KEY_FLAG + metadata.countryCode;
+    }
+    return metadata.id.charAt(0) * 256 + metadata.id.charAt(1);
+  }
+
+  /**
+   * Returns the metadata stored under the given key, as returned by {@link #getKey}, or null if
+   * there is none.
+   */
+  PhoneMetadata getMetadataForKey(int key) {
+    return getMetadataForSlot(getSlotForKey(key));
+  }
+
+  /**
+   * Writes the given metadata to the given stream in the format read by this class, and closes
+   * the stream.
+   */
+  static void writeMetadataFile(List<PhoneMetadata> metadataList, OutputStream out)
+      throws IOException {
+    List<byte[]> messages = new ArrayList<byte[]>(metadataList.size());
+    for (PhoneMetadata metadata : metadataList) {
+      messages.add(MessageNano.toByteArray(metadata));
+    }
+    DataOutputStream data = new DataOutputStream(out);
+    try {
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      data.writeInt(metadataList.size());
+      int offset = HEADER_SIZE + ENTRY_SIZE * metadataList.size();
+      for (int i = 0; i < metadataList.size(); i++) {
+        data.writeInt(getKey(metadataList.get(i)));
+        data.writeInt(offset);
+        data.writeInt(messages.get(i).length);
+        offset += messages.get(i).length;
+      }
+      for (byte[] message : messages) {
+        data.write(message);
+      }
+    } finally {
+      data.close();
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The result of {@link PhoneNumberUtil#estimateMetadataFootprint}: how many regions an instance
+ * supports, and roughly how much heap their metadata takes up.
+ *
+ * <p>The size is estimated from the contents of the metadata, assuming a 64-bit JVM with
+ * compressed object pointers and two bytes per string character. Objects shared between regions
+ * are counted once. Compiled patterns and other caches built from the metadata are not included.
+ */
+public final class MetadataFootprint {
+  private static final int OBJECT_HEADER_BYTES = 12;
+  private static final int ARRAY_HEADER_BYTES = 16;
+  private static final int REFERENCE_BYTES = 4;
+  // Each message also has the int cachedSize field of MessageNano.
+  private static final int NUMBER_FORMAT_BYTES = objectBytes(5, 4 + 1);
+  private static final int PHONE_NUMBER_DESC_BYTES = objectBytes(5, 4);
+  private static final int PHONE_METADATA_BYTES = objectBytes(26, 4 + 4 + 4);
+  // A String holds a reference to its characters and a cached hash code.
+  private static final int STRING_BYTES = objectBytes(1, 4);
+
+  private final int regionCount;
+  private final int globalNetworkCallingCodeCount;
+  private final long estimatedBytes;
+  private final long estimatedUnsharedBytes;
+
+  MetadataFootprint(int regionCount, int globalNetworkCallingCodeCount, long estimatedBytes,
+      long estimatedUnsharedBytes) {
+    this.regionCount = regionCount;
+    this.globalNetworkCallingCodeCount = globalNetworkCallingCodeCount;
+    this.estimatedBytes = estimatedBytes;
+    this.estimatedUnsharedBytes = estimatedUnsharedBytes;
+  }
+
+  /** Returns the number of geographical regions supported. */
+  public int getRegionCount() {
+    return regionCount;
+  }
+
+  /** Returns the number of non-geographical country calling codes supported. */
+  public int getGlobalNetworkCallingCodeCount() {
+    return globalNetworkCallingCodeCount;
+  }
+
+  /** Returns the estimated heap taken up by the metadata of all supported regions, in bytes. */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  /**
+   * Returns the estimated heap the same metadata would take up if the strings repeated within and
+   * across regions were not shared, in bytes. The difference from {@link #getEstimatedBytes} is
+   * the saving from pooling metadata strings as they are loaded.
+   */
+  public long getEstimatedUnsharedBytes() {
+    return estimatedUnsharedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return regionCount + " regions and " + globalNetworkCallingCodeCount
+        + " global network calling codes, metadata of about " + estimatedBytes / 1024
+        + " KiB (" + estimatedUnsharedBytes / 1024 + " KiB without sharing strings)";
+  }
+
+  /**
+   * Estimates the heap taken up by the given metadata. Objects shared between them are counted
+   * once, unless {@code countSharedStrings} is false, in which case every non-empty string is
+   * counted as a separate copy, as it would be without {@link MetadataInterner}.
+   */
+  static long estimateBytes(Collection<PhoneMetadata> metadataList, boolean countSharedStrings) {
+    Estimator estimator = new Estimator(countSharedStrings);
+    for (PhoneMetadata metadata : metadataList) {
+      estimator.add(metadata);
+    }
+    return estimator.bytes;
+  }
+
+  private static final class Estimator {
+    private final Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+    private final boolean countSharedStrings;
+    long bytes = 0;
+
+    Estimator(boolean countSharedStrings) {
+      this.countSharedStrings = countSharedStrings;
+    }
+
+    void add(PhoneMetadata metadata) {
+      if (!markSeen(metadata)) {
+        return;
+      }
+      bytes += PHONE_METADATA_BYTES;
+      PhoneNumberDesc[] descs = {metadata.generalDesc, metadata.fixedLine, metadata.mobile,
+          metadata.tollFree, metadata.premiumRate, metadata.sharedCost, metadata.personalNumber,
+          metadata.voip, metadata.pager, metadata.uan, metadata.emergency, metadata.voicemail,
+          metadata.shortCode, metadata.standardRate, metadata.carrierSpecific,
+          metadata.noInternationalDialling};
+      for (PhoneNumberDesc desc : descs) {
+        add(desc);
+      }
+      String[] strings = {metadata.id, metadata.internationalPrefix,
+          metadata.preferredInternationalPrefix, metadata.nationalPrefix,
+          metadata.preferredExtnPrefix, metadata.nationalPrefixForParsing,
+          metadata.nationalPrefixTransformRule, metadata.leadingDigits};
+      for (String string : strings) {
+        add(string);
+      }
+      add(metadata.numberFormat);
+      add(metadata.intlNumberFormat);
+    }
+
+    private void add(PhoneNumberDesc desc) {
+      if (!markSeen(desc)) {
+        return;
+      }
+      bytes += PHONE_NUMBER_DESC_BYTES;
+      add(desc.nationalNumberPattern);
+      add(desc.possibleNumberPattern);
+      add(desc.exampleNumber);
+      add(desc.possibleLength);
+      add(desc.possibleLengthLocalOnly);
+    }
+
+    private void add(NumberFormat[] formats) {
+      if (!markSeen(formats)) {
+        return;
+      }
+      bytes += align(ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * formats.length);
+      for (NumberFormat format : formats) {
+        if (!markSeen(format)) {
+          continue;
+        }
+        bytes += NUMBER_FORMAT_BYTES;
+        add(format.pattern);
+        add(format.format);
+        add(format.nationalPrefixFormattingRule);
+        add(format.domesticCarrierCodeFormattingRule);
+        if (markSeen(format.leadingDigitsPattern)) {
+          bytes += align(ARRAY_HEADER_BYTES
+              + (long) REFERENCE_BYTES * format.leadingDigitsPattern.length);
+          for (String pattern : format.leadingDigitsPattern) {
+            add(pattern);
+          }
+        }
+      }
+    }
+
+    private void add(String string) {
+      boolean count = (countSharedStrings || string == null || string.length() == 0)
+          ? markSeen(string) : true;
+      if (count) {
+        bytes += STRING_BYTES + align(ARRAY_HEADER_BYTES + 2L * string.length());
+      }
+    }
+
+    private void add(int[] values) {
+      if (markSeen(values)) {
+        bytes += align(ARRAY_HEADER_BYTES + 4L * values.length);
+      }
+    }
+
+    // Returns whether the object should be counted, which is when it is not null and was not seen
+    // before.
+    private boolean markSeen(Object object) {
+      return object != null && seen.put(object, Boolean.TRUE) == null;
+    }
+  }
+
+  private static int objectBytes(int references, int primitiveBytes) {
+    return (int) align(OBJECT_HEADER_BYTES + REFERENCE_BYTES * references + primitiveBytes);
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import java.util.Arrays;
+
+/**
+ * Holds the automata compiled from the metadata of one region, which are each built the first
+ * time they are needed. Building the same automaton twice from different threads is harmless, so
+ * no locking is done.
+ */
+final class MetadataIndex {
+  // The metadata this index was built from. Callers use this to detect that the metadata has been
+  // replaced, and then check with hasSamePatterns whether the index needs rebuilding.
+  final PhoneMetadata metadata;
+
+  private volatile NumberTypeClassifier numberTypeClassifier;
+  private volatile FormatSelector nationalFormatSelector;
+  private volatile FormatSelector intlFormatSelector;
+
+  MetadataIndex(PhoneMetadata metadata) {
+    this.metadata = metadata;
+  }
+
+  /**
+   * Creates an index for the given metadata holding the given classifier and selectors, which must
+   * have been built from it. Any of them may be null, in which case it is built when needed.
+   */
+  MetadataIndex(PhoneMetadata metadata, NumberTypeClassifier numberTypeClassifier,
+      FormatSelector nationalFormatSelector, FormatSelector intlFormatSelector) {
+    this.metadata = metadata;
+    this.numberTypeClassifier = numberTypeClassifier;
+    this.nationalFormatSelector = nationalFormatSelector;
+    this.intlFormatSelector = intlFormatSelector;
+  }
+
+  /**
+   * Returns an index for the given metadata, which must have the same patterns as the metadata of
+   * this one, sharing whatever this index has built so far.
+   */
+  MetadataIndex withMetadata(PhoneMetadata newMetadata) {
+    return new MetadataIndex(newMetadata, numberTypeClassifier, nationalFormatSelector,
+        intlFormatSelector);
+  }
+
+  /**
+   * Returns whether two copies of the metadata of a region have the same patterns, so that the
+   * automata built from one can be used for the other. A metadata source may return a new copy of
+   * unchanged metadata on each lookup, and this lets us tell that apart from a real change without
+   * building the automata again.
+   */
+  static boolean hasSamePatterns(PhoneMetadata a, PhoneMetadata b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.id.equals(b.id)
+        && a.countryCode == b.countryCode
+        && a.leadingDigits.equals(b.leadingDigits)
+        && a.sameMobileAndFixedLinePattern == b.sameMobileAndFixedLinePattern
+        && hasSamePatterns(a.generalDesc, b.generalDesc)
+        && hasSamePatterns(a.fixedLine, b.fixedLine)
+        && hasSamePatterns(a.mobile, b.mobile)
+        && hasSamePatterns(a.tollFree, b.tollFree)
+        && hasSamePatterns(a.premiumRate, b.premiumRate)
+        && hasSamePatterns(a.sharedCost, b.sharedCost)
+        && hasSamePatterns(a.personalNumber, b.personalNumber)
+        && hasSamePatterns(a.voip, b.voip)
+        && hasSamePatterns(a.pager, b.pager)
+        && hasSamePatterns(a.uan, b.uan)
+        && hasSamePatterns(a.voicemail, b.voicemail)
+        && hasSamePatterns(a.numberFormat, b.numberFormat)
+        && hasSamePatterns(a.intlNumberFormat, b.intlNumberFormat);
+  }
+
+  private static boolean hasSamePatterns(PhoneNumberDesc a, PhoneNumberDesc b) {
+    if (a == null || b == null) {
+      return a == b;
+    }
+    return a.nationalNumberPattern.equals(b.nationalNumberPattern)
+        && a.possibleNumberPattern.equals(b.possibleNumberPattern);
+  }
+
+  private static boolean hasSamePatterns(NumberFormat[] a, NumberFormat[] b) {
+    if (a.length != b.length) {
+      return false;
+    }
+    for (int i = 0; i < a.length; i++) {
+      if (!a[i].pattern.equals(b[i].pattern)
+          || !Arrays.equals(a[i].leadingDigitsPattern, b[i].leadingDigitsPattern)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  NumberTypeClassifier getNumberTypeClassifier() {
+    NumberTypeClassifier classifier = numberTypeClassifier;
+    if (classifier == null) {
+      classifier = NumberTypeClassifier.create(metadata);
+      numberTypeClassifier = classifier;
+    }
+    return classifier;
+  }
+
+  /**
+   * Returns the selector for the given formats if they are the national or international formats
+   * of this region, or null otherwise.
+   */
+  FormatSelector getFormatSelector(NumberFormat[] formats) {
+    if (formats == metadata.numberFormat) {
+      FormatSelector selector = nationalFormatSelector;
+      if (selector == null) {
+        selector = FormatSelector.create(formats);
+        nationalFormatSelector = selector;
+      }
+      return selector;
+    }
+    if (formats == metadata.intlNumberFormat) {
+      FormatSelector selector = intlFormatSelector;
+      if (selector == null) {
+        selector = FormatSelector.create(formats);
+        intlFormatSelector = selector;
+      }
+      return selector;
+    }
+    return null;
+  }
+}
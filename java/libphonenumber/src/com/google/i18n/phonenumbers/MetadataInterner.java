@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of the strings in loaded metadata, so that a pattern or format repeated across regions
+ * (such as those of the NANPA regions, or of the descs of a non-geographical entity) is held in
+ * memory only once.
+ *
+ * <p>Interning replaces the strings of the given protos in place. It is only applied to metadata
+ * the library has just parsed itself, before anyone else sees it, and never to metadata handed to
+ * the library by a {@link MetadataSource}.
+ *
+ * <p>The pool only holds weak references, so once no loaded metadata uses a string any more, such
+ * as after a {@link ReloadableMetadataSource} has moved on to a new version, the string can be
+ * garbage collected. The pattern caches are keyed by the pattern strings, so equal patterns
+ * already share one compiled entry; interning only saves the copies of the strings themselves.
+ */
+final class MetadataInterner {
+  // Maps each pooled string to a weak reference to itself. Strings are only interned while
+  // metadata is being loaded, so a lock is cheap enough here.
+  private static final Map<String, WeakReference<String>> pool =
+      new WeakHashMap<String, WeakReference<String>>(4096);
+
+  private MetadataInterner() {
+  }
+
+  /**
+   * Replaces the strings of all the metadata in the given collection with pooled instances, and
+   * returns the collection.
+   */
+  static PhoneMetadataCollection intern(PhoneMetadataCollection metadataCollection) {
+    for (PhoneMetadata metadata : metadataCollection.metadata) {
+      intern(metadata);
+    }
+    return metadataCollection;
+  }
+
+  /**
+   * Replaces the strings of the given metadata with pooled instances, and returns the metadata.
+   */
+  static PhoneMetadata intern(PhoneMetadata metadata) {
+    metadata.id = intern(metadata.id);
+    metadata.internationalPrefix = intern(metadata.internationalPrefix);
+    metadata.preferredInternationalPrefix = intern(metadata.preferredInternationalPrefix);
+    metadata.nationalPrefix = intern(metadata.nationalPrefix);
+    metadata.preferredExtnPrefix = intern(metadata.preferredExtnPrefix);
+    metadata.nationalPrefixForParsing = intern(metadata.nationalPrefixForParsing);
+    metadata.nationalPrefixTransformRule = intern(metadata.nationalPrefixTransformRule);
+    metadata.leadingDigits = intern(metadata.leadingDigits);
+    intern(metadata.generalDesc);
+    intern(metadata.fixedLine);
+    intern(metadata.mobile);
+    intern(metadata.tollFree);
+    intern(metadata.premiumRate);
+    intern(metadata.sharedCost);
+    intern(metadata.personalNumber);
+    intern(metadata.voip);
+    intern(metadata.pager);
+    intern(metadata.uan);
+    intern(metadata.emergency);
+    intern(metadata.voicemail);
+    intern(metadata.shortCode);
+    intern(metadata.standardRate);
+    intern(metadata.carrierSpecific);
+    intern(metadata.noInternationalDialling);
+    intern(metadata.numberFormat);
+    intern(metadata.intlNumberFormat);
+    return metadata;
+  }
+
+  /**
+   * Returns the pooled instance of the given string, adding it to the pool if it is not there yet.
+   */
+  static String intern(String string) {
+    if (string == null) {
+      return null;
+    }
+    synchronized (pool) {
+      WeakReference<String> reference = pool.get(string);
+      String pooled = (reference == null) ? null : reference.get();
+      if (pooled != null) {
+        return pooled;
+      }
+      pool.put(string, new WeakReference<String>(string));
+      return string;
+    }
+  }
+
+  private static void intern(PhoneNumberDesc desc) {
+    if (desc == null) {
+      return;
+    }
+    desc.nationalNumberPattern = intern(desc.nationalNumberPattern);
+    desc.possibleNumberPattern = intern(desc.possibleNumberPattern);
+    desc.exampleNumber = intern(desc.exampleNumber);
+  }
+
+  private static void intern(NumberFormat[] formats) {
+    for (NumberFormat format : formats) {
+      format.pattern = intern(format.pattern);
+      format.format = intern(format.format);
+      format.nationalPrefixFormattingRule = intern(format.nationalPrefixFormattingRule);
+      format.domesticCarrierCodeFormattingRule = intern(format.domesticCarrierCodeFormattingRule);
+      String[] leadingDigitsPatterns = format.leadingDigitsPattern;
+      for (int i = 0; i < leadingDigitsPatterns.length; i++) {
+        leadingDigitsPatterns[i] = intern(leadingDigitsPatterns[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * Interface for caller to be told about metadata being looked up and loaded, for example to find
+ * which regions are loaded on the first requests to a server and how long that takes. Set one
+ * with {@link PhoneNumberUtil#setMetadataLoadListener}.
+ *
+ * <p>Methods may be called concurrently from any thread using the library, so implementations
+ * must be thread-safe. They are called on the lookup path, so they should be quick and must not
+ * throw.
+ *
+ * <p>The key identifying the metadata is a region code for regions and short number metadata, a
+ * country calling code for non-geographical entities and alternate formats, or the file name when
+ * the metadata of all regions is loaded at once from a single file.
+ */
+public interface MetadataLoadListener {
+  /** The kinds of metadata that are loaded. */
+  public enum MetadataType {
+    /** The main metadata of a region or non-geographical entity. */
+    PHONE_NUMBER,
+    /** The alternate formats used to match numbers in text. */
+    ALTERNATE_FORMATS,
+    /** The short number metadata of a region. */
+    SHORT_NUMBER,
+  }
+
+  /**
+   * Called when metadata is looked up in a cache of loaded metadata.
+   *
+   * @param hit whether the metadata was already loaded
+   */
+  public void onCacheLookup(MetadataType type, String key, boolean hit);
+
+  /**
+   * Called before metadata is loaded.
+   */
+  public void onLoadStarted(MetadataType type, String key);
+
+  /**
+   * Called after metadata has been loaded, or has failed to load.
+   *
+   * @param bytes the size of the serialized metadata that was decoded, or 0 if loading failed
+   * @param nanos the time taken to read and decode the metadata, in nanoseconds
+   * @param succeeded whether the metadata was loaded
+   */
+  public void onLoadFinished(MetadataType type, String key, int bytes, long nanos,
+      boolean succeeded);
+}
@@ -20,14 +20,20 @@ import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
 import com.google.protobuf.nano.CodedInputByteBufferNano;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.util.Collections;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,10 +50,15 @@ final class MetadataManager {
 
   private static final Logger logger = Logger.getLogger(MetadataManager.class.getName());
 
-  private static final Map<Integer, PhoneMetadata> callingCodeToAlternateFormatsMap =
-      Collections.synchronizedMap(new HashMap<Integer, PhoneMetadata>());
-  private static final Map<String, PhoneMetadata> regionCodeToShortNumberMetadataMap =
-      Collections.synchronizedMap(new HashMap<String, PhoneMetadata>());
+  // The metadata loaded so far, or being loaded, for each key. Each file is loaded at most once, by
+  // the first thread to ask for it, while other threads asking for the same key wait for it and
+  // threads asking for other keys are not held up. Once loaded, lookups take no locks.
+  private static final ConcurrentHashMap<Integer, FutureTask<PhoneMetadata>>
+      callingCodeToAlternateFormatsMap =
+          new ConcurrentHashMap<Integer, FutureTask<PhoneMetadata>>();
+  private static final ConcurrentHashMap<String, FutureTask<PhoneMetadata>>
+      regionCodeToShortNumberMetadataMap =
+          new ConcurrentHashMap<String, FutureTask<PhoneMetadata>>();
 
   // A set of which country calling codes there are alternate format data for. If the set has an
   // entry for a code, then there should be data for that code linked into the resources.
@@ -71,6 +82,28 @@ final class MetadataManager {
   // the binary metadata file that contains all regions' metadata.
   static final int ALL_REGIONS_BUFFER_SIZE = 256 * 1024;
 
+  // The header and record types of the Java serialization format, which the metadata files are
+  // written in. The files hold nothing but block data records around the protocol buffer.
+  private static final int STREAM_MAGIC = 0xaced;
+  private static final int STREAM_VERSION = 5;
+  private static final int TC_BLOCKDATA = 0x77;
+  private static final int TC_BLOCKDATALONG = 0x7a;
+
+  // The listener told about metadata lookups and loads, or null if there is none.
+  private static volatile MetadataLoadListener loadListener;
+
+  // Loads the alternate formats and short number metadata files bundled with the library.
+  private static final MetadataLoader RESOURCE_LOADER = new MetadataLoader() {
+    @Override
+    public InputStream loadMetadata(String metadataFileName) {
+      return MetadataManager.class.getResourceAsStream(metadataFileName);
+    }
+  };
+
+  // A buffer kept between loads, so that loading metadata doesn't produce garbage beyond the
+  // metadata itself. A thread takes it while loading, so concurrent loads use their own buffers.
+  private static final AtomicReference<byte[]> pooledBuffer = new AtomicReference<byte[]>();
+
   static CodedInputByteBufferNano convertStreamToByteBuffer(ObjectInputStream in, int bufferSize)
       throws IOException {
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -88,79 +121,337 @@ final class MetadataManager {
   /**
    * Loads and returns the metadata protocol buffer from the given stream and closes the stream.
    *
+   * <p>The stream is read into a pooled buffer, and the Java serialization framing is removed in
+   * place, so that the protocol buffer is parsed without copying it again. Streams with framing
+   * other than plain block data records are read with an {@link ObjectInputStream} instead.
+   *
    * @param source      the non-null stream from which metadata is to be read.
-   * @param bufferSize  the size of the buffer in bytes used to convert the stream to a
-                        nanoproto-compatible {@code CodedInputByteBufferNano}.
+   * @param bufferSize  the initial size of the buffer in bytes that the stream is read into. The
+   *                    buffer grows if the stream is larger.
    * @return            the loaded metadata protocol buffer.
    */
   static PhoneMetadataCollection loadMetadataAndCloseInput(InputStream source, int bufferSize) {
-    ObjectInputStream ois = null;
+    byte[] buffer = takeBuffer(bufferSize);
     try {
+      int length = 0;
       try {
-        ois = new ObjectInputStream(source);
-      } catch (IOException e) {
-        throw new RuntimeException("cannot load/parse metadata", e);
-      }
-      PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
-      try {
-        metadataCollection.mergeFrom(convertStreamToByteBuffer(ois, bufferSize));
+        while (true) {
+          if (length == buffer.length) {
+            byte[] larger = new byte[Math.max(2 * buffer.length, DEFAULT_BUFFER_SIZE)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+          }
+          int nRead = source.read(buffer, length, buffer.length - length);
+          if (nRead == -1) {
+            break;
+          }
+          length += nRead;
+        }
       } catch (IOException e) {
         throw new RuntimeException("cannot load/parse metadata", e);
+      } finally {
+        try {
+          source.close();
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "error closing input stream (ignored)", e);
+        }
       }
+      return parseMetadata(buffer, length);
+    } finally {
+      releaseBuffer(buffer);
+    }
+  }
+
+  /**
+   * Loads and returns the metadata protocol buffer from the contents of a metadata file, without
+   * modifying the buffer. Metadata without Java serialization framing in a heap buffer is parsed
+   * where it is; anything else is first copied into a pooled buffer.
+   */
+  static PhoneMetadataCollection loadMetadata(ByteBuffer source) {
+    int length = source.remaining();
+    if (source.hasArray() && !hasStreamHeader(
+        source.array(), source.arrayOffset() + source.position(), length)) {
+      return parseProtocolBuffer(source.array(), source.arrayOffset() + source.position(), length);
+    }
+    byte[] buffer = takeBuffer(length);
+    try {
+      source.duplicate().get(buffer, 0, length);
+      return parseMetadata(buffer, length);
+    } finally {
+      releaseBuffer(buffer);
+    }
+  }
+
+  /**
+   * Loads the metadata protocol buffer from the file with the given name, using the given loader,
+   * and returns it, or null if the loader can't find the file.
+   */
+  static PhoneMetadataCollection loadMetadata(MetadataLoader metadataLoader, String fileName,
+      int bufferSize) {
+    if (metadataLoader instanceof ByteBufferMetadataLoader) {
+      ByteBuffer source = ((ByteBufferMetadataLoader) metadataLoader).loadMetadataBuffer(fileName);
+      return (source == null) ? null : loadMetadata(source);
+    }
+    InputStream source = metadataLoader.loadMetadata(fileName);
+    return (source == null) ? null : loadMetadataAndCloseInput(source, bufferSize);
+  }
+
+  /**
+   * As {@link #loadMetadata(MetadataLoader, String, int)}, but telling the load listener, if there
+   * is one, about the load of the metadata identified by the given type and key.
+   */
+  static PhoneMetadataCollection loadMetadata(MetadataLoader metadataLoader, String fileName,
+      int bufferSize, MetadataLoadListener.MetadataType type, String key) {
+    MetadataLoadListener listener = loadListener;
+    if (listener == null) {
+      return loadMetadata(metadataLoader, fileName, bufferSize);
+    }
+    listener.onLoadStarted(type, key);
+    long start = System.nanoTime();
+    PhoneMetadataCollection metadataCollection = null;
+    try {
+      metadataCollection = loadMetadata(metadataLoader, fileName, bufferSize);
       return metadataCollection;
     } finally {
-      try {
-        if (ois != null) {
-          // This will close all underlying streams as well, including source.
-          ois.close();
-        } else {
-          source.close();
-        }
-      } catch (IOException e) {
-        logger.log(Level.WARNING, "error closing input stream (ignored)", e);
+      listener.onLoadFinished(type, key,
+          (metadataCollection == null) ? 0 : metadataCollection.getSerializedSize(),
+          System.nanoTime() - start, metadataCollection != null);
+    }
+  }
+
+  /**
+   * Sets the listener told about metadata lookups and loads, or removes it if null.
+   */
+  static void setLoadListener(MetadataLoadListener listener) {
+    loadListener = listener;
+  }
+
+  /**
+   * Returns the listener told about metadata lookups and loads, or null if there is none.
+   */
+  static MetadataLoadListener getLoadListener() {
+    return loadListener;
+  }
+
+  // Parses the metadata in the first length bytes of the given buffer, which may be overwritten.
+  private static PhoneMetadataCollection parseMetadata(byte[] buffer, int length) {
+    if (!hasStreamHeader(buffer, 0, length)) {
+      return parseProtocolBuffer(buffer, 0, length);
+    }
+    if (!hasOnlyBlockData(buffer, length)) {
+      return parseWithObjectInputStream(buffer, length);
+    }
+    // Move the contents of the block data records to the start of the buffer, one after another.
+    int in = 4;
+    int out = 0;
+    while (in < length) {
+      int blockLength;
+      if ((buffer[in] & 0xff) == TC_BLOCKDATA) {
+        blockLength = buffer[in + 1] & 0xff;
+        in += 2;
+      } else {
+        blockLength = readInt(buffer, in + 1);
+        in += 5;
       }
+      System.arraycopy(buffer, in, buffer, out, blockLength);
+      in += blockLength;
+      out += blockLength;
+    }
+    return parseProtocolBuffer(buffer, 0, out);
+  }
+
+  private static boolean hasStreamHeader(byte[] buffer, int offset, int length) {
+    return length >= 4
+        && ((buffer[offset] & 0xff) << 8 | (buffer[offset + 1] & 0xff)) == STREAM_MAGIC
+        && ((buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff)) == STREAM_VERSION;
+  }
+
+  // Returns whether everything after the stream header is well-formed block data records, which
+  // is how ObjectOutputStream writes raw bytes.
+  private static boolean hasOnlyBlockData(byte[] buffer, int length) {
+    int in = 4;
+    while (in < length) {
+      int tag = buffer[in] & 0xff;
+      int blockLength;
+      if (tag == TC_BLOCKDATA && in + 2 <= length) {
+        blockLength = buffer[in + 1] & 0xff;
+        in += 2;
+      } else if (tag == TC_BLOCKDATALONG && in + 5 <= length) {
+        blockLength = readInt(buffer, in + 1);
+        in += 5;
+      } else {
+        return false;
+      }
+      if (blockLength < 0 || blockLength > length - in) {
+        return false;
+      }
+      in += blockLength;
+    }
+    return true;
+  }
+
+  private static int readInt(byte[] buffer, int offset) {
+    return (buffer[offset] & 0xff) << 24 | (buffer[offset + 1] & 0xff) << 16
+        | (buffer[offset + 2] & 0xff) << 8 | (buffer[offset + 3] & 0xff);
+  }
+
+  private static PhoneMetadataCollection parseProtocolBuffer(byte[] buffer, int offset,
+      int length) {
+    PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
+    try {
+      metadataCollection.mergeFrom(CodedInputByteBufferNano.newInstance(buffer, offset, length));
+    } catch (IOException e) {
+      throw new RuntimeException("cannot load/parse metadata", e);
+    }
+    return MetadataInterner.intern(metadataCollection);
+  }
+
+  private static PhoneMetadataCollection parseWithObjectInputStream(byte[] buffer, int length) {
+    try {
+      ObjectInputStream ois =
+          new ObjectInputStream(new ByteArrayInputStream(buffer, 0, length));
+      PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
+      metadataCollection.mergeFrom(convertStreamToByteBuffer(ois, DEFAULT_BUFFER_SIZE));
+      return MetadataInterner.intern(metadataCollection);
+    } catch (IOException e) {
+      throw new RuntimeException("cannot load/parse metadata", e);
+    }
+  }
+
+  private static byte[] takeBuffer(int minimumSize) {
+    byte[] buffer = pooledBuffer.getAndSet(null);
+    return (buffer != null && buffer.length >= minimumSize) ? buffer : new byte[minimumSize];
+  }
+
+  private static void releaseBuffer(byte[] buffer) {
+    // Keep the larger buffer, so that loading the single file of all regions doesn't leave a
+    // buffer too small for it.
+    byte[] pooled = pooledBuffer.get();
+    if (pooled == null || pooled.length < buffer.length) {
+      pooledBuffer.compareAndSet(pooled, buffer);
     }
   }
 
-  private static void loadAlternateFormatsMetadataFromFile(int countryCallingCode) {
+  private static PhoneMetadata loadAlternateFormatsMetadataFromFile(int countryCallingCode) {
     String fileName = ALTERNATE_FORMATS_FILE_PREFIX + "_" + countryCallingCode;
-    InputStream source = MetadataManager.class.getResourceAsStream(fileName);
-    if (source == null) {
+    PhoneMetadataCollection alternateFormatData = loadMetadata(RESOURCE_LOADER, fileName,
+        DEFAULT_BUFFER_SIZE, MetadataLoadListener.MetadataType.ALTERNATE_FORMATS,
+        String.valueOf(countryCallingCode));
+    if (alternateFormatData == null) {
       // Sanity check; this should not happen since we only load things based on the expectation
       // that they are present, by checking the map of available data first.
       throw new IllegalStateException("missing metadata: " + fileName);
     }
-    PhoneMetadataCollection alternateFormatData =
-        loadMetadataAndCloseInput(source, DEFAULT_BUFFER_SIZE);
     for (PhoneMetadata metadata : alternateFormatData.metadata) {
-      callingCodeToAlternateFormatsMap.put(metadata.countryCode, metadata);
+      if (metadata.countryCode == countryCallingCode) {
+        return metadata;
+      }
     }
+    return null;
   }
 
-  static PhoneMetadata getAlternateFormatsForCountry(int countryCallingCode) {
+  static PhoneMetadata getAlternateFormatsForCountry(final int countryCallingCode) {
     if (!countryCodeSet.contains(countryCallingCode)) {
       return null;
     }
-    synchronized (callingCodeToAlternateFormatsMap) {
-      if (!callingCodeToAlternateFormatsMap.containsKey(countryCallingCode)) {
-        loadAlternateFormatsMetadataFromFile(countryCallingCode);
-      }
-    }
-    return callingCodeToAlternateFormatsMap.get(countryCallingCode);
+    return getOrLoad(callingCodeToAlternateFormatsMap, countryCallingCode,
+        new Callable<PhoneMetadata>() {
+          @Override
+          public PhoneMetadata call() {
+            return loadAlternateFormatsMetadataFromFile(countryCallingCode);
+          }
+        }, MetadataLoadListener.MetadataType.ALTERNATE_FORMATS);
   }
 
-  private static void loadShortNumberMetadataFromFile(String regionCode) {
+  private static PhoneMetadata loadShortNumberMetadataFromFile(String regionCode) {
     String fileName = SHORT_NUMBER_METADATA_FILE_PREFIX + "_" + regionCode;
-    InputStream source = MetadataManager.class.getResourceAsStream(fileName);
-    if (source == null) {
+    PhoneMetadataCollection shortNumberData = loadMetadata(RESOURCE_LOADER, fileName,
+        DEFAULT_BUFFER_SIZE, MetadataLoadListener.MetadataType.SHORT_NUMBER, regionCode);
+    if (shortNumberData == null) {
       // Sanity check; this should not happen since we only load things based on the expectation
       // that they are present, by checking the map of available data first.
       throw new IllegalStateException("missing metadata: " + fileName);
     }
-    PhoneMetadataCollection shortNumberData =
-        loadMetadataAndCloseInput(source, DEFAULT_BUFFER_SIZE);
-    for (PhoneMetadata metadata : shortNumberData.metadata) {
-        regionCodeToShortNumberMetadataMap.put(regionCode, metadata);
+    PhoneMetadata[] metadatas = shortNumberData.metadata;
+    // The file should hold a single entry; if there are several, the last one is used.
+    return (metadatas.length == 0) ? null : metadatas[metadatas.length - 1];
+  }
+
+  /**
+   * Returns the metadata for the given key, loading it with the given loader if no other thread
+   * has done so yet. If loading fails, the exception is thrown to the threads waiting for it, and
+   * the next call for the same key tries again.
+   */
+  private static <K> PhoneMetadata getOrLoad(ConcurrentHashMap<K, FutureTask<PhoneMetadata>> map,
+      K key, Callable<PhoneMetadata> loader, MetadataLoadListener.MetadataType type) {
+    FutureTask<PhoneMetadata> task = map.get(key);
+    MetadataLoadListener listener = loadListener;
+    if (listener != null) {
+      listener.onCacheLookup(type, key.toString(), task != null);
+    }
+    if (task == null) {
+      FutureTask<PhoneMetadata> newTask = new FutureTask<PhoneMetadata>(loader);
+      task = map.putIfAbsent(key, newTask);
+      if (task == null) {
+        task = newTask;
+        task.run();
+      }
+    }
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          // Loading used to happen under a lock, which can't be interrupted either, so we keep
+          // waiting and restore the interrupt afterwards.
+          interrupted = true;
+        } catch (ExecutionException e) {
+          map.remove(key, task);
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new RuntimeException("cannot load/parse metadata", cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Adds to the given list a task for loading each of the alternate formats and short number
+   * metadata files of the country calling codes and regions in the given map, for
+   * {@link MetadataPreloader}.
+   */
+  static void addPreloadTasks(List<Runnable> tasks,
+      Map<Integer, List<String>> countryCallingCodeToRegionCodeMap) {
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      final int countryCallingCode = entry.getKey();
+      if (countryCodeSet.contains(countryCallingCode)) {
+        tasks.add(new Runnable() {
+          @Override
+          public void run() {
+            getAlternateFormatsForCountry(countryCallingCode);
+          }
+        });
+      }
+      for (final String regionCode : entry.getValue()) {
+        if (regionCodeSet.contains(regionCode)) {
+          tasks.add(new Runnable() {
+            @Override
+            public void run() {
+              getShortNumberMetadataForRegion(regionCode);
+            }
+          });
+        }
+      }
     }
   }
 
@@ -169,15 +460,16 @@ final class MetadataManager {
     return regionCodeSet;
   }
 
-  static PhoneMetadata getShortNumberMetadataForRegion(String regionCode) {
+  static PhoneMetadata getShortNumberMetadataForRegion(final String regionCode) {
     if (!regionCodeSet.contains(regionCode)) {
       return null;
     }
-    synchronized (regionCodeToShortNumberMetadataMap) {
-      if (!regionCodeToShortNumberMetadataMap.containsKey(regionCode)) {
-        loadShortNumberMetadataFromFile(regionCode);
-      }
-    }
-    return regionCodeToShortNumberMetadataMap.get(regionCode);
+    return getOrLoad(regionCodeToShortNumberMetadataMap, regionCode,
+        new Callable<PhoneMetadata>() {
+          @Override
+          public PhoneMetadata call() {
+            return loadShortNumberMetadataFromFile(regionCode);
+          }
+        }, MetadataLoadListener.MetadataType.SHORT_NUMBER);
   }
 }
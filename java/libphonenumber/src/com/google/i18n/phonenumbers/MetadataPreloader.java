@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs metadata loading tasks, or other tasks such as those of {@link BatchParser}, on an
+ * {@link Executor}, and tracks them with a single {@link Future} that completes when all of them
+ * have finished.
+ */
+final class MetadataPreloader {
+  private MetadataPreloader() {
+  }
+
+  /**
+   * Submits the given metadata loading tasks to the executor, and returns a future that completes
+   * when they have all run. If any task fails, the future fails with the first exception thrown,
+   * once all the tasks have finished. The future cannot be cancelled.
+   */
+  static Future<Void> preload(List<Runnable> tasks, Executor executor) {
+    return run(tasks, executor, "metadata files still loading");
+  }
+
+  /**
+   * Same as {@link #preload}, for tasks other than loading metadata. If waiting for the future
+   * times out, the message of the exception is the number of tasks left followed by
+   * pendingTasksMessage, which says what those tasks are doing.
+   */
+  static Future<Void> run(List<Runnable> tasks, Executor executor, String pendingTasksMessage) {
+    final CompletionFuture future = new CompletionFuture(tasks.size(), pendingTasksMessage);
+    for (final Runnable task : tasks) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            future.fail(e);
+          } catch (Error e) {
+            future.fail(e);
+            throw e;
+          } finally {
+            future.taskDone();
+          }
+        }
+      });
+    }
+    return future;
+  }
+
+  private static final class CompletionFuture implements Future<Void> {
+    private final CountDownLatch remainingTasks;
+    private final String pendingTasksMessage;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    CompletionFuture(int taskCount, String pendingTasksMessage) {
+      remainingTasks = new CountDownLatch(taskCount);
+      this.pendingTasksMessage = pendingTasksMessage;
+    }
+
+    void fail(Throwable t) {
+      failure.compareAndSet(null, t);
+    }
+
+    void taskDone() {
+      remainingTasks.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return remainingTasks.getCount() == 0;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      remainingTasks.await();
+      return getResult();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      if (!remainingTasks.await(timeout, unit)) {
+        throw new TimeoutException(remainingTasks.getCount() + " " + pendingTasksMessage);
+      }
+      return getResult();
+    }
+
+    private Void getResult() throws ExecutionException {
+      Throwable t = failure.get();
+      if (t != null) {
+        throw new ExecutionException(t);
+      }
+      return null;
+    }
+  }
+}
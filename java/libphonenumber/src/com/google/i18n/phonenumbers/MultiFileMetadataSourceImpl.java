@@ -19,9 +19,12 @@ package com.google.i18n.phonenumbers;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
 
-import java.io.InputStream;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +72,11 @@ final class MultiFileMetadataSourceImpl implements MetadataSource {
   @Override
   public PhoneMetadata getMetadataForRegion(String regionCode) {
     PhoneMetadata metadata = geographicalRegions.get(regionCode);
+    MetadataLoadListener listener = MetadataManager.getLoadListener();
+    if (listener != null) {
+      listener.onCacheLookup(
+          MetadataLoadListener.MetadataType.PHONE_NUMBER, regionCode, metadata != null);
+    }
     return (metadata != null) ? metadata : loadMetadataFromFile(
         regionCode, geographicalRegions, filePrefix, metadataLoader);
   }
@@ -76,6 +84,11 @@ final class MultiFileMetadataSourceImpl implements MetadataSource {
   @Override
   public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
     PhoneMetadata metadata = nonGeographicalRegions.get(countryCallingCode);
+    MetadataLoadListener listener = MetadataManager.getLoadListener();
+    if (listener != null) {
+      listener.onCacheLookup(MetadataLoadListener.MetadataType.PHONE_NUMBER,
+          String.valueOf(countryCallingCode), metadata != null);
+    }
     if (metadata != null) {
       return metadata;
     }
@@ -87,6 +100,35 @@ final class MultiFileMetadataSourceImpl implements MetadataSource {
     return null;
   }
 
+  /**
+   * Loads the metadata of every region and non-geographical entity in the given map, along with
+   * their alternate formats and short number metadata, using the given executor to load the files
+   * in parallel.
+   *
+   * @return a future that completes once all the metadata is loaded
+   */
+  Future<Void> preloadAll(Map<Integer, List<String>> countryCallingCodeToRegionCodeMap,
+      Executor executor) {
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      final int countryCallingCode = entry.getKey();
+      for (final String regionCode : entry.getValue()) {
+        tasks.add(new Runnable() {
+          @Override
+          public void run() {
+            if (PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode)) {
+              getMetadataForNonGeographicalRegion(countryCallingCode);
+            } else {
+              getMetadataForRegion(regionCode);
+            }
+          }
+        });
+      }
+    }
+    MetadataManager.addPreloadTasks(tasks, countryCallingCodeToRegionCodeMap);
+    return MetadataPreloader.preload(tasks, executor);
+  }
+
   // A country calling code is non-geographical if it only maps to the non-geographical region code,
   // i.e. "001".
   private boolean isNonGeographical(int countryCallingCode) {
@@ -110,14 +152,14 @@ final class MultiFileMetadataSourceImpl implements MetadataSource {
       MetadataLoader metadataLoader) {
     // We assume key.toString() is well-defined.
     String fileName = filePrefix + "_" + key;
-    InputStream source = metadataLoader.loadMetadata(fileName);
-    if (source == null) {
+    PhoneMetadataCollection metadataCollection = MetadataManager.loadMetadata(
+        metadataLoader, fileName, MetadataManager.DEFAULT_BUFFER_SIZE,
+        MetadataLoadListener.MetadataType.PHONE_NUMBER, key.toString());
+    if (metadataCollection == null) {
       // Sanity check; this should not happen since we only load things based on the expectation
       // that they are present, by checking the map of available data first.
       throw new IllegalStateException("missing metadata: " + fileName);
     }
-    PhoneMetadataCollection metadataCollection =
-        MetadataManager.loadMetadataAndCloseInput(source, MetadataManager.DEFAULT_BUFFER_SIZE);
     PhoneMetadata[] metadatas = metadataCollection.metadata;
     if (metadatas.length == 0) {
       // Sanity check; this should not happen since we build with non-empty metadata.
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+/**
+ * A reusable buffer holding the national significant number of a {@link PhoneNumber} as a
+ * sequence of digits, with the same contents as
+ * {@link PhoneNumberUtil#getNationalSignificantNumber}.
+ *
+ * <p>Passing the same buffer to the validation methods of {@link PhoneNumberUtil} that accept one,
+ * such as {@link PhoneNumberUtil#isValidNumber(PhoneNumber, NationalNumberBuffer)}, avoids
+ * building a new String for every number checked. Instances are not thread-safe, so each thread
+ * should use its own buffer.
+ */
+public final class NationalNumberBuffer implements CharSequence {
+  // Long.MIN_VALUE has 19 digits and a sign, so this fits any number without leading zeros.
+  private static final int DEFAULT_CAPACITY = 20;
+
+  private char[] digits = new char[DEFAULT_CAPACITY];
+  private int length = 0;
+
+  /**
+   * Replaces the contents of this buffer with the national significant number of the given phone
+   * number, including any Italian leading zeros.
+   */
+  public void setNumber(PhoneNumber number) {
+    int leadingZeros = number.isItalianLeadingZero() ? number.getNumberOfLeadingZeros() : 0;
+    if (digits.length < leadingZeros + DEFAULT_CAPACITY) {
+      digits = new char[leadingZeros + DEFAULT_CAPACITY];
+    }
+    length = 0;
+    for (int i = 0; i < leadingZeros; i++) {
+      digits[length++] = '0';
+    }
+    long nationalNumber = number.getNationalNumber();
+    if (nationalNumber < 0) {
+      digits[length++] = '-';
+    }
+    // Write the digits backwards from the end of the buffer, then move them into place. Working
+    // with the negated value means Long.MIN_VALUE needs no special case.
+    int end = digits.length;
+    int start = end;
+    long remaining = (nationalNumber < 0) ? nationalNumber : -nationalNumber;
+    do {
+      digits[--start] = (char) ('0' - (remaining % 10));
+      remaining /= 10;
+    } while (remaining != 0);
+    System.arraycopy(digits, start, digits, length, end - start);
+    length += end - start;
+  }
+
+  // @Override
+  public int length() {
+    return length;
+  }
+
+  // @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+    }
+    return digits[index];
+  }
+
+  // @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException(
+          "start: " + start + ", end: " + end + ", length: " + length);
+    }
+    return new String(digits, start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(digits, 0, length);
+  }
+}
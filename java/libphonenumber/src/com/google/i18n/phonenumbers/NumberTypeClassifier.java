@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ValidationResult;
+import com.google.i18n.phonenumbers.internal.DigitAutomaton;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import java.util.BitSet;
+
+/**
+ * Classifies national significant numbers of one region by type, in a single pass over their
+ * digits. The possible and national number patterns of all the number descriptions used by
+ * {@link PhoneNumberUtil#getNumberType} are compiled into one {@link DigitAutomaton}, and the
+ * result is then picked in the same order of precedence as the regular expression based code.
+ *
+ * <p>The classifier also knows which lengths the patterns of the general description can match,
+ * so that numbers of the wrong length are rejected without running any pattern at all.
+ */
+final class NumberTypeClassifier {
+  // The number descriptions we classify against, in order of precedence. generalDesc, fixedLine
+  // and mobile are handled separately.
+  private static final int GENERAL = 0;
+  private static final int PREMIUM_RATE = 1;
+  private static final int TOLL_FREE = 2;
+  private static final int SHARED_COST = 3;
+  private static final int VOIP = 4;
+  private static final int PERSONAL_NUMBER = 5;
+  private static final int PAGER = 6;
+  private static final int UAN = 7;
+  private static final int VOICEMAIL = 8;
+  private static final int FIXED_LINE = 9;
+  private static final int MOBILE = 10;
+  private static final int DESC_COUNT = 11;
+
+  private static final PhoneNumberType[] TYPES_IN_ORDER = {
+    null,
+    PhoneNumberType.PREMIUM_RATE,
+    PhoneNumberType.TOLL_FREE,
+    PhoneNumberType.SHARED_COST,
+    PhoneNumberType.VOIP,
+    PhoneNumberType.PERSONAL_NUMBER,
+    PhoneNumberType.PAGER,
+    PhoneNumberType.UAN,
+    PhoneNumberType.VOICEMAIL,
+  };
+
+  // The metadata this classifier was built from.
+  private final PhoneMetadata metadata;
+  // Pattern 2 * i is the possible number pattern of description i, and pattern 2 * i + 1 its
+  // national number pattern. Null if the metadata could not be compiled, in which case callers
+  // must fall back to matching the descriptions one at a time.
+  private final DigitAutomaton automaton;
+  // The states of the automaton from which some number of a known type can still be reached.
+  private final BitSet liveStates;
+  // The lengths the general description's possible number pattern can match, in the format of
+  // DigitAutomaton.getLengthMask, and whether the pattern depends on nothing but the length.
+  private final long possibleLengths;
+  private final boolean possibleLengthsOnly;
+
+  private NumberTypeClassifier(PhoneMetadata metadata, DigitAutomaton automaton,
+      long possibleLengths, boolean possibleLengthsOnly) {
+    this.metadata = metadata;
+    this.automaton = automaton;
+    this.liveStates = (automaton == null) ? null : findLiveStates();
+    this.possibleLengths = possibleLengths;
+    this.possibleLengthsOnly = possibleLengthsOnly;
+  }
+
+  private static NumberTypeClassifier create(PhoneMetadata metadata, DigitAutomaton automaton) {
+    DigitAutomaton possibleNumberAutomaton = (metadata.generalDesc == null)
+        ? null : DigitAutomaton.compile(metadata.generalDesc.possibleNumberPattern);
+    if (possibleNumberAutomaton == null) {
+      return new NumberTypeClassifier(metadata, automaton, 0, false);
+    }
+    return new NumberTypeClassifier(metadata, automaton, possibleNumberAutomaton.getLengthMask(0),
+        possibleNumberAutomaton.dependsOnlyOnLength());
+  }
+
+  /**
+   * Rebuilds a classifier for the given metadata from the parts of one built earlier, as returned
+   * by {@link #getAutomaton}, {@link #getPossibleLengths} and {@link #isPossibleLengthsOnly}.
+   */
+  static NumberTypeClassifier restore(PhoneMetadata metadata, DigitAutomaton automaton,
+      long possibleLengths, boolean possibleLengthsOnly) {
+    return new NumberTypeClassifier(metadata, automaton, possibleLengths, possibleLengthsOnly);
+  }
+
+  /**
+   * Builds a classifier for the given metadata. This is expensive compared to classifying a
+   * number, so the result should be cached.
+   */
+  static NumberTypeClassifier create(PhoneMetadata metadata) {
+    PhoneNumberDesc[] descs = {
+      metadata.generalDesc,
+      metadata.premiumRate,
+      metadata.tollFree,
+      metadata.sharedCost,
+      metadata.voip,
+      metadata.personalNumber,
+      metadata.pager,
+      metadata.uan,
+      metadata.voicemail,
+      metadata.fixedLine,
+      metadata.mobile,
+    };
+    String[] patterns = new String[2 * DESC_COUNT];
+    for (int i = 0; i < DESC_COUNT; i++) {
+      if (descs[i] == null) {
+        return create(metadata, null);
+      }
+      patterns[2 * i] = descs[i].possibleNumberPattern;
+      patterns[2 * i + 1] = descs[i].nationalNumberPattern;
+    }
+    return create(metadata, DigitAutomaton.compile(patterns));
+  }
+
+  /** Returns the automaton classifying numbers, or null if the metadata could not be compiled. */
+  DigitAutomaton getAutomaton() {
+    return automaton;
+  }
+
+  /** Returns the lengths the general description's possible number pattern can match. */
+  long getPossibleLengths() {
+    return possibleLengths;
+  }
+
+  /** Returns whether the general description's possible number pattern only checks lengths. */
+  boolean isPossibleLengthsOnly() {
+    return possibleLengthsOnly;
+  }
+
+  /**
+   * Returns whether this classifier can classify numbers at all; it can't if the metadata could
+   * not be compiled.
+   */
+  boolean isUsable() {
+    return automaton != null;
+  }
+
+  /**
+   * Returns whether a number starting with the given ASCII digits could be of some known type.
+   * This must only be called if {@link #isUsable} returns true.
+   */
+  boolean canStartWith(CharSequence digits) {
+    int state = automaton.getFinalState(digits);
+    return state >= 0 && liveStates.get(state);
+  }
+
+  // Finds the states that are either classified as a known type themselves, or lead to one.
+  private BitSet findLiveStates() {
+    int stateCount = automaton.getStateCount();
+    BitSet live = new BitSet(stateCount);
+    for (int state = 0; state < stateCount; state++) {
+      if (getType(state) != PhoneNumberType.UNKNOWN) {
+        live.set(state);
+      }
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int state = live.nextClearBit(0); state < stateCount;
+          state = live.nextClearBit(state + 1)) {
+        for (int digit = 0; digit <= 9; digit++) {
+          int target = automaton.getNextState(state, digit);
+          if (target >= 0 && live.get(target)) {
+            live.set(state);
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+    return live;
+  }
+
+  /**
+   * Returns the type of the given national significant number, or null if it could not be
+   * determined by this classifier, because the number contains something other than ASCII digits
+   * or the metadata could not be compiled.
+   */
+  PhoneNumberType classify(CharSequence nationalNumber) {
+    if (automaton == null) {
+      return null;
+    }
+    int length = nationalNumber.length();
+    if (!automaton.canMatchLength(2 * GENERAL, length)
+        || !automaton.canMatchLength(2 * GENERAL + 1, length)) {
+      // No number of this length is valid for the region.
+      return isAsciiDigits(nationalNumber) ? PhoneNumberType.UNKNOWN : null;
+    }
+    int state = automaton.getFinalState(nationalNumber);
+    if (state == DigitAutomaton.NOT_DIGITS) {
+      return null;
+    }
+    if (state == DigitAutomaton.NO_MATCH) {
+      return PhoneNumberType.UNKNOWN;
+    }
+    return getType(state);
+  }
+
+  // Returns the type of the numbers ending in the given state, which must not be negative.
+  private PhoneNumberType getType(int state) {
+    if (!matches(state, GENERAL)) {
+      return PhoneNumberType.UNKNOWN;
+    }
+    for (int i = PREMIUM_RATE; i <= VOICEMAIL; i++) {
+      if (matches(state, i)) {
+        return TYPES_IN_ORDER[i];
+      }
+    }
+    if (matches(state, FIXED_LINE)) {
+      if (metadata.sameMobileAndFixedLinePattern || matches(state, MOBILE)) {
+        return PhoneNumberType.FIXED_LINE_OR_MOBILE;
+      }
+      return PhoneNumberType.FIXED_LINE;
+    }
+    if (!metadata.sameMobileAndFixedLinePattern && matches(state, MOBILE)) {
+      return PhoneNumberType.MOBILE;
+    }
+    return PhoneNumberType.UNKNOWN;
+  }
+
+  /**
+   * Tests the length of the given national number against the possible number pattern of the
+   * general description, with the same results as {@code testNumberLengthAgainstPattern} in
+   * {@link PhoneNumberUtil}. Returns null if this can't be done by looking at the length alone,
+   * because the pattern also constrains the digits, or the number isn't all ASCII digits.
+   */
+  ValidationResult testNumberLength(CharSequence nationalNumber) {
+    int length = nationalNumber.length();
+    if (!possibleLengthsOnly || length >= 63 || !isAsciiDigits(nationalNumber)) {
+      return null;
+    }
+    if ((possibleLengths & (1L << length)) != 0) {
+      return ValidationResult.IS_POSSIBLE;
+    }
+    // The number is too long if some proper prefix of it, including the empty one, matches.
+    return (possibleLengths & ((1L << length) - 1)) != 0
+        ? ValidationResult.TOO_LONG : ValidationResult.TOO_SHORT;
+  }
+
+  private static boolean isAsciiDigits(CharSequence number) {
+    for (int i = 0; i < number.length(); i++) {
+      char c = number.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matches(int state, int desc) {
+    return automaton.accepts(state, 2 * desc) && automaton.accepts(state, 2 * desc + 1);
+  }
+}
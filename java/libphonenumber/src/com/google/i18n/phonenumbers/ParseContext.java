@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The scratch space used while parsing a phone number: the buffers holding the number at each
+ * step, and a matcher for each regular expression that has been applied to it.
+ *
+ * <p>Passing the same context to
+ * {@link PhoneNumberUtil#parse(CharSequence, String, Phonenumber.PhoneNumber, ParseContext)} for
+ * every number parsed means the buffers and matchers are allocated once, rather than for each
+ * number. A context may be used with any {@link PhoneNumberUtil} instance. Instances are not
+ * thread-safe, so each thread should use its own context.
+ */
+public final class ParseContext {
+  private static final int DEFAULT_CAPACITY = 32;
+  // The most matchers a context keeps, the same as the number of patterns in the regex cache of
+  // PhoneNumberUtil. A context used with numbers from many regions clears its matchers when it
+  // has this many, rather than growing with every region it has seen.
+  // @VisibleForTesting
+  static final int MAX_MATCHERS = 100;
+
+  // The number extracted from the input, before it is normalized.
+  final StringBuilder nationalNumber = new StringBuilder(DEFAULT_CAPACITY);
+  // The normalized national significant number.
+  final StringBuilder normalizedNationalNumber = new StringBuilder(DEFAULT_CAPACITY);
+  // The national significant number with its national prefix stripped.
+  final StringBuilder potentialNationalNumber = new StringBuilder(DEFAULT_CAPACITY);
+  // The number with any international prefix stripped, while its country calling code is found.
+  final StringBuilder fullNumber = new StringBuilder(DEFAULT_CAPACITY);
+  // A number after the national prefix transform rule of its region was applied.
+  final StringBuilder transformedNumber = new StringBuilder(DEFAULT_CAPACITY);
+  final StringBuilder carrierCode = new StringBuilder(DEFAULT_CAPACITY);
+  // Why the number could not be parsed, set by the helpers that report failures this way.
+  PhoneNumberUtil.ParseFailure failure;
+  // A default region whose metadata has already been looked up, for parsing many numbers from the
+  // same region, and the instance it was looked up by. Only set by BatchParser, on contexts it
+  // doesn't share with other callers. This is kept across calls to reset(), so it is only used by
+  // the instance that set it.
+  private PhoneNumberUtil defaultRegionOwner;
+  private String defaultRegion;
+  private PhoneMetadata defaultRegionMetadata;
+
+  // One matcher per regular expression. A matcher is only used until the next call to matcher()
+  // for the same expression, so callers must be done with it by then. The matchers are keyed by
+  // the expression rather than the pattern, as the regex cache compiles an expression again once
+  // it has been evicted, and the new pattern should not need a new matcher.
+  private final Map<String, Matcher> matchers = new HashMap<String, Matcher>();
+
+  /**
+   * Returns a matcher of the given pattern, reset to match the given input.
+   */
+  Matcher matcher(Pattern pattern, CharSequence input) {
+    Matcher matcher = matchers.get(pattern.pattern());
+    if (matcher == null) {
+      if (matchers.size() >= MAX_MATCHERS) {
+        matchers.clear();
+      }
+      matcher = pattern.matcher(input);
+      matchers.put(pattern.pattern(), matcher);
+      return matcher;
+    }
+    if (matcher.pattern() != pattern) {
+      matcher.usePattern(pattern);
+    }
+    return matcher.reset(input);
+  }
+
+  /**
+   * Records the metadata the given instance looked up for the given default region, so that it
+   * isn't looked up again for each number parsed with that region.
+   */
+  void setDefaultRegion(PhoneNumberUtil owner, String regionCode, PhoneMetadata metadata) {
+    defaultRegionOwner = owner;
+    defaultRegion = regionCode;
+    defaultRegionMetadata = metadata;
+  }
+
+  /**
+   * Returns whether metadata for the given default region was recorded by the given instance.
+   */
+  boolean hasDefaultRegion(PhoneNumberUtil owner, String regionCode) {
+    return owner == defaultRegionOwner && regionCode != null && regionCode.equals(defaultRegion);
+  }
+
+  PhoneMetadata getDefaultRegionMetadata() {
+    return defaultRegionMetadata;
+  }
+
+  // @VisibleForTesting
+  int matcherCount() {
+    return matchers.size();
+  }
+
+  /**
+   * Clears the buffers before a new number is parsed.
+   */
+  void reset() {
+    nationalNumber.setLength(0);
+    normalizedNationalNumber.setLength(0);
+    potentialNationalNumber.setLength(0);
+    fullNumber.setLength(0);
+    transformedNumber.setLength(0);
+    carrierCode.setLength(0);
+    failure = null;
+  }
+}
@@ -199,6 +199,8 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
   private final Leniency leniency;
   /** The maximum number of retries after matching an invalid number. */
   private long maxTries;
+  /** The buffers used to parse candidates, which are reused since there may be many. */
+  private final ParseContext parseContext = new ParseContext();
 
   /** The iteration tristate. */
   private State state = State.NOT_READY;
@@ -254,7 +256,11 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
       // Check for extra numbers at the end.
       // TODO: This is the place to start when trying to support extraction of multiple phone number
       // from split notations (+41 79 123 45 67 / 68).
-      candidate = trimAfterFirstMatch(PhoneNumberUtil.SECOND_NUMBER_START_PATTERN, candidate);
+      int secondNumberStart =
+          PossibleNumberScanner.findSecondNumberStart(candidate, 0, candidate.length());
+      if (secondNumberStart >= 0) {
+        candidate = candidate.subSequence(0, secondNumberStart);
+      }
 
       PhoneNumberMatch match = extractMatch(candidate, start);
       if (match != null) {
@@ -269,15 +275,12 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
   }
 
   /**
-   * Trims away any characters after the first match of {@code pattern} in {@code candidate},
+   * Trims away the trailing characters of {@code candidate} that are neither letters nor digits,
    * returning the trimmed version.
    */
-  private static CharSequence trimAfterFirstMatch(Pattern pattern, CharSequence candidate) {
-    Matcher trailingCharsMatcher = pattern.matcher(candidate);
-    if (trailingCharsMatcher.find()) {
-      candidate = candidate.subSequence(0, trailingCharsMatcher.start());
-    }
-    return candidate;
+  private static String trimTrailingChars(String candidate) {
+    return candidate.substring(0,
+        PossibleNumberScanner.trimTrailingChars(candidate, 0, candidate.length()));
   }
 
   /**
@@ -352,19 +355,16 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
       while (groupMatcher.find() && maxTries > 0) {
         if (isFirstMatch) {
           // We should handle any group before this one too.
-          CharSequence group = trimAfterFirstMatch(
-              PhoneNumberUtil.UNWANTED_END_CHAR_PATTERN,
-              candidate.substring(0, groupMatcher.start()));
-          PhoneNumberMatch match = parseAndVerify(group.toString(), offset);
+          String group = trimTrailingChars(candidate.substring(0, groupMatcher.start()));
+          PhoneNumberMatch match = parseAndVerify(group, offset);
           if (match != null) {
             return match;
           }
           maxTries--;
           isFirstMatch = false;
         }
-        CharSequence group = trimAfterFirstMatch(
-            PhoneNumberUtil.UNWANTED_END_CHAR_PATTERN, groupMatcher.group(1));
-        PhoneNumberMatch match = parseAndVerify(group.toString(), offset + groupMatcher.start(1));
+        String group = trimTrailingChars(groupMatcher.group(1));
+        PhoneNumberMatch match = parseAndVerify(group, offset + groupMatcher.start(1));
         if (match != null) {
           return match;
         }
@@ -384,66 +384,66 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
    * @return  the parsed and validated phone number match, or null
    */
   private PhoneNumberMatch parseAndVerify(String candidate, int offset) {
-    try {
-      // Check the candidate doesn't contain any formatting which would indicate that it really
-      // isn't a phone number.
-      if (!MATCHING_BRACKETS.matcher(candidate).matches() || PUB_PAGES.matcher(candidate).find()) {
-        return null;
-      }
+    // Check the candidate doesn't contain any formatting which would indicate that it really
+    // isn't a phone number.
+    if (!MATCHING_BRACKETS.matcher(candidate).matches() || PUB_PAGES.matcher(candidate).find()) {
+      return null;
+    }
 
-      // If leniency is set to VALID or stricter, we also want to skip numbers that are surrounded
-      // by Latin alphabetic characters, to skip cases like abc8005001234 or 8005001234def.
-      if (leniency.compareTo(Leniency.VALID) >= 0) {
-        // If the candidate is not at the start of the text, and does not start with phone-number
-        // punctuation, check the previous character.
-        if (offset > 0 && !LEAD_CLASS.matcher(candidate).lookingAt()) {
-          char previousChar = text.charAt(offset - 1);
-          // We return null if it is a latin letter or an invalid punctuation symbol.
-          if (isInvalidPunctuationSymbol(previousChar) || isLatinLetter(previousChar)) {
-            return null;
-          }
+    // If leniency is set to VALID or stricter, we also want to skip numbers that are surrounded
+    // by Latin alphabetic characters, to skip cases like abc8005001234 or 8005001234def.
+    if (leniency.compareTo(Leniency.VALID) >= 0) {
+      // If the candidate is not at the start of the text, and does not start with phone-number
+      // punctuation, check the previous character.
+      if (offset > 0 && !LEAD_CLASS.matcher(candidate).lookingAt()) {
+        char previousChar = text.charAt(offset - 1);
+        // We return null if it is a latin letter or an invalid punctuation symbol.
+        if (isInvalidPunctuationSymbol(previousChar) || isLatinLetter(previousChar)) {
+          return null;
         }
-        int lastCharIndex = offset + candidate.length();
-        if (lastCharIndex < text.length()) {
-          char nextChar = text.charAt(lastCharIndex);
-          if (isInvalidPunctuationSymbol(nextChar) || isLatinLetter(nextChar)) {
-            return null;
-          }
+      }
+      int lastCharIndex = offset + candidate.length();
+      if (lastCharIndex < text.length()) {
+        char nextChar = text.charAt(lastCharIndex);
+        if (isInvalidPunctuationSymbol(nextChar) || isLatinLetter(nextChar)) {
+          return null;
         }
       }
+    }
 
-      PhoneNumber number = phoneUtil.parseAndKeepRawInput(candidate, preferredRegion);
-
-      // Check Israel * numbers: these are a special case in that they are four-digit numbers that
-      // our library supports, but they can only be dialled with a leading *. Since we don't
-      // actually store or detect the * in our phone number library, this means in practice we
-      // detect most four digit numbers as being valid for Israel. We are considering moving these
-      // numbers to ShortNumberInfo instead, in which case this problem would go away, but in the
-      // meantime we want to restrict the false matches so we only allow these numbers if they are
-      // preceded by a star. We enforce this for all leniency levels even though these numbers are
-      // technically accepted by isPossibleNumber and isValidNumber since we consider it to be a
-      // deficiency in those methods that they accept these numbers without the *.
-      // TODO: Remove this or make it significantly less hacky once we've decided how to
-      // handle these short codes going forward in ShortNumberInfo. We could use the formatting
-      // rules for instance, but that would be slower.
-      if (phoneUtil.getRegionCodeForCountryCode(number.getCountryCode()).equals("IL") &&
-          phoneUtil.getNationalSignificantNumber(number).length() == 4 &&
-          (offset == 0 || (offset > 0 && text.charAt(offset - 1) != '*'))) {
-        // No match.
-        return null;
-      }
+    PhoneNumber number = new PhoneNumber();
+    if (phoneUtil.tryParseAndKeepRawInput(candidate, preferredRegion, number, parseContext)
+        != null) {
+      return null;
+    }
 
-      if (leniency.verify(number, candidate, phoneUtil)) {
-        // We used parseAndKeepRawInput to create this number, but for now we don't return the extra
-        // values parsed. TODO: stop clearing all values here and switch all users over
-        // to using rawInput() rather than the rawString() of PhoneNumberMatch.
-        number.clearCountryCodeSource();
-        number.clearRawInput();
-        number.clearPreferredDomesticCarrierCode();
-        return new PhoneNumberMatch(offset, candidate, number);
-      }
-    } catch (NumberParseException e) {
-      // ignore and continue
+    // Check Israel * numbers: these are a special case in that they are four-digit numbers that
+    // our library supports, but they can only be dialled with a leading *. Since we don't
+    // actually store or detect the * in our phone number library, this means in practice we
+    // detect most four digit numbers as being valid for Israel. We are considering moving these
+    // numbers to ShortNumberInfo instead, in which case this problem would go away, but in the
+    // meantime we want to restrict the false matches so we only allow these numbers if they are
+    // preceded by a star. We enforce this for all leniency levels even though these numbers are
+    // technically accepted by isPossibleNumber and isValidNumber since we consider it to be a
+    // deficiency in those methods that they accept these numbers without the *.
+    // TODO: Remove this or make it significantly less hacky once we've decided how to
+    // handle these short codes going forward in ShortNumberInfo. We could use the formatting
+    // rules for instance, but that would be slower.
+    if (phoneUtil.getRegionCodeForCountryCode(number.getCountryCode()).equals("IL") &&
+        phoneUtil.getNationalSignificantNumber(number).length() == 4 &&
+        (offset == 0 || (offset > 0 && text.charAt(offset - 1) != '*'))) {
+      // No match.
+      return null;
+    }
+
+    if (leniency.verify(number, candidate, phoneUtil)) {
+      // We used parseAndKeepRawInput to create this number, but for now we don't return the extra
+      // values parsed. TODO: stop clearing all values here and switch all users over
+      // to using rawInput() rather than the rawString() of PhoneNumberMatch.
+      number.clearCountryCodeSource();
+      number.clearRawInput();
+      number.clearPreferredDomesticCarrierCode();
+      return new PhoneNumberMatch(offset, candidate, number);
     }
     return null;
   }
@@ -575,8 +575,9 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
       PhoneNumber number, String candidate, PhoneNumberUtil util, NumberGroupingChecker checker) {
     // TODO: Evaluate how this works for other locales (testing has been limited to NANPA regions)
     // and optimise if necessary.
-    StringBuilder normalizedCandidate =
-        PhoneNumberUtil.normalizeDigits(candidate, true /* keep non-digits */);
+    StringBuilder normalizedCandidate = new StringBuilder(candidate.length());
+    PhoneNumberNormalizer.normalizeDigits(candidate, true /* keep non-digits */,
+                                          normalizedCandidate);
     String[] formattedNumberGroups = getNationalNumberGroups(util, number, null);
     if (checker.checkGroups(util, number, normalizedCandidate, formattedNumberGroups)) {
       return true;
@@ -665,7 +666,7 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
     // Check if a national prefix should be present when formatting this number.
     String nationalNumber = util.getNationalSignificantNumber(number);
     NumberFormat formatRule =
-        util.chooseFormattingPatternForNumber(metadata.numberFormat, nationalNumber);
+        util.chooseFormattingPatternForNumber(metadata, metadata.numberFormat, nationalNumber);
     // To do this, we check that a national prefix formatting rule was present and that it wasn't
     // just the first-group symbol ($1) with punctuation.
     if ((formatRule != null) && formatRule.nationalPrefixFormattingRule.length() > 0) {
@@ -680,8 +681,8 @@ final class PhoneNumberMatcher implements Iterator<PhoneNumberMatch> {
         return true;
       }
       // Normalize the remainder.
-      String rawInputCopy = PhoneNumberUtil.normalizeDigitsOnly(number.getRawInput());
-      StringBuilder rawInput = new StringBuilder(rawInputCopy);
+      StringBuilder rawInput = new StringBuilder(number.getRawInput().length());
+      PhoneNumberUtil.normalizeDigitsOnly(number.getRawInput(), rawInput);
       // Check if we found a national prefix and/or carrier code at the start of the raw input, and
       // return the result.
       return util.maybeStripNationalPrefixAndCarrierCode(rawInput, metadata, null);
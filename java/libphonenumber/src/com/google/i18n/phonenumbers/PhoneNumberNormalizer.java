@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Map;
+
+/**
+ * Normalizes the characters of phone numbers by looking each of them up in a table indexed by the
+ * character, rather than in a map of boxed characters, and appends the result to a buffer given by
+ * the caller.
+ *
+ * <p>The tables are built once from the mappings in {@link PhoneNumberUtil}, and replace each
+ * character exactly as looking up its upper-case version in the mapping did. The digit table
+ * converts every decimal digit in the BMP, such as the full-width and Arabic-Indic ones, to the
+ * ASCII digit {@link Character#digit(char, int)} gives it. PhoneNumberNormalizerTest checks both
+ * for every character.
+ */
+final class PhoneNumberNormalizer {
+  // The entry of a table for characters that have no replacement. No mapping has the null
+  // character as a key or a value.
+  private static final char NONE = '\0';
+
+  private static final CharTable DIGITS = buildDigitTable();
+  private static final CharTable ALPHA_PHONE_CHARS =
+      buildReplacementTable(PhoneNumberUtil.ALPHA_PHONE_MAPPINGS);
+  private static final CharTable DIALLABLE_CHARS =
+      buildReplacementTable(PhoneNumberUtil.DIALLABLE_CHAR_MAPPINGS);
+  private static final CharTable NUMBER_GROUPING_CHARS =
+      buildReplacementTable(PhoneNumberUtil.ALL_PLUS_NUMBER_GROUPING_SYMBOLS);
+
+  // The number of letters a number needs to be treated as an alpha number.
+  private static final int MIN_LETTERS_FOR_ALPHA_NUMBER = 3;
+
+  private PhoneNumberNormalizer() {
+  }
+
+  /**
+   * Normalizes a phone number as {@link PhoneNumberUtil#normalize(String)} does, appending the
+   * result to {@code normalized}.
+   */
+  static void normalize(CharSequence number, StringBuilder normalized) {
+    if (isAlphaNumber(number)) {
+      replace(number, ALPHA_PHONE_CHARS, true /* remove non matches */, normalized);
+    } else {
+      replace(number, DIGITS, true /* remove non matches */, normalized);
+    }
+  }
+
+  /**
+   * Normalizes a phone number in place. Each character is replaced by at most one character, so the
+   * result is written over the characters already read.
+   */
+  static void normalizeInPlace(StringBuilder number) {
+    CharTable table = isAlphaNumber(number) ? ALPHA_PHONE_CHARS : DIGITS;
+    int length = 0;
+    for (int i = 0; i < number.length(); i++) {
+      char replacement = table.get(number.charAt(i));
+      if (replacement != NONE) {
+        number.setCharAt(length++, replacement);
+      }
+    }
+    number.setLength(length);
+  }
+
+  /**
+   * Appends the decimal digits of the number to {@code normalized} as ASCII digits. Other
+   * characters are appended unchanged if {@code keepNonDigits} is true, and dropped otherwise.
+   */
+  static void normalizeDigits(CharSequence number, boolean keepNonDigits,
+                              StringBuilder normalized) {
+    replace(number, DIGITS, !keepNonDigits, normalized);
+  }
+
+  /**
+   * Appends the number to {@code converted} with its letters converted to the digits they are on a
+   * keypad. Characters other than ASCII letters and digits are appended unchanged if
+   * {@code removeNonMatches} is false, and dropped otherwise.
+   */
+  static void convertAlphaCharacters(CharSequence number, boolean removeNonMatches,
+                                     StringBuilder converted) {
+    replace(number, ALPHA_PHONE_CHARS, removeNonMatches, converted);
+  }
+
+  /** Appends the characters of the number that can be dialled to {@code normalized}. */
+  static void normalizeDiallableChars(CharSequence number, StringBuilder normalized) {
+    replace(number, DIALLABLE_CHARS, true /* remove non matches */, normalized);
+  }
+
+  /**
+   * Appends the ASCII letters, digits and number grouping symbols of the number to
+   * {@code normalized}, with letters in upper case and full-width symbols replaced by ASCII ones.
+   */
+  static void normalizeNumberGroupingChars(CharSequence number, StringBuilder normalized) {
+    replace(number, NUMBER_GROUPING_CHARS, true /* remove non matches */, normalized);
+  }
+
+  /**
+   * Returns the ASCII digit for a decimal digit, or the null character if {@code c} isn't one.
+   */
+  static char toAsciiDigit(char c) {
+    return DIGITS.get(c);
+  }
+
+  /**
+   * Returns whether the number has at least three ASCII letters, in which case letters are
+   * converted to digits rather than dropped when it is normalized. This accepts exactly what
+   * {@link PhoneNumberUtil#VALID_ALPHA_PHONE} matches, which also rules out line terminators.
+   */
+  static boolean isAlphaNumber(CharSequence number) {
+    int letters = 0;
+    for (int i = 0, length = number.length(); i < length; i++) {
+      char c = number.charAt(i);
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+        letters++;
+      } else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return false;
+      }
+    }
+    return letters >= MIN_LETTERS_FOR_ALPHA_NUMBER;
+  }
+
+  private static void replace(CharSequence number, CharTable table, boolean removeNonMatches,
+                              StringBuilder normalized) {
+    int length = number.length();
+    normalized.ensureCapacity(normalized.length() + length);
+    for (int i = 0; i < length; i++) {
+      char c = number.charAt(i);
+      char replacement = table.get(c);
+      if (replacement != NONE) {
+        normalized.append(replacement);
+      } else if (!removeNonMatches) {
+        normalized.append(c);
+      }
+    }
+  }
+
+  /**
+   * Builds the table of decimal digits. Unicode encodes the decimal digits of each script as a run
+   * of ten characters from zero to nine, so only every tenth character needs to be looked at to
+   * find them all.
+   */
+  private static CharTable buildDigitTable() {
+    CharTable table = new CharTable(false /* look up upper case */);
+    for (int i = Character.MIN_VALUE; i <= Character.MAX_VALUE; i += 10) {
+      int digit = Character.digit((char) i, 10);
+      if (digit == -1) {
+        continue;
+      }
+      int zero = i - digit;
+      for (int c = zero; c < zero + 10 && c <= Character.MAX_VALUE; c++) {
+        digit = Character.digit((char) c, 10);
+        if (digit != -1) {
+          table.put((char) c, (char) ('0' + digit));
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Builds the table for a mapping in which characters are looked up by their upper-case version.
+   * The table holds the replacements of the characters that are their own upper-case version, and
+   * of every character in its first page, so only other characters need their upper-case version.
+   */
+  private static CharTable buildReplacementTable(Map<Character, Character> replacements) {
+    CharTable table = new CharTable(true /* look up upper case */);
+    for (Map.Entry<Character, Character> entry : replacements.entrySet()) {
+      char c = entry.getKey();
+      if (Character.toUpperCase(c) == c) {
+        table.put(c, entry.getValue());
+      }
+    }
+    for (char c = 0; c < CharTable.PAGE_SIZE; c++) {
+      Character replacement = replacements.get(Character.toUpperCase(c));
+      if (replacement != null) {
+        table.put(c, replacement);
+      }
+    }
+    return table;
+  }
+
+  /**
+   * A table from characters in the BMP to their replacements. The table is split into pages of 256
+   * characters, and the pages without any replacements are left out, so a table with replacements
+   * for only a few blocks of characters is small. The page for ASCII and Latin-1 is kept apart so
+   * those characters take a single array lookup.
+   */
+  private static final class CharTable {
+    private static final int PAGE_BITS = 8;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final char[] firstPage = new char[PAGE_SIZE];
+    private final char[][] pages = new char[(Character.MAX_VALUE + 1) >> PAGE_BITS][];
+    // Whether characters outside the first page that have no replacement of their own get the
+    // replacement of their upper-case version, such as the dotless i, which gets that of 'I'.
+    private final boolean lookUpUpperCase;
+
+    CharTable(boolean lookUpUpperCase) {
+      this.lookUpUpperCase = lookUpUpperCase;
+      pages[0] = firstPage;
+    }
+
+    char get(char c) {
+      if (c < PAGE_SIZE) {
+        return firstPage[c];
+      }
+      char replacement = getFromPages(c);
+      if (replacement == NONE && lookUpUpperCase) {
+        char upperCase = Character.toUpperCase(c);
+        if (upperCase != c) {
+          replacement = getFromPages(upperCase);
+        }
+      }
+      return replacement;
+    }
+
+    void put(char c, char replacement) {
+      char[] page = pages[c >> PAGE_BITS];
+      if (page == null) {
+        page = new char[PAGE_SIZE];
+        pages[c >> PAGE_BITS] = page;
+      }
+      page[c & (PAGE_SIZE - 1)] = replacement;
+    }
+
+    private char getFromPages(char c) {
+      char[] page = pages[c >> PAGE_BITS];
+      return (page == null) ? NONE : page[c & (PAGE_SIZE - 1)];
+    }
+  }
+}
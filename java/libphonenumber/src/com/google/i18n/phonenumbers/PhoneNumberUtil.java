@@ -18,13 +18,19 @@ package com.google.i18n.phonenumbers;
 
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber.CountryCodeSource;
+import com.google.i18n.phonenumbers.internal.DfaBasedMatcher;
+import com.google.i18n.phonenumbers.internal.MatcherApi;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +38,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -106,7 +116,7 @@ public class PhoneNumberUtil {
 
   private static final char STAR_SIGN = '*';
 
-  private static final String RFC3966_EXTN_PREFIX = ";ext=";
+  static final String RFC3966_EXTN_PREFIX = ";ext=";
   private static final String RFC3966_PREFIX = "tel:";
   private static final String RFC3966_PHONE_CONTEXT = ";phone-context=";
   private static final String RFC3966_ISDN_SUBADDRESS = ";isub=";
@@ -114,17 +124,17 @@ public class PhoneNumberUtil {
   // A map that contains characters that are essential when dialling. That means any of the
   // characters in this map must not be removed from a number when dialling, otherwise the call
   // will not reach the intended destination.
-  private static final Map<Character, Character> DIALLABLE_CHAR_MAPPINGS;
+  static final Map<Character, Character> DIALLABLE_CHAR_MAPPINGS;
 
   // Only upper-case variants of alpha characters are stored.
   private static final Map<Character, Character> ALPHA_MAPPINGS;
 
   // For performance reasons, amalgamate both into one map.
-  private static final Map<Character, Character> ALPHA_PHONE_MAPPINGS;
+  static final Map<Character, Character> ALPHA_PHONE_MAPPINGS;
 
   // Separate map of all symbols that we wish to retain when formatting alpha numbers. This
   // includes digits, ASCII letters and number grouping symbols such as "-" and " ".
-  private static final Map<Character, Character> ALL_PLUS_NUMBER_GROUPING_SYMBOLS;
+  static final Map<Character, Character> ALL_PLUS_NUMBER_GROUPING_SYMBOLS;
 
   static {
     HashMap<Integer, String> mobileTokenMap = new HashMap<Integer, String>();
@@ -260,26 +270,27 @@ public class PhoneNumberUtil {
   // does not contain alpha characters, although they may be used later in the number. It also does
   // not include other punctuation, as this will be stripped later during parsing and is of no
   // information value when parsing a number.
-  private static final String VALID_START_CHAR = "[" + PLUS_CHARS + DIGITS + "]";
-  private static final Pattern VALID_START_CHAR_PATTERN = Pattern.compile(VALID_START_CHAR);
+  // @VisibleForTesting
+  static final String VALID_START_CHAR = "[" + PLUS_CHARS + DIGITS + "]";
 
   // Regular expression of characters typically used to start a second phone number for the purposes
   // of parsing. This allows us to strip off parts of the number that are actually the start of
   // another number, such as for: (530) 583-6985 x302/x2303 -> the second extension here makes this
   // actually two phone numbers, (530) 583-6985 x302 and (530) 583-6985 x2303. We remove the second
   // extension so that the first number is parsed correctly.
-  private static final String SECOND_NUMBER_START = "[\\\\/] *x";
-  static final Pattern SECOND_NUMBER_START_PATTERN = Pattern.compile(SECOND_NUMBER_START);
+  // @VisibleForTesting
+  static final String SECOND_NUMBER_START = "[\\\\/] *x";
 
   // Regular expression of trailing characters that we want to remove. We remove all characters that
   // are not alpha or numerical characters. The hash character is retained here, as it may signify
   // the previous block was an extension.
-  private static final String UNWANTED_END_CHARS = "[[\\P{N}&&\\P{L}]&&[^#]]+$";
-  static final Pattern UNWANTED_END_CHAR_PATTERN = Pattern.compile(UNWANTED_END_CHARS);
+  // @VisibleForTesting
+  static final String UNWANTED_END_CHARS = "[[\\P{N}&&\\P{L}]&&[^#]]+$";
 
   // We use this pattern to check if the phone number has at least three letters in it - if so, then
   // we treat it as a number where some phone-number digits are represented by letters.
-  private static final Pattern VALID_ALPHA_PHONE_PATTERN = Pattern.compile("(?:.*?[A-Za-z]){3}.*");
+  // @VisibleForTesting
+  static final String VALID_ALPHA_PHONE = "(?:.*?[A-Za-z]){3}.*";
 
   // Regular expression of viable phone numbers. This is location independent. Checks we have at
   // least three leading digits, and only valid punctuation, alpha characters and
@@ -297,7 +308,11 @@ public class PhoneNumberUtil {
   // have alpha-characters and punctuation.
   //
   // Note VALID_PUNCTUATION starts with a -, so must be the first in the range.
-  private static final String VALID_PHONE_NUMBER =
+  //
+  // PossibleNumberScanner checks numbers against this, optionally followed by an extension, in a
+  // single pass over their characters, leaving any extension to ExtensionScanner.
+  // @VisibleForTesting
+  static final String VALID_PHONE_NUMBER =
       DIGITS + "{" + MIN_LENGTH_FOR_NSN + "}" + "|" +
       "[" + PLUS_CHARS + "]*+(?:[" + VALID_PUNCTUATION + STAR_SIGN + "]*" + DIGITS + "){3,}[" +
       VALID_PUNCTUATION + STAR_SIGN + VALID_ALPHA + DIGITS + "]*";
@@ -314,7 +329,7 @@ public class PhoneNumberUtil {
   // Regexp of all possible ways to write extensions, for use when parsing. This will be run as a
   // case-insensitive regexp match. Wide character versions are also provided after each ASCII
   // version.
-  private static final String EXTN_PATTERNS_FOR_PARSING;
+  static final String EXTN_PATTERNS_FOR_PARSING;
   static final String EXTN_PATTERNS_FOR_MATCHING;
   static {
     // One-character symbols that can be used to indicate an extension.
@@ -350,16 +365,6 @@ public class PhoneNumberUtil {
             "[- ]+(" + DIGITS + "{1,5})#");
   }
 
-  // Regexp of all known extension prefixes used by different regions followed by 1 or more valid
-  // digits, for use when parsing.
-  private static final Pattern EXTN_PATTERN =
-      Pattern.compile("(?:" + EXTN_PATTERNS_FOR_PARSING + ")$", REGEX_FLAGS);
-
-  // We append optionally the extension pattern to the end here, as a valid phone number may
-  // have an extension prefix appended, followed by 1 or more digits.
-  private static final Pattern VALID_PHONE_NUMBER_PATTERN =
-      Pattern.compile(VALID_PHONE_NUMBER + "(?:" + EXTN_PATTERNS_FOR_PARSING + ")?", REGEX_FLAGS);
-
   static final Pattern NON_DIGITS_PATTERN = Pattern.compile("(\\D+)");
 
   // The FIRST_GROUP_PATTERN was originally set to $1 but there are some countries for which the
@@ -554,9 +559,58 @@ public class PhoneNumberUtil {
     abstract boolean verify(PhoneNumber number, String candidate, PhoneNumberUtil util);
   }
 
+  /**
+   * The reasons a number can fail to be parsed, with the error type and message of the exception
+   * thrown by {@link #parse} for each.
+   */
+  enum ParseFailure {
+    NULL_INPUT(NumberParseException.ErrorType.NOT_A_NUMBER,
+        "The phone number supplied was null."),
+    INPUT_TOO_LONG(NumberParseException.ErrorType.TOO_LONG,
+        "The string supplied was too long to parse."),
+    NOT_VIABLE(NumberParseException.ErrorType.NOT_A_NUMBER,
+        "The string supplied did not seem to be a phone number."),
+    INVALID_DEFAULT_REGION(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+        "Missing or invalid default region."),
+    TOO_SHORT_AFTER_IDD(NumberParseException.ErrorType.TOO_SHORT_AFTER_IDD,
+        "Phone number had an IDD, but after this was not "
+        + "long enough to be a viable phone number."),
+    UNKNOWN_COUNTRY_CODE(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+        "Country calling code supplied was not recognised."),
+    NO_COUNTRY_CODE_AFTER_PLUS(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+        "Could not interpret numbers after plus-sign."),
+    TOO_SHORT_NSN(NumberParseException.ErrorType.TOO_SHORT_NSN,
+        "The string supplied is too short to be a phone number."),
+    TOO_LONG_NSN(NumberParseException.ErrorType.TOO_LONG,
+        "The string supplied is too long to be a phone number.");
+
+    final NumberParseException.ErrorType errorType;
+    private final String message;
+
+    private ParseFailure(NumberParseException.ErrorType errorType, String message) {
+      this.errorType = errorType;
+      this.message = message;
+    }
+
+    NumberParseException toException() {
+      return new NumberParseException(errorType, message);
+    }
+  }
+
   // A source of metadata for different regions.
   private final MetadataSource metadataSource;
 
+  // Matches national numbers against the patterns of the number descriptions in the metadata.
+  private final MatcherApi matcherApi;
+  // The matcher as a DfaBasedMatcher, which can match national numbers held in a buffer without
+  // copying them to a String, or null if the matcher is of another kind.
+  private final DfaBasedMatcher dfaMatcher;
+
+  // Whether number types may be determined using NumberTypeClassifier instead of matcherApi. This
+  // is only the case when no matcher was given, since the classifiers give the same answers as the
+  // default matcher but can't be expected to follow a custom one.
+  private final boolean useNumberTypeClassifiers;
+
   // A mapping from a country calling code to the region codes which denote the region represented
   // by that country calling code. In the case of multiple regions sharing a calling code, such as
   // the NANPA regions, the one indicated with "isMainCountryForCode" in the metadata should be
@@ -573,6 +627,20 @@ public class PhoneNumberUtil {
   // performance measurements.
   private final RegexCache regexCache = new RegexCache(100);
 
+  // Automata compiled from the metadata of each region, used for classifying numbers and choosing
+  // formatting patterns in a single pass. Those for geographical regions are keyed by region code,
+  // and those for non-geographical entities by country calling code, which is always less than
+  // 1000.
+  private final ConcurrentHashMap<String, MetadataIndex> metadataIndexes =
+      new ConcurrentHashMap<String, MetadataIndex>();
+  private final AtomicReferenceArray<MetadataIndex> nonGeoMetadataIndexes =
+      new AtomicReferenceArray<MetadataIndex>(1000);
+
+  // Tables narrowing down the regions a number could belong to, for country calling codes shared
+  // by several regions, keyed by country calling code. Built lazily.
+  private final AtomicReferenceArray<RegionSelector> regionSelectors =
+      new AtomicReferenceArray<RegionSelector>(1000);
+
   // The set of regions the library supports.
   // There are roughly 240 of them and we set the initial capacity of the HashSet to 320 to offer a
   // load factor of roughly 0.75.
@@ -588,7 +656,19 @@ public class PhoneNumberUtil {
   // @VisibleForTesting
   PhoneNumberUtil(MetadataSource metadataSource,
       Map<Integer, List<String>> countryCallingCodeToRegionCodeMap) {
+    this(metadataSource, null, countryCallingCodeToRegionCodeMap);
+  }
+
+  /**
+   * As above, but matching numbers with the given matcher, or the default one if it is null.
+   */
+  PhoneNumberUtil(MetadataSource metadataSource, MatcherApi matcherApi,
+      Map<Integer, List<String>> countryCallingCodeToRegionCodeMap) {
     this.metadataSource = metadataSource;
+    this.matcherApi = (matcherApi == null) ? DfaBasedMatcher.create() : matcherApi;
+    this.dfaMatcher = (this.matcherApi instanceof DfaBasedMatcher)
+        ? (DfaBasedMatcher) this.matcherApi : null;
+    this.useNumberTypeClassifiers = (matcherApi == null);
     this.countryCallingCodeToRegionCodeMap = countryCallingCodeToRegionCodeMap;
     for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
       List<String> regionCodes = entry.getValue();
@@ -609,7 +689,10 @@ public class PhoneNumberUtil {
       logger.log(Level.WARNING, "invalid metadata " +
           "(country calling code was mapped to the non-geo entity as well as specific region(s))");
     }
-    nanpaRegions.addAll(countryCallingCodeToRegionCodeMap.get(NANPA_COUNTRY_CODE));
+    List<String> nanpaRegionCodes = countryCallingCodeToRegionCodeMap.get(NANPA_COUNTRY_CODE);
+    if (nanpaRegionCodes != null) {
+      nanpaRegions.addAll(nanpaRegionCodes);
+    }
   }
 
   /**
@@ -633,10 +716,10 @@ public class PhoneNumberUtil {
   /**
    * Attempts to extract a possible number from the string passed in. This currently strips all
    * leading characters that cannot be used to start a phone number. Characters that can be used to
-   * start a phone number are defined in the VALID_START_CHAR_PATTERN. If none of these characters
-   * are found in the number passed in, an empty string is returned. This function also attempts to
-   * strip off any alternative extensions or endings if two or more are present, such as in the case
-   * of: (530) 583-6985 x302/x2303. The second extension here makes this actually two phone numbers,
+   * start a phone number are defined in VALID_START_CHAR. If none of these characters are found in
+   * the number passed in, an empty string is returned. This function also attempts to strip off any
+   * alternative extensions or endings if two or more are present, such as in the case of:
+   * (530) 583-6985 x302/x2303. The second extension here makes this actually two phone numbers,
    * (530) 583-6985 x302 and (530) 583-6985 x2303. We remove the second extension so that the first
    * number is parsed correctly.
    *
@@ -646,23 +729,24 @@ public class PhoneNumberUtil {
    *                found in the number
    */
   static String extractPossibleNumber(String number) {
-    Matcher m = VALID_START_CHAR_PATTERN.matcher(number);
-    if (m.find()) {
-      number = number.substring(m.start());
-      // Remove trailing non-alpha non-numerical characters.
-      Matcher trailingCharsMatcher = UNWANTED_END_CHAR_PATTERN.matcher(number);
-      if (trailingCharsMatcher.find()) {
-        number = number.substring(0, trailingCharsMatcher.start());
-        logger.log(Level.FINER, "Stripped trailing characters: " + number);
-      }
-      // Check for extra numbers at the end.
-      Matcher secondNumber = SECOND_NUMBER_START_PATTERN.matcher(number);
-      if (secondNumber.find()) {
-        number = number.substring(0, secondNumber.start());
-      }
-      return number;
-    } else {
-      return "";
+    StringBuilder possibleNumber = new StringBuilder(number.length());
+    extractPossibleNumber(number, possibleNumber);
+    return possibleNumber.toString();
+  }
+
+  /**
+   * Same as {@link #extractPossibleNumber(String)}, but appends the possible number to the given
+   * buffer.
+   */
+  private static void extractPossibleNumber(CharSequence number, StringBuilder possibleNumber) {
+    int start = PossibleNumberScanner.findPossibleNumberStart(number);
+    if (start >= 0) {
+      // Remove trailing non-alpha non-numerical characters, and any extra numbers at the end.
+      int end = PossibleNumberScanner.findPossibleNumberEnd(number, start);
+      if (end < number.length() && logger.isLoggable(Level.FINER)) {
+        logger.log(Level.FINER, "Stripped trailing characters: " + number.subSequence(start, end));
+      }
+      possibleNumber.append(number, start, end);
     }
   }
 
@@ -678,11 +762,18 @@ public class PhoneNumberUtil {
    */
   // @VisibleForTesting
   static boolean isViablePhoneNumber(String number) {
-    if (number.length() < MIN_LENGTH_FOR_NSN) {
+    return isViablePhoneNumber(number, number.length());
+  }
+
+  /**
+   * Same as {@link #isViablePhoneNumber(String)}, but checks only the first {@code end} characters
+   * of the number.
+   */
+  private static boolean isViablePhoneNumber(CharSequence number, int end) {
+    if (end < MIN_LENGTH_FOR_NSN) {
       return false;
     }
-    Matcher m = VALID_PHONE_NUMBER_PATTERN.matcher(number);
-    return m.matches();
+    return PossibleNumberScanner.isViablePhoneNumber(number, end);
   }
 
   /**
@@ -702,12 +793,9 @@ public class PhoneNumberUtil {
    * @return        the normalized string version of the phone number
    */
   static String normalize(String number) {
-    Matcher m = VALID_ALPHA_PHONE_PATTERN.matcher(number);
-    if (m.matches()) {
-      return normalizeHelper(number, ALPHA_PHONE_MAPPINGS, true);
-    } else {
-      return normalizeDigitsOnly(number);
-    }
+    StringBuilder normalizedNumber = new StringBuilder(number.length());
+    PhoneNumberNormalizer.normalize(number, normalizedNumber);
+    return normalizedNumber.toString();
   }
 
   /**
@@ -718,8 +806,7 @@ public class PhoneNumberUtil {
    *     normalized in place
    */
   static void normalize(StringBuilder number) {
-    String normalizedNumber = normalize(number.toString());
-    number.replace(0, number.length(), normalizedNumber);
+    PhoneNumberNormalizer.normalizeInPlace(number);
   }
 
   /**
@@ -730,20 +817,20 @@ public class PhoneNumberUtil {
    * @return        the normalized string version of the phone number
    */
   public static String normalizeDigitsOnly(String number) {
-    return normalizeDigits(number, false /* strip non-digits */).toString();
+    StringBuilder normalizedNumber = new StringBuilder(number.length());
+    normalizeDigitsOnly(number, normalizedNumber);
+    return normalizedNumber.toString();
   }
 
-  static StringBuilder normalizeDigits(String number, boolean keepNonDigits) {
-    StringBuilder normalizedDigits = new StringBuilder(number.length());
-    for (char c : number.toCharArray()) {
-      int digit = Character.digit(c, 10);
-      if (digit != -1) {
-        normalizedDigits.append(digit);
-      } else if (keepNonDigits) {
-        normalizedDigits.append(c);
-      }
-    }
-    return normalizedDigits;
+  /**
+   * Same as {@link #normalizeDigitsOnly(String)}, but appends the normalized number to a buffer
+   * supplied by the caller, which can be reused to normalize many numbers without allocating.
+   *
+   * @param number            a string of characters representing a phone number
+   * @param normalizedNumber  the buffer to which the normalized number is appended
+   */
+  public static void normalizeDigitsOnly(CharSequence number, StringBuilder normalizedNumber) {
+    PhoneNumberNormalizer.normalizeDigits(number, false /* strip non-digits */, normalizedNumber);
   }
 
   /**
@@ -754,7 +841,9 @@ public class PhoneNumberUtil {
    * @return        the normalized string version of the phone number
    */
   static String normalizeDiallableCharsOnly(String number) {
-    return normalizeHelper(number, DIALLABLE_CHAR_MAPPINGS, true /* remove non matches */);
+    StringBuilder normalizedNumber = new StringBuilder(number.length());
+    PhoneNumberNormalizer.normalizeDiallableChars(number, normalizedNumber);
+    return normalizedNumber.toString();
   }
 
   /**
@@ -762,7 +851,22 @@ public class PhoneNumberUtil {
    * existing formatting.
    */
   public static String convertAlphaCharactersInNumber(String number) {
-    return normalizeHelper(number, ALPHA_PHONE_MAPPINGS, false);
+    StringBuilder convertedNumber = new StringBuilder(number.length());
+    convertAlphaCharactersInNumber(number, convertedNumber);
+    return convertedNumber.toString();
+  }
+
+  /**
+   * Same as {@link #convertAlphaCharactersInNumber(String)}, but appends the converted number to a
+   * buffer supplied by the caller.
+   *
+   * @param number           a string of characters representing a phone number
+   * @param convertedNumber  the buffer to which the converted number is appended
+   */
+  public static void convertAlphaCharactersInNumber(CharSequence number,
+                                                    StringBuilder convertedNumber) {
+    PhoneNumberNormalizer.convertAlphaCharacters(number, false /* keep non matches */,
+                                                 convertedNumber);
   }
 
   /**
@@ -919,36 +1023,6 @@ public class PhoneNumberUtil {
     return "";
   }
 
-  /**
-   * Normalizes a string of characters representing a phone number by replacing all characters found
-   * in the accompanying map with the values therein, and stripping all other characters if
-   * removeNonMatches is true.
-   *
-   * @param number                     a string of characters representing a phone number
-   * @param normalizationReplacements  a mapping of characters to what they should be replaced by in
-   *                                   the normalized version of the phone number
-   * @param removeNonMatches           indicates whether characters that are not able to be replaced
-   *                                   should be stripped from the number. If this is false, they
-   *                                   will be left unchanged in the number.
-   * @return  the normalized string version of the phone number
-   */
-  private static String normalizeHelper(String number,
-                                        Map<Character, Character> normalizationReplacements,
-                                        boolean removeNonMatches) {
-    StringBuilder normalizedNumber = new StringBuilder(number.length());
-    for (int i = 0; i < number.length(); i++) {
-      char character = number.charAt(i);
-      Character newDigit = normalizationReplacements.get(Character.toUpperCase(character));
-      if (newDigit != null) {
-        normalizedNumber.append(newDigit);
-      } else if (!removeNonMatches) {
-        normalizedNumber.append(character);
-      }
-      // If neither of the above are true, we remove this character.
-    }
-    return normalizedNumber.toString();
-  }
-
   /**
    * Sets or resets the PhoneNumberUtil singleton instance. If set to null, the next call to
    * {@code getInstance()} will load (and return) the default instance.
@@ -958,6 +1032,17 @@ public class PhoneNumberUtil {
     instance = util;
   }
 
+  /**
+   * Sets the listener told about the metadata looked up and loaded by all instances, for example
+   * to find which regions are loaded on the first requests to a server and how long that takes.
+   * Pass null to remove the listener. When there is no listener, nothing is measured.
+   *
+   * @param listener  the listener, or null
+   */
+  public static void setMetadataLoadListener(MetadataLoadListener listener) {
+    MetadataManager.setLoadListener(listener);
+  }
+
   /**
    * Convenience method to get a list of what regions the library has metadata for.
    */
@@ -973,6 +1058,166 @@ public class PhoneNumberUtil {
     return Collections.unmodifiableSet(countryCodesForNonGeographicalRegion);
   }
 
+  /**
+   * Loads the metadata of every region and non-geographical entity this instance supports, along
+   * with their alternate formats and short number metadata, on the given executor. The files are
+   * loaded in parallel if the executor has several threads. This moves the cost of loading
+   * metadata off the threads that first need it, for servers that know they will use every region.
+   *
+   * @param executor  the executor to load the metadata files on
+   * @return  a future that completes once all the metadata is loaded, or fails with the first
+   *     error encountered
+   */
+  public Future<Void> preloadMetadata(Executor executor) {
+    if (metadataSource instanceof MultiFileMetadataSourceImpl) {
+      return ((MultiFileMetadataSourceImpl) metadataSource).preloadAll(
+          countryCallingCodeToRegionCodeMap, executor);
+    }
+    List<Runnable> tasks = new ArrayList<Runnable>();
+    for (final String regionCode : supportedRegions) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          getMetadataForRegion(regionCode);
+        }
+      });
+    }
+    for (final int countryCallingCode : countryCodesForNonGeographicalRegion) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          getMetadataForNonGeographicalRegion(countryCallingCode);
+        }
+      });
+    }
+    MetadataManager.addPreloadTasks(tasks, countryCallingCodeToRegionCodeMap);
+    return MetadataPreloader.preload(tasks, executor);
+  }
+
+  /**
+   * Loads the metadata of the given regions and compiles everything derived from it, so that the
+   * first calls for those regions afterwards are as fast as later ones. The example numbers of the
+   * metadata are then parsed, validated and formatted, to exercise any remaining lazily
+   * initialized code paths. Pass "001" to warm up all the non-geographical entities.
+   *
+   * <p>The regular expression cache has a bounded size, so when warming up many regions only the
+   * patterns of the last ones are guaranteed to still be cached afterwards.
+   *
+   * @param regionCodes  the regions that we want to warm up
+   * @return  a report of the regions warmed up and how long each step took
+   */
+  public WarmUpReport warmUp(Collection<String> regionCodes) {
+    return warmUp(regionCodes, true);
+  }
+
+  /**
+   * Like {@link #warmUp(Collection)}, but only exercises the example numbers if
+   * {@code exerciseExampleNumbers} is true.
+   */
+  public WarmUpReport warmUp(Collection<String> regionCodes, boolean exerciseExampleNumbers) {
+    List<String> warmedRegionCodes = new ArrayList<String>();
+    List<String> unsupportedRegionCodes = new ArrayList<String>();
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+
+    long start = System.nanoTime();
+    for (String regionCode : regionCodes) {
+      if (REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode)) {
+        for (int countryCallingCode : countryCodesForNonGeographicalRegion) {
+          PhoneMetadata metadata = getMetadataForNonGeographicalRegion(countryCallingCode);
+          if (metadata != null) {
+            metadataList.add(metadata);
+          }
+        }
+        warmedRegionCodes.add(regionCode);
+        continue;
+      }
+      PhoneMetadata metadata = getMetadataForRegion(regionCode);
+      if (metadata == null) {
+        unsupportedRegionCodes.add(regionCode);
+      } else {
+        metadataList.add(metadata);
+        warmedRegionCodes.add(regionCode);
+      }
+    }
+    long metadataLoaded = System.nanoTime();
+
+    for (PhoneMetadata metadata : metadataList) {
+      for (PhoneNumberType type : PhoneNumberType.values()) {
+        PhoneNumberDesc desc = getNumberDescByType(metadata, type);
+        if (desc != null) {
+          // Matching any number compiles the patterns into the matcher's cache.
+          matcherApi.matchesPossibleNumber("", desc);
+          matcherApi.matchesNationalNumber("", desc, false);
+        }
+      }
+      // These are used when parsing, and are always matched with regular expressions.
+      regexCache.getPatternForRegex(metadata.internationalPrefix);
+      if (metadata.nationalPrefixForParsing.length() > 0) {
+        regexCache.getPatternForRegex(metadata.nationalPrefixForParsing);
+      }
+      if (metadata.leadingDigits.length() > 0) {
+        regexCache.getPatternForRegex(metadata.leadingDigits);
+      }
+    }
+    long patternsCompiled = System.nanoTime();
+
+    for (PhoneMetadata metadata : metadataList) {
+      MetadataIndex index = getMetadataIndex(metadata);
+      if (index == null) {
+        continue;
+      }
+      index.getFormatSelector(metadata.numberFormat);
+      index.getFormatSelector(metadata.intlNumberFormat);
+      if (useNumberTypeClassifiers) {
+        index.getNumberTypeClassifier();
+        List<String> regionsSharingCode =
+            countryCallingCodeToRegionCodeMap.get(metadata.countryCode);
+        if (regionsSharingCode != null && regionsSharingCode.size() > 1) {
+          getRegionSelector(metadata.countryCode, regionsSharingCode);
+        }
+      }
+    }
+    long indexesBuilt = System.nanoTime();
+
+    int exampleNumberCount = 0;
+    if (exerciseExampleNumbers) {
+      for (PhoneMetadata metadata : metadataList) {
+        for (PhoneNumberType type : PhoneNumberType.values()) {
+          PhoneNumberDesc desc = getNumberDescByType(metadata, type);
+          if (desc == null || desc.exampleNumber.length() == 0) {
+            continue;
+          }
+          exerciseExampleNumber(metadata, desc.exampleNumber);
+          exampleNumberCount++;
+        }
+      }
+    }
+    long examplesExercised = System.nanoTime();
+
+    return new WarmUpReport(warmedRegionCodes, unsupportedRegionCodes,
+        metadataLoaded - start, patternsCompiled - metadataLoaded,
+        indexesBuilt - patternsCompiled, examplesExercised - indexesBuilt, exampleNumberCount);
+  }
+
+  private void exerciseExampleNumber(PhoneMetadata metadata, String exampleNumber) {
+    try {
+      PhoneNumber number = REGION_CODE_FOR_NON_GEO_ENTITY.equals(metadata.id)
+          ? parse("+" + metadata.countryCode + exampleNumber, UNKNOWN_REGION)
+          : parse(exampleNumber, metadata.id);
+      isValidNumber(number);
+      isPossibleNumberWithReason(number);
+      getNumberType(number);
+      format(number, PhoneNumberFormat.E164);
+      format(number, PhoneNumberFormat.INTERNATIONAL);
+      format(number, PhoneNumberFormat.NATIONAL);
+    } catch (NumberParseException e) {
+      // The example numbers are expected to parse, but warming up should never fail because of a
+      // bad one.
+      logger.log(Level.WARNING, "Could not parse example number " + exampleNumber
+          + " for region " + metadata.id);
+    }
+  }
+
   /**
    * Gets a {@link PhoneNumberUtil} instance to carry out international phone number formatting,
    * parsing, or validation. The instance is loaded with phone number metadata for a number of most
@@ -1029,6 +1274,206 @@ public class PhoneNumberUtil {
     return createInstance(new MultiFileMetadataSourceImpl(metadataLoader));
   }
 
+  /**
+   * Create a new {@link PhoneNumberUtil} instance to carry out international phone number
+   * formatting, parsing, or validation, which reads its metadata from the given file. The file is
+   * mapped into memory rather than read, so several processes using the same file share its pages,
+   * and the metadata of each region is only decoded when it is first needed.
+   *
+   * <p>The file can be generated from the metadata bundled with the library by running
+   * {@code com.google.i18n.phonenumbers.MappedFileMetadataSourceImpl} with the file name as its
+   * argument. It must not be modified while in use.
+   *
+   * @param metadataFile the metadata file. This should not be null.
+   * @return a PhoneNumberUtil instance
+   * @throws IOException if the file cannot be read or is not a valid metadata file
+   */
+  public static PhoneNumberUtil createInstanceFromMetadataFile(File metadataFile)
+      throws IOException {
+    if (metadataFile == null) {
+      throw new IllegalArgumentException("metadataFile could not be null.");
+    }
+    return createInstance(new MappedFileMetadataSourceImpl(metadataFile));
+  }
+
+  /**
+   * Create a new {@link PhoneNumberUtil} instance to carry out international phone number
+   * formatting, parsing, or validation, restored from a snapshot written by
+   * {@link #writeSnapshot}. The file is read in one go, and the instance comes back with all its
+   * metadata loaded and the automata used to validate, classify and format numbers already built,
+   * which is much faster than warming up a new instance. Regular expressions still compile on
+   * first use.
+   *
+   * <p>A snapshot of an instance using the metadata bundled with the library can be written with
+   * the {@code BuildPhoneNumberUtilSnapshot} command of the build tools. Snapshots should be
+   * written by the same version of the library that reads them.
+   *
+   * @param snapshotFile the snapshot file. This should not be null.
+   * @return a PhoneNumberUtil instance
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  public static PhoneNumberUtil createInstanceFromSnapshot(File snapshotFile) throws IOException {
+    if (snapshotFile == null) {
+      throw new IllegalArgumentException("snapshotFile could not be null.");
+    }
+    return PhoneNumberUtilSnapshot.read(snapshotFile);
+  }
+
+  /**
+   * Loads the metadata of every region supported by this instance, builds everything derived from
+   * it, and writes the result to the given stream as a snapshot that
+   * {@link #createInstanceFromSnapshot} can restore. The stream is closed afterwards. The snapshot
+   * includes the supported regions and country calling codes, so an instance created with
+   * {@link #createRestrictedInstance} is restored with the same restrictions. Short number metadata
+   * and alternate formats are not included, and are loaded from the bundled files as usual by the
+   * restored instance.
+   *
+   * @param out the stream to write the snapshot to
+   * @throws IOException if the snapshot cannot be written
+   * @throws UnsupportedOperationException if this instance was created with a custom
+   *     {@link MatcherApi}, which a snapshot cannot restore
+   */
+  public void writeSnapshot(OutputStream out) throws IOException {
+    PhoneNumberUtilSnapshot.write(this, out);
+  }
+
+  /**
+   * Create a new {@link PhoneNumberUtil} instance to carry out international phone number
+   * formatting, parsing, or validation. The instance is loaded with all metadata by
+   * using the metadataSource specified, and uses the matcherApi specified to match numbers
+   * against the patterns in the metadata when validating them, determining their type, or
+   * working out which region they belong to.
+   *
+   * This method should only be used in the rare case in which you want to manage your own
+   * metadata loading or pattern matching. Calling this method multiple times is very expensive,
+   * as each time a new instance is created from scratch. When in doubt, use {@link #getInstance}.
+   *
+   * @param metadataSource Customized metadata source. This should not be null.
+   * @param matcherApi Customized matcher. This should not be null.
+   * @return a PhoneNumberUtil instance
+   */
+  public static PhoneNumberUtil createInstance(MetadataSource metadataSource,
+      MatcherApi matcherApi) {
+    if (metadataSource == null) {
+      throw new IllegalArgumentException("metadataSource could not be null.");
+    }
+    if (matcherApi == null) {
+      throw new IllegalArgumentException("matcherApi could not be null.");
+    }
+    return new PhoneNumberUtil(metadataSource, matcherApi,
+        CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap());
+  }
+
+  /**
+   * Create a new {@link PhoneNumberUtil} instance which only supports the given regions and global
+   * network calling codes, loading metadata with the metadataLoader specified. This is meant for
+   * services that only handle numbers from a few regions: numbers with any other country calling
+   * code fail to parse with {@link NumberParseException.ErrorType#INVALID_COUNTRY_CODE}, other
+   * region codes are treated as unknown, and the metadata of other regions is never loaded.
+   *
+   * <p>If only some of the regions sharing a country calling code are listed, the main region for
+   * that code (such as "US" for the NANPA regions) is supported too, since its metadata is used
+   * to parse and format all numbers with that code.
+   *
+   * @param metadataLoader Customized metadata loader. This should not be null.
+   * @param regionCodes the geographical regions to support, such as "US" or "DE"
+   * @param globalNetworkCallingCodes the country calling codes of the non-geographical entities to
+   *     support, such as 800. May be empty.
+   * @return a PhoneNumberUtil instance
+   * @throws IllegalArgumentException if a region code or calling code is not supported by the
+   *     library
+   */
+  public static PhoneNumberUtil createRestrictedInstance(MetadataLoader metadataLoader,
+      Collection<String> regionCodes, Collection<Integer> globalNetworkCallingCodes) {
+    if (metadataLoader == null) {
+      throw new IllegalArgumentException("metadataLoader could not be null.");
+    }
+    return createRestrictedInstance(new MultiFileMetadataSourceImpl(metadataLoader), regionCodes,
+        globalNetworkCallingCodes);
+  }
+
+  /**
+   * As {@link #createRestrictedInstance(MetadataLoader, Collection, Collection)}, but loading
+   * metadata with the metadataSource specified.
+   */
+  public static PhoneNumberUtil createRestrictedInstance(MetadataSource metadataSource,
+      Collection<String> regionCodes, Collection<Integer> globalNetworkCallingCodes) {
+    if (metadataSource == null) {
+      throw new IllegalArgumentException("metadataSource could not be null.");
+    }
+    return new PhoneNumberUtil(metadataSource,
+        restrictCountryCallingCodeMap(CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap(),
+            regionCodes, globalNetworkCallingCodes));
+  }
+
+  /**
+   * Returns the entries of the given country calling code map for the given regions and global
+   * network calling codes, keeping the main region of each calling code that is kept.
+   */
+  // @VisibleForTesting
+  static Map<Integer, List<String>> restrictCountryCallingCodeMap(
+      Map<Integer, List<String>> countryCallingCodeToRegionCodeMap,
+      Collection<String> regionCodes, Collection<Integer> globalNetworkCallingCodes) {
+    Set<String> remainingRegionCodes = new HashSet<String>(regionCodes);
+    Set<Integer> remainingCallingCodes = new HashSet<Integer>(globalNetworkCallingCodes);
+    Map<Integer, List<String>> restrictedMap = new HashMap<Integer, List<String>>();
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      List<String> allRegionCodes = entry.getValue();
+      if (allRegionCodes.size() == 1
+          && REGION_CODE_FOR_NON_GEO_ENTITY.equals(allRegionCodes.get(0))) {
+        if (remainingCallingCodes.remove(entry.getKey())) {
+          restrictedMap.put(entry.getKey(), allRegionCodes);
+        }
+        continue;
+      }
+      List<String> keptRegionCodes = new ArrayList<String>(allRegionCodes.size());
+      for (String regionCode : allRegionCodes) {
+        if (remainingRegionCodes.remove(regionCode)) {
+          keptRegionCodes.add(regionCode);
+        }
+      }
+      if (!keptRegionCodes.isEmpty()) {
+        if (!keptRegionCodes.get(0).equals(allRegionCodes.get(0))) {
+          keptRegionCodes.add(0, allRegionCodes.get(0));
+        }
+        restrictedMap.put(entry.getKey(), keptRegionCodes);
+      }
+    }
+    if (!remainingRegionCodes.isEmpty()) {
+      throw new IllegalArgumentException("unsupported region codes: " + remainingRegionCodes);
+    }
+    if (!remainingCallingCodes.isEmpty()) {
+      throw new IllegalArgumentException(
+          "unsupported global network calling codes: " + remainingCallingCodes);
+    }
+    return restrictedMap;
+  }
+
+  /**
+   * Loads the metadata of every supported region and global network calling code, and estimates
+   * how much heap it takes up. This is mostly useful to check the savings of an instance created
+   * with {@link #createRestrictedInstance}.
+   */
+  public MetadataFootprint estimateMetadataFootprint() {
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (String regionCode : supportedRegions) {
+      PhoneMetadata metadata = getMetadataForRegion(regionCode);
+      if (metadata != null) {
+        metadataList.add(metadata);
+      }
+    }
+    for (int countryCallingCode : countryCodesForNonGeographicalRegion) {
+      PhoneMetadata metadata = getMetadataForNonGeographicalRegion(countryCallingCode);
+      if (metadata != null) {
+        metadataList.add(metadata);
+      }
+    }
+    return new MetadataFootprint(supportedRegions.size(),
+        countryCodesForNonGeographicalRegion.size(),
+        MetadataFootprint.estimateBytes(metadataList, true),
+        MetadataFootprint.estimateBytes(metadataList, false));
+  }
+
   /**
    * Helper function to check if the national prefix formatting rule has the first group only, i.e.,
    * does not start with the national prefix.
@@ -1505,7 +1950,7 @@ public class PhoneNumberUtil {
         PhoneMetadata metadata = getMetadataForRegion(regionCode);
         String nationalNumber = getNationalSignificantNumber(number);
         NumberFormat formatRule =
-            chooseFormattingPatternForNumber(metadata.numberFormat, nationalNumber);
+            chooseFormattingPatternForNumber(metadata, metadata.numberFormat, nationalNumber);
         // The format rule could still be null here if the national number was 0 and there was no
         // raw input (this should not be possible for numbers generated by the phonenumber library
         // as they would also not have a country calling code and we would have exited earlier).
@@ -1559,16 +2004,14 @@ public class PhoneNumberUtil {
       String regionCode) {
     String normalizedNationalNumber = normalizeDigitsOnly(rawInput);
     if (normalizedNationalNumber.startsWith(nationalPrefix)) {
-      try {
-        // Some Japanese numbers (e.g. 00777123) might be mistaken to contain the national prefix
-        // when written without it (e.g. 0777123) if we just do prefix matching. To tackle that, we
-        // check the validity of the number if the assumed national prefix is removed (777123 won't
-        // be valid in Japan).
-        return isValidNumber(
-            parse(normalizedNationalNumber.substring(nationalPrefix.length()), regionCode));
-      } catch (NumberParseException e) {
-        return false;
-      }
+      // Some Japanese numbers (e.g. 00777123) might be mistaken to contain the national prefix
+      // when written without it (e.g. 0777123) if we just do prefix matching. To tackle that, we
+      // check the validity of the number if the assumed national prefix is removed (777123 won't
+      // be valid in Japan).
+      PhoneNumber number = new PhoneNumber();
+      return tryParse(normalizedNationalNumber.substring(nationalPrefix.length()), regionCode,
+                      number) == null
+          && isValidNumber(number);
     }
     return false;
   }
@@ -1591,7 +2034,7 @@ public class PhoneNumberUtil {
     }
     String nationalNumber = getNationalSignificantNumber(number);
     NumberFormat formatRule =
-        chooseFormattingPatternForNumber(metadata.numberFormat, nationalNumber);
+        chooseFormattingPatternForNumber(metadata, metadata.numberFormat, nationalNumber);
     return formatRule != null;
   }
 
@@ -1635,7 +2078,9 @@ public class PhoneNumberUtil {
     // the number in raw_input with the parsed number.
     // To do this, first we normalize punctuation. We retain number grouping symbols such as " "
     // only.
-    rawInput = normalizeHelper(rawInput, ALL_PLUS_NUMBER_GROUPING_SYMBOLS, true);
+    StringBuilder normalizedRawInput = new StringBuilder(rawInput.length());
+    PhoneNumberNormalizer.normalizeNumberGroupingChars(rawInput, normalizedRawInput);
+    rawInput = normalizedRawInput.toString();
     // Now we trim everything before the first three digits in the parsed number. We choose three
     // because all valid alpha numbers have 3 digits at the start - if it does not, then we don't
     // trim anything at all. Similarly, if the national number was less than three digits, we don't
@@ -1655,7 +2100,8 @@ public class PhoneNumberUtil {
     } else if (metadataForRegionCallingFrom != null &&
                countryCode == getCountryCodeForValidRegion(regionCallingFrom)) {
       NumberFormat formattingPattern =
-          chooseFormattingPatternForNumber(metadataForRegionCallingFrom.numberFormat,
+          chooseFormattingPatternForNumber(metadataForRegionCallingFrom,
+                                           metadataForRegionCallingFrom.numberFormat,
                                            nationalNumber);
       if (formattingPattern == null) {
         // If no pattern above is matched, we format the original input.
@@ -1771,12 +2217,35 @@ public class PhoneNumberUtil {
         (intlNumberFormats.length == 0 || numberFormat == PhoneNumberFormat.NATIONAL)
         ? metadata.numberFormat
         : metadata.intlNumberFormat;
-    NumberFormat formattingPattern = chooseFormattingPatternForNumber(availableFormats, number);
+    NumberFormat formattingPattern =
+        chooseFormattingPatternForNumber(metadata, availableFormats, number);
     return (formattingPattern == null)
         ? number
         : formatNsnUsingPattern(number, formattingPattern, numberFormat, carrierCode);
   }
 
+  /**
+   * As {@link #chooseFormattingPatternForNumber(NumberFormat[], String)}, but when the formats are
+   * the national or international formats of the given metadata, the choice is made in a single
+   * pass over the number by the region's precompiled FormatSelector.
+   */
+  NumberFormat chooseFormattingPatternForNumber(PhoneMetadata metadata,
+                                                NumberFormat[] availableFormats,
+                                                String nationalNumber) {
+    MetadataIndex index = getMetadataIndex(metadata);
+    FormatSelector selector = (index == null) ? null : index.getFormatSelector(availableFormats);
+    if (selector != null) {
+      int choice = selector.choose(nationalNumber);
+      if (choice == FormatSelector.NO_FORMAT) {
+        return null;
+      }
+      if (choice != FormatSelector.UNDETERMINED) {
+        return availableFormats[choice];
+      }
+    }
+    return chooseFormattingPatternForNumber(availableFormats, nationalNumber);
+  }
+
   NumberFormat chooseFormattingPatternForNumber(NumberFormat[] availableFormats,
                                                 String nationalNumber) {
     for (NumberFormat numFormat : availableFormats) {
@@ -2054,16 +2523,39 @@ public class PhoneNumberUtil {
    * @return  the type of the phone number
    */
   public PhoneNumberType getNumberType(PhoneNumber number) {
-    String regionCode = getRegionCodeForNumber(number);
+    return getNumberType(number, new NationalNumberBuffer());
+  }
+
+  /**
+   * Gets the type of a phone number, like {@link #getNumberType(PhoneNumber)}, but using the given
+   * buffer to hold its national significant number instead of allocating a new String. The buffer
+   * may be reused for any number of calls, but not by several threads at once.
+   *
+   * @param number  the phone number that we want to know the type
+   * @param buffer  a buffer whose previous contents will be overwritten
+   * @return  the type of the phone number
+   */
+  public PhoneNumberType getNumberType(PhoneNumber number, NationalNumberBuffer buffer) {
+    buffer.setNumber(number);
+    String regionCode = getRegionCodeForNumber(number, buffer);
     PhoneMetadata metadata = getMetadataForRegionOrCallingCode(number.getCountryCode(), regionCode);
     if (metadata == null) {
       return PhoneNumberType.UNKNOWN;
     }
-    String nationalSignificantNumber = getNationalSignificantNumber(number);
-    return getNumberTypeHelper(nationalSignificantNumber, metadata);
+    return getNumberTypeHelper(buffer, metadata);
   }
 
-  private PhoneNumberType getNumberTypeHelper(String nationalNumber, PhoneMetadata metadata) {
+  private PhoneNumberType getNumberTypeHelper(CharSequence nationalNumber,
+                                              PhoneMetadata metadata) {
+    NumberTypeClassifier classifier =
+        useNumberTypeClassifiers ? getNumberTypeClassifier(metadata) : null;
+    if (classifier != null) {
+      PhoneNumberType type = classifier.classify(nationalNumber);
+      if (type != null) {
+        return type;
+      }
+    }
+    // Fall back to matching the number descriptions one at a time.
     if (!isNumberMatchingDesc(nationalNumber, metadata.generalDesc)) {
       return PhoneNumberType.UNKNOWN;
     }
@@ -2111,6 +2603,72 @@ public class PhoneNumberUtil {
     return PhoneNumberType.UNKNOWN;
   }
 
+  /**
+   * Returns the index for the given metadata, creating it if it doesn't exist yet or was created
+   * for metadata that has since been replaced. Metadata replaced by a copy with the same patterns
+   * keeps what was built for it. Returns null if no index can be cached for this metadata.
+   */
+  MetadataIndex getMetadataIndex(PhoneMetadata metadata) {
+    MetadataIndex index;
+    if (REGION_CODE_FOR_NON_GEO_ENTITY.equals(metadata.id)) {
+      int countryCallingCode = metadata.countryCode;
+      if (countryCallingCode < 0 || countryCallingCode >= nonGeoMetadataIndexes.length()) {
+        return null;
+      }
+      index = nonGeoMetadataIndexes.get(countryCallingCode);
+      if (index == null || index.metadata != metadata) {
+        index = createMetadataIndex(index, metadata);
+        nonGeoMetadataIndexes.set(countryCallingCode, index);
+      }
+    } else {
+      index = metadataIndexes.get(metadata.id);
+      if (index == null || index.metadata != metadata) {
+        index = createMetadataIndex(index, metadata);
+        metadataIndexes.put(metadata.id, index);
+      }
+    }
+    return index;
+  }
+
+  // Creates an index to replace the given one, which was built for other metadata or is null. The
+  // metadata source may have returned a new copy of the same metadata, in which case whatever the
+  // old index has built is kept.
+  private static MetadataIndex createMetadataIndex(MetadataIndex oldIndex, PhoneMetadata metadata) {
+    if (oldIndex != null && MetadataIndex.hasSamePatterns(oldIndex.metadata, metadata)) {
+      return oldIndex.withMetadata(metadata);
+    }
+    return new MetadataIndex(metadata);
+  }
+
+  /**
+   * Installs an index built ahead of time, for example read from a snapshot, for the metadata it
+   * was built from.
+   */
+  void setMetadataIndex(MetadataIndex index) {
+    PhoneMetadata metadata = index.metadata;
+    if (!REGION_CODE_FOR_NON_GEO_ENTITY.equals(metadata.id)) {
+      metadataIndexes.put(metadata.id, index);
+    } else if (metadata.countryCode >= 0
+        && metadata.countryCode < nonGeoMetadataIndexes.length()) {
+      nonGeoMetadataIndexes.set(metadata.countryCode, index);
+    }
+  }
+
+  /** Returns the map from country calling codes to region codes this instance was built with. */
+  Map<Integer, List<String>> getCountryCallingCodeToRegionCodeMap() {
+    return countryCallingCodeToRegionCodeMap;
+  }
+
+  /** Returns the matcher used to match numbers against the patterns in the metadata. */
+  MatcherApi getMatcherApi() {
+    return matcherApi;
+  }
+
+  private NumberTypeClassifier getNumberTypeClassifier(PhoneMetadata metadata) {
+    MetadataIndex index = getMetadataIndex(metadata);
+    return (index == null) ? null : index.getNumberTypeClassifier();
+  }
+
   /**
    * Returns the metadata for the given region code or {@code null} if the region code is invalid
    * or unknown.
@@ -2129,19 +2687,21 @@ public class PhoneNumberUtil {
     return metadataSource.getMetadataForNonGeographicalRegion(countryCallingCode);
   }
 
-  boolean isNumberPossibleForDesc(String nationalNumber, PhoneNumberDesc numberDesc) {
-    Matcher possibleNumberPatternMatcher =
-        regexCache.getPatternForRegex(numberDesc.possibleNumberPattern)
-            .matcher(nationalNumber);
-    return possibleNumberPatternMatcher.matches();
+  boolean isNumberPossibleForDesc(CharSequence nationalNumber, PhoneNumberDesc numberDesc) {
+    if (dfaMatcher != null) {
+      return dfaMatcher.matchesPossibleNumber(nationalNumber, numberDesc);
+    }
+    return matcherApi.matchesPossibleNumber(nationalNumber.toString(), numberDesc);
   }
 
-  boolean isNumberMatchingDesc(String nationalNumber, PhoneNumberDesc numberDesc) {
-    Matcher nationalNumberPatternMatcher =
-        regexCache.getPatternForRegex(numberDesc.nationalNumberPattern)
-            .matcher(nationalNumber);
-    return isNumberPossibleForDesc(nationalNumber, numberDesc) &&
-        nationalNumberPatternMatcher.matches();
+  boolean isNumberMatchingDesc(CharSequence nationalNumber, PhoneNumberDesc numberDesc) {
+    if (!isNumberPossibleForDesc(nationalNumber, numberDesc)) {
+      return false;
+    }
+    if (dfaMatcher != null) {
+      return dfaMatcher.matchesNationalNumber(nationalNumber, numberDesc, false);
+    }
+    return matcherApi.matchesNationalNumber(nationalNumber.toString(), numberDesc, false);
   }
 
   /**
@@ -2152,8 +2712,23 @@ public class PhoneNumberUtil {
    * @return  a boolean that indicates whether the number is of a valid pattern
    */
   public boolean isValidNumber(PhoneNumber number) {
-    String regionCode = getRegionCodeForNumber(number);
-    return isValidNumberForRegion(number, regionCode);
+    return isValidNumber(number, new NationalNumberBuffer());
+  }
+
+  /**
+   * Tests whether a phone number matches a valid pattern, like {@link #isValidNumber(PhoneNumber)},
+   * but using the given buffer to hold its national significant number instead of allocating a
+   * new String. The buffer may be reused for any number of calls, but not by several threads at
+   * once.
+   *
+   * @param number       the phone number that we want to validate
+   * @param buffer       a buffer whose previous contents will be overwritten
+   * @return  a boolean that indicates whether the number is of a valid pattern
+   */
+  public boolean isValidNumber(PhoneNumber number, NationalNumberBuffer buffer) {
+    buffer.setNumber(number);
+    String regionCode = getRegionCodeForNumber(number, buffer);
+    return isValidNumberForRegionHelper(number, regionCode, buffer);
   }
 
   /**
@@ -2173,6 +2748,30 @@ public class PhoneNumberUtil {
    * @return  a boolean that indicates whether the number is of a valid pattern
    */
   public boolean isValidNumberForRegion(PhoneNumber number, String regionCode) {
+    return isValidNumberForRegion(number, regionCode, new NationalNumberBuffer());
+  }
+
+  /**
+   * Tests whether a phone number is valid for a certain region, like
+   * {@link #isValidNumberForRegion(PhoneNumber, String)}, but using the given buffer to hold its
+   * national significant number instead of allocating a new String. The buffer may be reused for
+   * any number of calls, but not by several threads at once.
+   *
+   * @param number       the phone number that we want to validate
+   * @param regionCode   the region that we want to validate the phone number for
+   * @param buffer       a buffer whose previous contents will be overwritten
+   * @return  a boolean that indicates whether the number is of a valid pattern
+   */
+  public boolean isValidNumberForRegion(PhoneNumber number, String regionCode,
+                                        NationalNumberBuffer buffer) {
+    buffer.setNumber(number);
+    return isValidNumberForRegionHelper(number, regionCode, buffer);
+  }
+
+  // Like isValidNumberForRegion, but expects the buffer to already hold the national significant
+  // number.
+  private boolean isValidNumberForRegionHelper(PhoneNumber number, String regionCode,
+                                               NationalNumberBuffer buffer) {
     int countryCode = number.getCountryCode();
     PhoneMetadata metadata = getMetadataForRegionOrCallingCode(countryCode, regionCode);
     if ((metadata == null) ||
@@ -2182,8 +2781,7 @@ public class PhoneNumberUtil {
       // match that of the region code.
       return false;
     }
-    String nationalSignificantNumber = getNationalSignificantNumber(number);
-    return getNumberTypeHelper(nationalSignificantNumber, metadata) != PhoneNumberType.UNKNOWN;
+    return getNumberTypeHelper(buffer, metadata) != PhoneNumberType.UNKNOWN;
   }
 
   /**
@@ -2195,6 +2793,12 @@ public class PhoneNumberUtil {
    *     code
    */
   public String getRegionCodeForNumber(PhoneNumber number) {
+    return getRegionCodeForNumber(number, null);
+  }
+
+  // Like getRegionCodeForNumber, but takes the national significant number of the phone number if
+  // it is already known, or null otherwise.
+  private String getRegionCodeForNumber(PhoneNumber number, CharSequence nationalNumber) {
     int countryCode = number.getCountryCode();
     List<String> regions = countryCallingCodeToRegionCodeMap.get(countryCode);
     if (regions == null) {
@@ -2206,29 +2810,95 @@ public class PhoneNumberUtil {
     if (regions.size() == 1) {
       return regions.get(0);
     } else {
-      return getRegionCodeForNumberFromRegionList(number, regions);
+      return getRegionCodeForNumberFromRegionList(number,
+          nationalNumber == null ? getNationalSignificantNumber(number) : nationalNumber, regions);
     }
   }
 
   private String getRegionCodeForNumberFromRegionList(PhoneNumber number,
+                                                      CharSequence nationalNumber,
                                                       List<String> regionCodes) {
-    String nationalNumber = getNationalSignificantNumber(number);
+    return getRegionCodeForNumberFromRegionList(number, nationalNumber, regionCodes,
+                                                true /* may rebuild selector */);
+  }
+
+  private String getRegionCodeForNumberFromRegionList(PhoneNumber number,
+                                                      CharSequence nationalNumber,
+                                                      List<String> regionCodes,
+                                                      boolean mayRebuildSelector) {
+    RegionSelector selector =
+        useNumberTypeClassifiers ? getRegionSelector(number.getCountryCode(), regionCodes) : null;
+    int[] candidates = (selector == null) ? null : selector.getCandidates(nationalNumber);
+    if (candidates == null) {
+      return getRegionCodeByCheckingAllRegions(nationalNumber, regionCodes);
+    }
+    // The other regions can't match, so we only need to check these ones.
+    for (int candidate : candidates) {
+      PhoneMetadata metadata = getMetadataForRegion(regionCodes.get(candidate));
+      if (!MetadataIndex.hasSamePatterns(metadata, selector.metadata[candidate])) {
+        // The metadata has changed since the selector was built. Start again with a new selector,
+        // but only once: if the metadata keeps changing, as while it is being reloaded, every
+        // region is checked instead. A new copy of the same metadata doesn't count as a change.
+        if (!mayRebuildSelector) {
+          return getRegionCodeByCheckingAllRegions(nationalNumber, regionCodes);
+        }
+        regionSelectors.set(number.getCountryCode(), null);
+        return getRegionCodeForNumberFromRegionList(number, nationalNumber, regionCodes,
+                                                    false /* may rebuild selector */);
+      }
+      if (isNumberFromRegion(nationalNumber, metadata)) {
+        return regionCodes.get(candidate);
+      }
+    }
+    return null;
+  }
+
+  private String getRegionCodeByCheckingAllRegions(CharSequence nationalNumber,
+                                                   List<String> regionCodes) {
     for (String regionCode : regionCodes) {
-      // If leadingDigits is present, use this. Otherwise, do full validation.
       // Metadata cannot be null because the region codes come from the country calling code map.
-      PhoneMetadata metadata = getMetadataForRegion(regionCode);
-      if (!metadata.leadingDigits.equals("")) {
-        if (regexCache.getPatternForRegex(metadata.leadingDigits)
-                .matcher(nationalNumber).lookingAt()) {
-          return regionCode;
-        }
-      } else if (getNumberTypeHelper(nationalNumber, metadata) != PhoneNumberType.UNKNOWN) {
+      if (isNumberFromRegion(nationalNumber, getMetadataForRegion(regionCode))) {
         return regionCode;
       }
     }
     return null;
   }
 
+  private boolean isNumberFromRegion(CharSequence nationalNumber, PhoneMetadata metadata) {
+    // If leadingDigits is present, use this. Otherwise, do full validation.
+    if (!metadata.leadingDigits.equals("")) {
+      return regexCache.getPatternForRegex(metadata.leadingDigits)
+          .matcher(nationalNumber).lookingAt();
+    }
+    return getNumberTypeHelper(nationalNumber, metadata) != PhoneNumberType.UNKNOWN;
+  }
+
+  /**
+   * Returns the region selector for the given country calling code and the regions sharing it,
+   * building it if necessary. Returns null if the country calling code is out of range.
+   */
+  RegionSelector getRegionSelector(int countryCallingCode, List<String> regionCodes) {
+    if (countryCallingCode < 0 || countryCallingCode >= regionSelectors.length()) {
+      return null;
+    }
+    RegionSelector selector = regionSelectors.get(countryCallingCode);
+    if (selector != null && selector.regionCodes == regionCodes) {
+      return selector;
+    }
+    int regionCount = regionCodes.size();
+    PhoneMetadata[] metadata = new PhoneMetadata[regionCount];
+    NumberTypeClassifier[] classifiers = new NumberTypeClassifier[regionCount];
+    for (int i = 0; i < regionCount; i++) {
+      metadata[i] = getMetadataForRegion(regionCodes.get(i));
+      if (metadata[i] != null) {
+        classifiers[i] = getNumberTypeClassifier(metadata[i]);
+      }
+    }
+    selector = RegionSelector.create(regionCodes, metadata, classifiers);
+    regionSelectors.set(countryCallingCode, selector);
+    return selector;
+  }
+
   /**
    * Returns the region code that matches the specific country calling code. In the case of no
    * region code being found, ZZ will be returned. In the case of multiple regions, the one
@@ -2364,7 +3034,7 @@ public class PhoneNumberUtil {
     }
     StringBuilder strippedNumber = new StringBuilder(number);
     maybeStripExtension(strippedNumber);
-    return VALID_ALPHA_PHONE_PATTERN.matcher(strippedNumber).matches();
+    return PhoneNumberNormalizer.isAlphaNumber(strippedNumber);
   }
 
   /**
@@ -2383,8 +3053,7 @@ public class PhoneNumberUtil {
    * and 10 are possible, and a number in between these possible lengths is entered, such as of
    * length 8, this will return TOO_LONG.
    */
-  private ValidationResult testNumberLengthAgainstPattern(Pattern numberPattern, String number) {
-    Matcher numberMatcher = numberPattern.matcher(number);
+  private static ValidationResult testNumberLengthAgainstPattern(Matcher numberMatcher) {
     if (numberMatcher.matches()) {
       return ValidationResult.IS_POSSIBLE;
     }
@@ -2395,15 +3064,45 @@ public class PhoneNumberUtil {
     }
   }
 
+  /**
+   * Helper method to check a number against the possible number pattern of a region's general
+   * description. Where that pattern only constrains the length of the number, this is a bit test
+   * rather than a pattern match.
+   */
+  private ValidationResult testNumberLength(String number, PhoneMetadata metadata) {
+    return testNumberLength(number, metadata, null);
+  }
+
+  /**
+   * Same as {@link #testNumberLength(String, PhoneMetadata)}, but reusing the matchers of the given
+   * context, if it is not null.
+   */
+  private ValidationResult testNumberLength(CharSequence number, PhoneMetadata metadata,
+                                            ParseContext context) {
+    NumberTypeClassifier classifier = getNumberTypeClassifier(metadata);
+    if (classifier != null) {
+      ValidationResult result = classifier.testNumberLength(number);
+      if (result != null) {
+        return result;
+      }
+    }
+    Pattern possibleNumberPattern =
+        regexCache.getPatternForRegex(metadata.generalDesc.possibleNumberPattern);
+    return testNumberLengthAgainstPattern((context != null)
+        ? context.matcher(possibleNumberPattern, number) : possibleNumberPattern.matcher(number));
+  }
+
   /**
    * Helper method to check whether a number is too short to be a regular length phone number in a
    * region.
    */
   private boolean isShorterThanPossibleNormalNumber(PhoneMetadata regionMetadata, String number) {
-    Pattern possibleNumberPattern = regexCache.getPatternForRegex(
-        regionMetadata.generalDesc.possibleNumberPattern);
-    return testNumberLengthAgainstPattern(possibleNumberPattern, number) ==
-        ValidationResult.TOO_SHORT;
+    return testNumberLength(number, regionMetadata) == ValidationResult.TOO_SHORT;
+  }
+
+  private boolean isShorterThanPossibleNormalNumber(PhoneMetadata regionMetadata,
+                                                    CharSequence number, ParseContext context) {
+    return testNumberLength(number, regionMetadata, context) == ValidationResult.TOO_SHORT;
   }
 
   /**
@@ -2440,9 +3139,7 @@ public class PhoneNumberUtil {
     String regionCode = getRegionCodeForCountryCode(countryCode);
     // Metadata cannot be null because the country calling code is valid.
     PhoneMetadata metadata = getMetadataForRegionOrCallingCode(countryCode, regionCode);
-    Pattern possibleNumberPattern =
-        regexCache.getPatternForRegex(metadata.generalDesc.possibleNumberPattern);
-    return testNumberLengthAgainstPattern(possibleNumberPattern, nationalNumber);
+    return testNumberLength(nationalNumber, metadata);
   }
 
   /**
@@ -2465,11 +3162,9 @@ public class PhoneNumberUtil {
    * @return  true if the number is possible
    */
   public boolean isPossibleNumber(String number, String regionDialingFrom) {
-    try {
-      return isPossibleNumber(parse(number, regionDialingFrom));
-    } catch (NumberParseException e) {
-      return false;
-    }
+    PhoneNumber phoneNumber = new PhoneNumber();
+    return tryParse(number, regionDialingFrom, phoneNumber) == null
+        && isPossibleNumber(phoneNumber);
   }
 
   /**
@@ -2518,12 +3213,16 @@ public class PhoneNumberUtil {
       // Country codes do not begin with a '0'.
       return 0;
     }
-    int potentialCountryCode;
+    int potentialCountryCode = 0;
     int numberLength = fullNumber.length();
     for (int i = 1; i <= MAX_LENGTH_COUNTRY_CODE && i <= numberLength; i++) {
-      potentialCountryCode = Integer.parseInt(fullNumber.substring(0, i));
+      int digit = fullNumber.charAt(i - 1) - '0';
+      if (digit < 0 || digit > 9) {
+        return 0;
+      }
+      potentialCountryCode = potentialCountryCode * 10 + digit;
       if (countryCallingCodeToRegionCodeMap.containsKey(potentialCountryCode)) {
-        nationalNumber.append(fullNumber.substring(i));
+        nationalNumber.append(fullNumber, i, numberLength);
         return potentialCountryCode;
       }
     }
@@ -2566,10 +3265,30 @@ public class PhoneNumberUtil {
                               StringBuilder nationalNumber, boolean keepRawInput,
                               PhoneNumber phoneNumber)
       throws NumberParseException {
+    ParseContext context = new ParseContext();
+    int countryCode = maybeExtractCountryCode(number, defaultRegionMetadata, nationalNumber,
+                                              keepRawInput, phoneNumber, context);
+    if (countryCode < 0) {
+      throw context.failure.toException();
+    }
+    return countryCode;
+  }
+
+  /**
+   * Same as {@link #maybeExtractCountryCode(String, PhoneMetadata, StringBuilder, boolean,
+   * PhoneNumber)}, but using the buffers and matchers of the given context. The national number
+   * must not be one of the context's buffers other than normalizedNationalNumber. Instead of
+   * throwing an exception, this returns -1 and sets the failure of the context.
+   */
+  private int maybeExtractCountryCode(CharSequence number, PhoneMetadata defaultRegionMetadata,
+                                      StringBuilder nationalNumber, boolean keepRawInput,
+                                      PhoneNumber phoneNumber, ParseContext context) {
     if (number.length() == 0) {
       return 0;
     }
-    StringBuilder fullNumber = new StringBuilder(number);
+    StringBuilder fullNumber = context.fullNumber;
+    fullNumber.setLength(0);
+    fullNumber.append(number);
     // Set the default prefix to be something that will never match.
     String possibleCountryIddPrefix = "NonMatch";
     if (defaultRegionMetadata != null) {
@@ -2577,15 +3296,14 @@ public class PhoneNumberUtil {
     }
 
     CountryCodeSource countryCodeSource =
-        maybeStripInternationalPrefixAndNormalize(fullNumber, possibleCountryIddPrefix);
+        maybeStripInternationalPrefixAndNormalize(fullNumber, possibleCountryIddPrefix, context);
     if (keepRawInput) {
       phoneNumber.setCountryCodeSource(countryCodeSource);
     }
     if (countryCodeSource != CountryCodeSource.FROM_DEFAULT_COUNTRY) {
       if (fullNumber.length() <= MIN_LENGTH_FOR_NSN) {
-        throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_AFTER_IDD,
-                                       "Phone number had an IDD, but after this was not "
-                                       + "long enough to be a viable phone number.");
+        context.failure = ParseFailure.TOO_SHORT_AFTER_IDD;
+        return -1;
       }
       int potentialCountryCode = extractCountryCode(fullNumber, nationalNumber);
       if (potentialCountryCode != 0) {
@@ -2595,31 +3313,31 @@ public class PhoneNumberUtil {
 
       // If this fails, they must be using a strange country calling code that we don't recognize,
       // or that doesn't exist.
-      throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                     "Country calling code supplied was not recognised.");
+      context.failure = ParseFailure.UNKNOWN_COUNTRY_CODE;
+      return -1;
     } else if (defaultRegionMetadata != null) {
       // Check to see if the number starts with the country calling code for the default region. If
       // so, we remove the country calling code, and do some checks on the validity of the number
       // before and after.
       int defaultCountryCode = defaultRegionMetadata.countryCode;
-      String defaultCountryCodeString = String.valueOf(defaultCountryCode);
-      String normalizedNumber = fullNumber.toString();
-      if (normalizedNumber.startsWith(defaultCountryCodeString)) {
-        StringBuilder potentialNationalNumber =
-            new StringBuilder(normalizedNumber.substring(defaultCountryCodeString.length()));
+      int countryCodeLength = getCountryCodeLength(fullNumber, defaultCountryCode);
+      if (countryCodeLength > 0) {
+        // parseHelper only uses this buffer of the context once the country calling code is known.
+        StringBuilder potentialNationalNumber = context.potentialNationalNumber;
+        potentialNationalNumber.setLength(0);
+        potentialNationalNumber.append(fullNumber, countryCodeLength, fullNumber.length());
         PhoneNumberDesc generalDesc = defaultRegionMetadata.generalDesc;
         Pattern validNumberPattern =
             regexCache.getPatternForRegex(generalDesc.nationalNumberPattern);
         maybeStripNationalPrefixAndCarrierCode(
-            potentialNationalNumber, defaultRegionMetadata, null /* Don't need the carrier code */);
-        Pattern possibleNumberPattern =
-            regexCache.getPatternForRegex(generalDesc.possibleNumberPattern);
+            potentialNationalNumber, defaultRegionMetadata, null /* Don't need the carrier code */,
+            context);
         // If the number was not valid before but is valid now, or if it was too long before, we
         // consider the number with the country calling code stripped to be a better result and
         // keep that instead.
-        if ((!validNumberPattern.matcher(fullNumber).matches() &&
-             validNumberPattern.matcher(potentialNationalNumber).matches()) ||
-             testNumberLengthAgainstPattern(possibleNumberPattern, fullNumber.toString())
+        if ((!context.matcher(validNumberPattern, fullNumber).matches() &&
+             context.matcher(validNumberPattern, potentialNationalNumber).matches()) ||
+             testNumberLength(fullNumber, defaultRegionMetadata, context)
                   == ValidationResult.TOO_LONG) {
           nationalNumber.append(potentialNationalNumber);
           if (keepRawInput) {
@@ -2635,20 +3353,43 @@ public class PhoneNumberUtil {
     return 0;
   }
 
+  /**
+   * Returns the number of digits of the given country calling code if the number starts with it,
+   * or 0 otherwise.
+   */
+  private static int getCountryCodeLength(CharSequence number, int countryCode) {
+    int length = 0;
+    for (int remaining = countryCode; remaining > 0; remaining /= 10) {
+      length++;
+    }
+    if (number.length() < length) {
+      return 0;
+    }
+    int prefix = 0;
+    for (int i = 0; i < length; i++) {
+      int digit = number.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return 0;
+      }
+      prefix = prefix * 10 + digit;
+    }
+    return (prefix == countryCode) ? length : 0;
+  }
+
   /**
    * Strips the IDD from the start of the number if present. Helper function used by
    * maybeStripInternationalPrefixAndNormalize.
    */
-  private boolean parsePrefixAsIdd(Pattern iddPattern, StringBuilder number) {
-    Matcher m = iddPattern.matcher(number);
+  private boolean parsePrefixAsIdd(Pattern iddPattern, StringBuilder number,
+                                   ParseContext context) {
+    Matcher m = context.matcher(iddPattern, number);
     if (m.lookingAt()) {
       int matchEnd = m.end();
       // Only strip this if the first digit after the match is not a 0, since country calling codes
       // cannot begin with 0.
-      Matcher digitMatcher = CAPTURING_DIGIT_PATTERN.matcher(number.substring(matchEnd));
-      if (digitMatcher.find()) {
-        String normalizedGroup = normalizeDigitsOnly(digitMatcher.group(1));
-        if (normalizedGroup.equals("0")) {
+      Matcher digitMatcher = context.matcher(CAPTURING_DIGIT_PATTERN, number);
+      if (digitMatcher.region(matchEnd, number.length()).find()) {
+        if (Character.digit(number.charAt(digitMatcher.start(1)), 10) == 0) {
           return false;
         }
       }
@@ -2674,11 +3415,19 @@ public class PhoneNumberUtil {
   CountryCodeSource maybeStripInternationalPrefixAndNormalize(
       StringBuilder number,
       String possibleIddPrefix) {
+    return maybeStripInternationalPrefixAndNormalize(number, possibleIddPrefix,
+                                                     new ParseContext());
+  }
+
+  private CountryCodeSource maybeStripInternationalPrefixAndNormalize(
+      StringBuilder number,
+      String possibleIddPrefix,
+      ParseContext context) {
     if (number.length() == 0) {
       return CountryCodeSource.FROM_DEFAULT_COUNTRY;
     }
     // Check to see if the number begins with one or more plus signs.
-    Matcher m = PLUS_CHARS_PATTERN.matcher(number);
+    Matcher m = context.matcher(PLUS_CHARS_PATTERN, number);
     if (m.lookingAt()) {
       number.delete(0, m.end());
       // Can now normalize the rest of the number since we've consumed the "+" sign at the start.
@@ -2688,7 +3437,7 @@ public class PhoneNumberUtil {
     // Attempt to parse the first digits as an international prefix.
     Pattern iddPattern = regexCache.getPatternForRegex(possibleIddPrefix);
     normalize(number);
-    return parsePrefixAsIdd(iddPattern, number)
+    return parsePrefixAsIdd(iddPattern, number, context)
            ? CountryCodeSource.FROM_NUMBER_WITH_IDD
            : CountryCodeSource.FROM_DEFAULT_COUNTRY;
   }
@@ -2705,6 +3454,18 @@ public class PhoneNumberUtil {
   // @VisibleForTesting
   boolean maybeStripNationalPrefixAndCarrierCode(
       StringBuilder number, PhoneMetadata metadata, StringBuilder carrierCode) {
+    return maybeStripNationalPrefixAndCarrierCode(number, metadata, carrierCode,
+                                                  new ParseContext());
+  }
+
+  /**
+   * Same as {@link #maybeStripNationalPrefixAndCarrierCode(StringBuilder, PhoneMetadata,
+   * StringBuilder)}, but using the matchers of the given context. The number must not be the
+   * context's transformedNumber buffer.
+   */
+  private boolean maybeStripNationalPrefixAndCarrierCode(
+      StringBuilder number, PhoneMetadata metadata, StringBuilder carrierCode,
+      ParseContext context) {
     int numberLength = number.length();
     String possibleNationalPrefix = metadata.nationalPrefixForParsing;
     if (numberLength == 0 || possibleNationalPrefix.length() == 0) {
@@ -2712,25 +3473,26 @@ public class PhoneNumberUtil {
       return false;
     }
     // Attempt to parse the first digits as a national prefix.
-    Matcher prefixMatcher = regexCache.getPatternForRegex(possibleNationalPrefix).matcher(number);
+    Matcher prefixMatcher =
+        context.matcher(regexCache.getPatternForRegex(possibleNationalPrefix), number);
     if (prefixMatcher.lookingAt()) {
       Pattern nationalNumberRule =
           regexCache.getPatternForRegex(metadata.generalDesc.nationalNumberPattern);
       // Check if the original number is viable.
-      boolean isViableOriginalNumber = nationalNumberRule.matcher(number).matches();
+      boolean isViableOriginalNumber = context.matcher(nationalNumberRule, number).matches();
       // prefixMatcher.group(numOfGroups) == null implies nothing was captured by the capturing
       // groups in possibleNationalPrefix; therefore, no transformation is necessary, and we just
       // remove the national prefix.
       int numOfGroups = prefixMatcher.groupCount();
       String transformRule = metadata.nationalPrefixTransformRule;
       if (transformRule == null || transformRule.length() == 0 ||
-          prefixMatcher.group(numOfGroups) == null) {
+          prefixMatcher.start(numOfGroups) == -1) {
         // If the original number was viable, and the resultant number is not, we return.
-        if (isViableOriginalNumber &&
-            !nationalNumberRule.matcher(number.substring(prefixMatcher.end())).matches()) {
+        if (isViableOriginalNumber && !context.matcher(nationalNumberRule, number)
+            .region(prefixMatcher.end(), numberLength).matches()) {
           return false;
         }
-        if (carrierCode != null && numOfGroups > 0 && prefixMatcher.group(numOfGroups) != null) {
+        if (carrierCode != null && numOfGroups > 0 && prefixMatcher.start(numOfGroups) != -1) {
           carrierCode.append(prefixMatcher.group(1));
         }
         number.delete(0, prefixMatcher.end());
@@ -2738,16 +3500,18 @@ public class PhoneNumberUtil {
       } else {
         // Check that the resultant number is still viable. If not, return. Check this by copying
         // the string buffer and making the transformation on the copy first.
-        StringBuilder transformedNumber = new StringBuilder(number);
-        transformedNumber.replace(0, numberLength, prefixMatcher.replaceFirst(transformRule));
+        StringBuilder transformedNumber = context.transformedNumber;
+        transformedNumber.setLength(0);
+        transformedNumber.append(prefixMatcher.replaceFirst(transformRule));
         if (isViableOriginalNumber &&
-            !nationalNumberRule.matcher(transformedNumber.toString()).matches()) {
+            !context.matcher(nationalNumberRule, transformedNumber).matches()) {
           return false;
         }
         if (carrierCode != null && numOfGroups > 1) {
           carrierCode.append(prefixMatcher.group(1));
         }
-        number.replace(0, number.length(), transformedNumber.toString());
+        number.setLength(0);
+        number.append(transformedNumber);
         return true;
       }
     }
@@ -2763,20 +3527,18 @@ public class PhoneNumberUtil {
    */
   // @VisibleForTesting
   String maybeStripExtension(StringBuilder number) {
-    Matcher m = EXTN_PATTERN.matcher(number);
+    // As when this was a regular expression ending in $, the extension may be followed by a line
+    // terminator, which is then stripped with it.
+    int end = ExtensionScanner.endBeforeFinalLineTerminator(number);
+    int start = ExtensionScanner.findExtensionStart(number, 0, end);
     // If we find a potential extension, and the number preceding this is a viable number, we assume
     // it is an extension.
-    if (m.find() && isViablePhoneNumber(number.substring(0, m.start()))) {
-      // The numbers are captured into groups in the regular expression.
-      for (int i = 1, length = m.groupCount(); i <= length; i++) {
-        if (m.group(i) != null) {
-          // We go through the capturing groups until we find one that captured some digits. If none
-          // did, then we will return the empty string.
-          String extension = m.group(i);
-          number.delete(m.start(), number.length());
-          return extension;
-        }
-      }
+    if (start >= 0 && isViablePhoneNumber(number, start)) {
+      int digitsEnd = ExtensionScanner.findDigitsEnd(number, start, end);
+      String extension =
+          number.substring(ExtensionScanner.findDigitsStart(number, start, digitsEnd), digitsEnd);
+      number.delete(start, number.length());
+      return extension;
     }
     return "";
   }
@@ -2786,11 +3548,12 @@ public class PhoneNumberUtil {
    * parse starts with a + symbol so that we can attempt to infer the region from the number.
    * Returns false if it cannot use the region provided and the region cannot be inferred.
    */
-  private boolean checkRegionForParsing(String numberToParse, String defaultRegion) {
+  private boolean checkRegionForParsing(CharSequence numberToParse, String defaultRegion,
+                                        ParseContext context) {
     if (!isValidRegionCode(defaultRegion)) {
       // If the number is null or empty, we can't infer the region.
       if ((numberToParse == null) || (numberToParse.length() == 0) ||
-          !PLUS_CHARS_PATTERN.matcher(numberToParse).lookingAt()) {
+          !context.matcher(PLUS_CHARS_PATTERN, numberToParse).lookingAt()) {
         return false;
       }
     }
@@ -2839,7 +3602,28 @@ public class PhoneNumberUtil {
    */
   public void parse(String numberToParse, String defaultRegion, PhoneNumber phoneNumber)
       throws NumberParseException {
-    parseHelper(numberToParse, defaultRegion, false, true, phoneNumber);
+    parseHelper(numberToParse, defaultRegion, false, true, phoneNumber, new ParseContext());
+  }
+
+  /**
+   * Same as {@link #parse(String, String, PhoneNumber)}, but using the buffers of the given context
+   * instead of allocating new ones for every number. The context may be reused for any number of
+   * calls, but not by several threads at once.
+   *
+   * @param numberToParse     number that we are attempting to parse, as for
+   *                          {@link #parse(String, String)}
+   * @param defaultRegion     region that we are expecting the number to be from, as for
+   *                          {@link #parse(String, String)}
+   * @param phoneNumber       the phone number to fill in
+   * @param context           a context whose previous contents will be overwritten
+   * @throws NumberParseException  if the string is not considered to be a viable phone number or if
+   *                               no default region was supplied and the number is not in
+   *                               international format
+   */
+  public void parse(CharSequence numberToParse, String defaultRegion, PhoneNumber phoneNumber,
+                    ParseContext context)
+      throws NumberParseException {
+    parseHelper(numberToParse, defaultRegion, false, true, phoneNumber, context);
   }
 
   /**
@@ -2871,7 +3655,120 @@ public class PhoneNumberUtil {
   public void parseAndKeepRawInput(String numberToParse, String defaultRegion,
                                    PhoneNumber phoneNumber)
       throws NumberParseException {
-    parseHelper(numberToParse, defaultRegion, true, true, phoneNumber);
+    parseHelper(numberToParse, defaultRegion, true, true, phoneNumber, new ParseContext());
+  }
+
+  /**
+   * Same as {@link #parseAndKeepRawInput(String, String, PhoneNumber)}, but using the buffers of
+   * the given context instead of allocating new ones for every number. The context may be reused
+   * for any number of calls, but not by several threads at once.
+   */
+  public void parseAndKeepRawInput(CharSequence numberToParse, String defaultRegion,
+                                   PhoneNumber phoneNumber, ParseContext context)
+      throws NumberParseException {
+    parseHelper(numberToParse, defaultRegion, true, true, phoneNumber, context);
+  }
+
+  /**
+   * Same as {@link #parse(String, String, PhoneNumber)}, but returns the error type of the
+   * exception that would have been thrown instead of throwing it. This is cheaper when many of the
+   * strings parsed are not phone numbers, since no exception is created for them.
+   *
+   * @param numberToParse     number that we are attempting to parse, as for
+   *                          {@link #parse(String, String)}
+   * @param defaultRegion     region that we are expecting the number to be from, as for
+   *                          {@link #parse(String, String)}
+   * @param phoneNumber       the phone number to fill in. If the number could not be parsed, some
+   *                          of its fields may have been set anyway
+   * @return                  null if the number was parsed, otherwise the reason it could not be
+   */
+  public NumberParseException.ErrorType tryParse(CharSequence numberToParse, String defaultRegion,
+                                                 PhoneNumber phoneNumber) {
+    return tryParse(numberToParse, defaultRegion, phoneNumber, new ParseContext());
+  }
+
+  /**
+   * Same as {@link #tryParse(CharSequence, String, PhoneNumber)}, but using the buffers of the
+   * given context, as for {@link #parse(CharSequence, String, PhoneNumber, ParseContext)}.
+   */
+  public NumberParseException.ErrorType tryParse(CharSequence numberToParse, String defaultRegion,
+                                                 PhoneNumber phoneNumber, ParseContext context) {
+    ParseFailure failure =
+        tryParseHelper(numberToParse, defaultRegion, false, true, phoneNumber, context);
+    return (failure != null) ? failure.errorType : null;
+  }
+
+  /**
+   * Same as {@link #parseAndKeepRawInput(String, String, PhoneNumber)}, but returns the error type
+   * of the exception that would have been thrown instead of throwing it, like
+   * {@link #tryParse(CharSequence, String, PhoneNumber)}.
+   */
+  public NumberParseException.ErrorType tryParseAndKeepRawInput(
+      CharSequence numberToParse, String defaultRegion, PhoneNumber phoneNumber) {
+    return tryParseAndKeepRawInput(numberToParse, defaultRegion, phoneNumber, new ParseContext());
+  }
+
+  /**
+   * Same as {@link #tryParseAndKeepRawInput(CharSequence, String, PhoneNumber)}, but using the
+   * buffers of the given context, as for
+   * {@link #parse(CharSequence, String, PhoneNumber, ParseContext)}.
+   */
+  public NumberParseException.ErrorType tryParseAndKeepRawInput(
+      CharSequence numberToParse, String defaultRegion, PhoneNumber phoneNumber,
+      ParseContext context) {
+    ParseFailure failure =
+        tryParseHelper(numberToParse, defaultRegion, true, true, phoneNumber, context);
+    return (failure != null) ? failure.errorType : null;
+  }
+
+  /**
+   * Parses each of the given strings as {@link #parse(String, String)} would, in the calling
+   * thread, reusing the same buffers for all of them.
+   *
+   * @param numbersToParse    the strings to parse
+   * @param defaultRegion     region that we are expecting the numbers to be from, as for
+   *                          {@link #parse(String, String)}
+   * @return                  the phone number parsed from each string, or the reason it could not
+   *                          be, in the order of the strings
+   */
+  public BatchParseResult parseAll(List<? extends CharSequence> numbersToParse,
+                                   String defaultRegion) {
+    return new BatchParser(this, numbersToParse, defaultRegion, null).parse();
+  }
+
+  /**
+   * Same as {@link #parseAll(List, String)}, but each string is parsed with the default region at
+   * the same index of {@code defaultRegions}, which must have the same size as
+   * {@code numbersToParse}.
+   */
+  public BatchParseResult parseAll(List<? extends CharSequence> numbersToParse,
+                                   List<String> defaultRegions) {
+    return new BatchParser(this, numbersToParse, null, defaultRegions).parse();
+  }
+
+  /**
+   * Same as {@link #parseAll(List, String)}, but the strings are split into chunks parsed by tasks
+   * run on the given executor, so that they are parsed in parallel if it has several threads.
+   * This method returns once all the strings have been parsed.
+   *
+   * @throws InterruptedException  if this thread was interrupted while waiting for the tasks
+   */
+  public BatchParseResult parseAll(List<? extends CharSequence> numbersToParse,
+                                   String defaultRegion, Executor executor)
+      throws InterruptedException {
+    return new BatchParser(this, numbersToParse, defaultRegion, null).parse(executor);
+  }
+
+  /**
+   * Same as {@link #parseAll(List, List)}, but the strings are split into chunks parsed by tasks
+   * run on the given executor, as for {@link #parseAll(List, String, Executor)}.
+   *
+   * @throws InterruptedException  if this thread was interrupted while waiting for the tasks
+   */
+  public BatchParseResult parseAll(List<? extends CharSequence> numbersToParse,
+                                   List<String> defaultRegions, Executor executor)
+      throws InterruptedException {
+    return new BatchParser(this, numbersToParse, null, defaultRegions).parse(executor);
   }
 
   /**
@@ -2920,7 +3817,8 @@ public class PhoneNumberUtil {
   /**
    * A helper function to set the values related to leading zeros in a PhoneNumber.
    */
-  static void setItalianLeadingZerosForPhoneNumber(String nationalNumber, PhoneNumber phoneNumber) {
+  static void setItalianLeadingZerosForPhoneNumber(CharSequence nationalNumber,
+                                                  PhoneNumber phoneNumber) {
     if (nationalNumber.length() > 1 && nationalNumber.charAt(0) == '0') {
       phoneNumber.setItalianLeadingZero(true);
       int numberOfLeadingZeros = 1;
@@ -2942,34 +3840,46 @@ public class PhoneNumberUtil {
    * isNumberMatch(). checkRegion should be set to false if it is permitted for the default region
    * to be null or unknown ("ZZ").
    */
-  private void parseHelper(String numberToParse, String defaultRegion, boolean keepRawInput,
-                           boolean checkRegion, PhoneNumber phoneNumber)
+  private void parseHelper(CharSequence numberToParse, String defaultRegion, boolean keepRawInput,
+                           boolean checkRegion, PhoneNumber phoneNumber, ParseContext context)
       throws NumberParseException {
+    ParseFailure failure =
+        tryParseHelper(numberToParse, defaultRegion, keepRawInput, checkRegion, phoneNumber,
+                       context);
+    if (failure != null) {
+      throw failure.toException();
+    }
+  }
+
+  /**
+   * Same as {@link #parseHelper}, but returns the reason the number could not be parsed instead of
+   * throwing an exception, or null if it was parsed.
+   */
+  private ParseFailure tryParseHelper(CharSequence numberToParse, String defaultRegion,
+                                      boolean keepRawInput, boolean checkRegion,
+                                      PhoneNumber phoneNumber, ParseContext context) {
     if (numberToParse == null) {
-      throw new NumberParseException(NumberParseException.ErrorType.NOT_A_NUMBER,
-                                     "The phone number supplied was null.");
+      return ParseFailure.NULL_INPUT;
     } else if (numberToParse.length() > MAX_INPUT_STRING_LENGTH) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_LONG,
-                                     "The string supplied was too long to parse.");
+      return ParseFailure.INPUT_TOO_LONG;
     }
 
-    StringBuilder nationalNumber = new StringBuilder();
+    context.reset();
+    StringBuilder nationalNumber = context.nationalNumber;
     buildNationalNumberForParsing(numberToParse, nationalNumber);
 
-    if (!isViablePhoneNumber(nationalNumber.toString())) {
-      throw new NumberParseException(NumberParseException.ErrorType.NOT_A_NUMBER,
-                                     "The string supplied did not seem to be a phone number.");
+    if (!isViablePhoneNumber(nationalNumber, nationalNumber.length())) {
+      return ParseFailure.NOT_VIABLE;
     }
 
     // Check the region supplied is valid, or that the extracted number starts with some sort of +
     // sign so the number's region can be determined.
-    if (checkRegion && !checkRegionForParsing(nationalNumber.toString(), defaultRegion)) {
-      throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                     "Missing or invalid default region.");
+    if (checkRegion && !checkRegionForParsing(nationalNumber, defaultRegion, context)) {
+      return ParseFailure.INVALID_DEFAULT_REGION;
     }
 
     if (keepRawInput) {
-      phoneNumber.setRawInput(numberToParse);
+      phoneNumber.setRawInput(numberToParse.toString());
     }
     // Attempt to parse extension first, since it doesn't require region-specific data and we want
     // to have the non-normalised number here.
@@ -2978,31 +3888,35 @@ public class PhoneNumberUtil {
       phoneNumber.setExtension(extension);
     }
 
-    PhoneMetadata regionMetadata = getMetadataForRegion(defaultRegion);
+    PhoneMetadata regionMetadata = context.hasDefaultRegion(this, defaultRegion)
+        ? context.getDefaultRegionMetadata() : getMetadataForRegion(defaultRegion);
     // Check to see if the number is given in international format so we know whether this number is
     // from the default region or not.
-    StringBuilder normalizedNationalNumber = new StringBuilder();
-    int countryCode = 0;
-    try {
-      // TODO: This method should really just take in the string buffer that has already
-      // been created, and just remove the prefix, rather than taking in a string and then
-      // outputting a string buffer.
-      countryCode = maybeExtractCountryCode(nationalNumber.toString(), regionMetadata,
-                                            normalizedNationalNumber, keepRawInput, phoneNumber);
-    } catch (NumberParseException e) {
-      Matcher matcher = PLUS_CHARS_PATTERN.matcher(nationalNumber.toString());
-      if (e.getErrorType() == NumberParseException.ErrorType.INVALID_COUNTRY_CODE &&
+    StringBuilder normalizedNationalNumber = context.normalizedNationalNumber;
+    // TODO: This method should really just take in the string buffer that has already
+    // been created, and just remove the prefix, rather than taking in a string and then
+    // outputting a string buffer.
+    int countryCode = maybeExtractCountryCode(nationalNumber, regionMetadata,
+                                              normalizedNationalNumber, keepRawInput, phoneNumber,
+                                              context);
+    if (countryCode < 0) {
+      Matcher matcher = context.matcher(PLUS_CHARS_PATTERN, nationalNumber);
+      if (context.failure.errorType == NumberParseException.ErrorType.INVALID_COUNTRY_CODE &&
           matcher.lookingAt()) {
-        // Strip the plus-char, and try again.
-        countryCode = maybeExtractCountryCode(nationalNumber.substring(matcher.end()),
-                                              regionMetadata, normalizedNationalNumber,
-                                              keepRawInput, phoneNumber);
+        // Strip the plus-char, and try again. The national number is not needed any more if this
+        // fails, or if a country calling code is found.
+        nationalNumber.delete(0, matcher.end());
+        countryCode = maybeExtractCountryCode(nationalNumber, regionMetadata,
+                                              normalizedNationalNumber, keepRawInput, phoneNumber,
+                                              context);
+        if (countryCode < 0) {
+          return context.failure;
+        }
         if (countryCode == 0) {
-          throw new NumberParseException(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
-                                         "Could not interpret numbers after plus-sign.");
+          return ParseFailure.NO_COUNTRY_CODE_AFTER_PLUS;
         }
       } else {
-        throw new NumberParseException(e.getErrorType(), e.getMessage());
+        return context.failure;
       }
     }
     if (countryCode != 0) {
@@ -3024,17 +3938,19 @@ public class PhoneNumberUtil {
       }
     }
     if (normalizedNationalNumber.length() < MIN_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_NSN,
-                                     "The string supplied is too short to be a phone number.");
+      return ParseFailure.TOO_SHORT_NSN;
     }
     if (regionMetadata != null) {
-      StringBuilder carrierCode = new StringBuilder();
-      StringBuilder potentialNationalNumber = new StringBuilder(normalizedNationalNumber);
-      maybeStripNationalPrefixAndCarrierCode(potentialNationalNumber, regionMetadata, carrierCode);
+      StringBuilder carrierCode = context.carrierCode;
+      StringBuilder potentialNationalNumber = context.potentialNationalNumber;
+      potentialNationalNumber.setLength(0);
+      potentialNationalNumber.append(normalizedNationalNumber);
+      maybeStripNationalPrefixAndCarrierCode(potentialNationalNumber, regionMetadata, carrierCode,
+                                             context);
       // We require that the NSN remaining after stripping the national prefix and carrier code be
       // of a possible length for the region. Otherwise, we don't do the stripping, since the
       // original number could be a valid short number.
-      if (!isShorterThanPossibleNormalNumber(regionMetadata, potentialNationalNumber.toString())) {
+      if (!isShorterThanPossibleNormalNumber(regionMetadata, potentialNationalNumber, context)) {
         normalizedNationalNumber = potentialNationalNumber;
         if (keepRawInput) {
           phoneNumber.setPreferredDomesticCarrierCode(carrierCode.toString());
@@ -3043,23 +3959,40 @@ public class PhoneNumberUtil {
     }
     int lengthOfNationalNumber = normalizedNationalNumber.length();
     if (lengthOfNationalNumber < MIN_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_SHORT_NSN,
-                                     "The string supplied is too short to be a phone number.");
+      return ParseFailure.TOO_SHORT_NSN;
     }
     if (lengthOfNationalNumber > MAX_LENGTH_FOR_NSN) {
-      throw new NumberParseException(NumberParseException.ErrorType.TOO_LONG,
-                                     "The string supplied is too long to be a phone number.");
+      return ParseFailure.TOO_LONG_NSN;
     }
-    setItalianLeadingZerosForPhoneNumber(normalizedNationalNumber.toString(), phoneNumber);
-    phoneNumber.setNationalNumber(Long.parseLong(normalizedNationalNumber.toString()));
+    setItalianLeadingZerosForPhoneNumber(normalizedNationalNumber, phoneNumber);
+    phoneNumber.setNationalNumber(parseNationalNumber(normalizedNationalNumber));
+    return null;
+  }
+
+  /**
+   * Returns the value of a national number of at most MAX_LENGTH_FOR_NSN digits, like
+   * Long.parseLong but without turning it into a String first.
+   */
+  private static long parseNationalNumber(CharSequence nationalNumber) {
+    long value = 0;
+    for (int i = 0; i < nationalNumber.length(); i++) {
+      int digit = nationalNumber.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        // Not expected after normalization, but fail the same way as before.
+        return Long.parseLong(nationalNumber.toString());
+      }
+      value = value * 10 + digit;
+    }
+    return value;
   }
 
   /**
    * Converts numberToParse to a form that we can parse and write it to nationalNumber if it is
    * written in RFC3966; otherwise extract a possible number out of it and write to nationalNumber.
    */
-  private void buildNationalNumberForParsing(String numberToParse, StringBuilder nationalNumber) {
-    int indexOfPhoneContext = numberToParse.indexOf(RFC3966_PHONE_CONTEXT);
+  private void buildNationalNumberForParsing(CharSequence numberToParse,
+                                             StringBuilder nationalNumber) {
+    int indexOfPhoneContext = indexOf(numberToParse, RFC3966_PHONE_CONTEXT, 0);
     if (indexOfPhoneContext > 0) {
       int phoneContextStart = indexOfPhoneContext + RFC3966_PHONE_CONTEXT.length();
       // If the phone context contains a phone number prefix, we need to capture it, whereas domains
@@ -3068,11 +4001,11 @@ public class PhoneNumberUtil {
         // Additional parameters might follow the phone context. If so, we will remove them here
         // because the parameters after phone context are not important for parsing the
         // phone number.
-        int phoneContextEnd = numberToParse.indexOf(';', phoneContextStart);
+        int phoneContextEnd = indexOf(numberToParse, ";", phoneContextStart);
         if (phoneContextEnd > 0) {
-          nationalNumber.append(numberToParse.substring(phoneContextStart, phoneContextEnd));
+          nationalNumber.append(numberToParse, phoneContextStart, phoneContextEnd);
         } else {
-          nationalNumber.append(numberToParse.substring(phoneContextStart));
+          nationalNumber.append(numberToParse, phoneContextStart, numberToParse.length());
         }
       }
 
@@ -3080,14 +4013,14 @@ public class PhoneNumberUtil {
       // the national number, an optional extension or isdn-subaddress component. Note we also
       // handle the case when "tel:" is missing, as we have seen in some of the phone number inputs.
       // In that case, we append everything from the beginning.
-      int indexOfRfc3966Prefix = numberToParse.indexOf(RFC3966_PREFIX);
+      int indexOfRfc3966Prefix = indexOf(numberToParse, RFC3966_PREFIX, 0);
       int indexOfNationalNumber = (indexOfRfc3966Prefix >= 0) ?
           indexOfRfc3966Prefix + RFC3966_PREFIX.length() : 0;
-      nationalNumber.append(numberToParse.substring(indexOfNationalNumber, indexOfPhoneContext));
+      nationalNumber.append(numberToParse.subSequence(indexOfNationalNumber, indexOfPhoneContext));
     } else {
       // Extract a possible number from the string passed in (this strips leading characters that
       // could not be the start of a phone number.)
-      nationalNumber.append(extractPossibleNumber(numberToParse));
+      extractPossibleNumber(numberToParse, nationalNumber);
     }
 
     // Delete the isdn-subaddress and everything after it if it is present. Note extension won't
@@ -3102,6 +4035,27 @@ public class PhoneNumberUtil {
     // actually written in RFC3966.
   }
 
+  /**
+   * Returns the index of the first occurrence of target in text at or after fromIndex, or -1 if
+   * there is none, like String.indexOf but for any CharSequence.
+   */
+  private static int indexOf(CharSequence text, String target, int fromIndex) {
+    if (text instanceof String) {
+      return ((String) text).indexOf(target, fromIndex);
+    }
+    int last = text.length() - target.length();
+    for (int i = fromIndex; i <= last; i++) {
+      int j = 0;
+      while (j < target.length() && text.charAt(i + j) == target.charAt(j)) {
+        j++;
+      }
+      if (j == target.length()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Takes two phone numbers and compares them for equality.
    *
@@ -3213,8 +4167,9 @@ public class PhoneNumberUtil {
             try {
               PhoneNumber firstNumberProto = new PhoneNumber();
               PhoneNumber secondNumberProto = new PhoneNumber();
-              parseHelper(firstNumber, null, false, false, firstNumberProto);
-              parseHelper(secondNumber, null, false, false, secondNumberProto);
+              ParseContext context = new ParseContext();
+              parseHelper(firstNumber, null, false, false, firstNumberProto, context);
+              parseHelper(secondNumber, null, false, false, secondNumberProto, context);
               return isNumberMatch(firstNumberProto, secondNumberProto);
             } catch (NumberParseException e3) {
               // Fall through and return MatchType.NOT_A_NUMBER.
@@ -3261,7 +4216,7 @@ public class PhoneNumberUtil {
             // If the first number didn't have a valid country calling code, then we parse the
             // second number without one as well.
             PhoneNumber secondNumberProto = new PhoneNumber();
-            parseHelper(secondNumber, null, false, false, secondNumberProto);
+            parseHelper(secondNumber, null, false, false, secondNumberProto, new ParseContext());
             return isNumberMatch(firstNumber, secondNumberProto);
           }
         } catch (NumberParseException e2) {
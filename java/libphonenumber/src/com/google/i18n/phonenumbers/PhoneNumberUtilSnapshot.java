@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.internal.DfaBasedMatcher;
+import com.google.i18n.phonenumbers.internal.DigitAutomaton;
+import com.google.i18n.phonenumbers.internal.MatcherApi;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the fully initialized state of a {@link PhoneNumberUtil} to a snapshot file, and creates
+ * instances from such files. Restoring from a snapshot reads the file in one go and skips
+ * compiling the automata used to validate, classify and format numbers, which is most of the cost
+ * of warming up an instance.
+ *
+ * <p>The snapshot format, with all integers big-endian and strings written as an int length
+ * followed by that many bytes of UTF-8, is:
+ * <pre>
+ *   int magic ("PNSS")
+ *   int version (1)
+ *   int callingCodeCount
+ *   callingCodeCount times: int countryCallingCode, int regionCount, regionCount region codes
+ *   int metadataLength, then the metadata in the format of {@link MappedFileMetadataSourceImpl}
+ *   int automatonCount
+ *   automatonCount times: pattern, boolean compiled, the automaton if compiled
+ *   int indexCount
+ *   indexCount times: int metadata key, the number type classifier, the national format selector
+ *       and the international format selector
+ * </pre>
+ * Automata are written with {@link DigitAutomaton#writeTo}, each preceded by a boolean that is
+ * false if there is none. A classifier is a boolean that is false if there is none, then its
+ * automaton, long possible lengths and boolean possible lengths only.
+ *
+ * <p>Compiled regular expressions can't be saved, so those still compile on first use.
+ *
+ * <p>Only instances matching numbers with the default {@link DfaBasedMatcher} can be saved, since
+ * a restored instance always uses one. Short number metadata and alternate formats are not part
+ * of a snapshot: a restored instance, like any other, loads them from the files bundled with the
+ * library when they are first used.
+ */
+final class PhoneNumberUtilSnapshot {
+  static final int MAGIC = 0x504e5353;
+  static final int VERSION = 1;
+
+  private static final String UTF_8 = "UTF-8";
+
+  private PhoneNumberUtilSnapshot() {
+  }
+
+  /**
+   * Warms up all the regions supported by the given instance and writes its state to the given
+   * stream, which is closed afterwards.
+   *
+   * @throws UnsupportedOperationException if the instance does not use a {@link DfaBasedMatcher}
+   */
+  static void write(PhoneNumberUtil phoneUtil, OutputStream out) throws IOException {
+    try {
+      writeTo(phoneUtil, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeTo(PhoneNumberUtil phoneUtil, OutputStream out) throws IOException {
+    MatcherApi matcherApi = phoneUtil.getMatcherApi();
+    if (!(matcherApi instanceof DfaBasedMatcher)) {
+      throw new UnsupportedOperationException(
+          "cannot write a snapshot of an instance using a custom MatcherApi");
+    }
+    List<String> regionCodes = new ArrayList<String>(phoneUtil.getSupportedRegions());
+    Collections.sort(regionCodes);
+    regionCodes.add(PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY);
+    phoneUtil.warmUp(regionCodes, false);
+
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (String regionCode : regionCodes) {
+      if (!PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode)) {
+        addIfNotNull(metadataList, phoneUtil.getMetadataForRegion(regionCode));
+      }
+    }
+    for (int countryCallingCode : phoneUtil.getSupportedGlobalNetworkCallingCodes()) {
+      addIfNotNull(metadataList,
+          phoneUtil.getMetadataForNonGeographicalRegion(countryCallingCode));
+    }
+    ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+    MappedFileMetadataSourceImpl.writeMetadataFile(metadataList, metadataBytes);
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    Map<Integer, List<String>> countryCallingCodeToRegionCodeMap =
+        phoneUtil.getCountryCallingCodeToRegionCodeMap();
+    data.writeInt(countryCallingCodeToRegionCodeMap.size());
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      data.writeInt(entry.getKey());
+      data.writeInt(entry.getValue().size());
+      for (String regionCode : entry.getValue()) {
+        writeString(data, regionCode);
+      }
+    }
+    data.writeInt(metadataBytes.size());
+    metadataBytes.writeTo(data);
+
+    Map<String, DigitAutomaton> automata = ((DfaBasedMatcher) matcherApi).getCompiledAutomata();
+    data.writeInt(automata.size());
+    for (Map.Entry<String, DigitAutomaton> entry : automata.entrySet()) {
+      writeString(data, entry.getKey());
+      writeAutomaton(data, entry.getValue());
+    }
+
+    data.writeInt(metadataList.size());
+    for (PhoneMetadata metadata : metadataList) {
+      MetadataIndex index = phoneUtil.getMetadataIndex(metadata);
+      data.writeInt(MappedFileMetadataSourceImpl.getKey(metadata));
+      NumberTypeClassifier classifier = index.getNumberTypeClassifier();
+      data.writeBoolean(true);
+      writeAutomaton(data, classifier.getAutomaton());
+      data.writeLong(classifier.getPossibleLengths());
+      data.writeBoolean(classifier.isPossibleLengthsOnly());
+      writeAutomaton(data, index.getFormatSelector(metadata.numberFormat).getAutomaton());
+      writeAutomaton(data, index.getFormatSelector(metadata.intlNumberFormat).getAutomaton());
+    }
+    data.flush();
+  }
+
+  /**
+   * Creates an instance from the given snapshot file.
+   *
+   * @throws IOException if the file cannot be read or is not a valid snapshot
+   */
+  static PhoneNumberUtil read(File file) throws IOException {
+    byte[] contents;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.length() > Integer.MAX_VALUE) {
+        throw new IOException("snapshot too large: " + file);
+      }
+      contents = new byte[(int) raf.length()];
+      raf.readFully(contents);
+    } finally {
+      raf.close();
+    }
+    try {
+      return read(ByteBuffer.wrap(contents));
+    } catch (BufferUnderflowException e) {
+      IOException exception = new IOException("truncated snapshot: " + file);
+      exception.initCause(e);
+      throw exception;
+    } catch (RuntimeException e) {
+      // Metadata that passes the index checks but fails to parse ends up here.
+      IOException exception = new IOException("corrupt snapshot: " + file + ": " + e.getMessage());
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  // @VisibleForTesting
+  static PhoneNumberUtil read(ByteBuffer in) throws IOException {
+    if (in.remaining() < 8 || in.getInt() != MAGIC) {
+      throw new IOException("not a snapshot");
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported snapshot version " + version);
+    }
+    int callingCodeCount = readCount(in);
+    Map<Integer, List<String>> countryCallingCodeToRegionCodeMap =
+        new HashMap<Integer, List<String>>();
+    for (int i = 0; i < callingCodeCount; i++) {
+      int countryCallingCode = in.getInt();
+      int regionCount = readCount(in);
+      List<String> regionCodes = new ArrayList<String>(regionCount);
+      for (int j = 0; j < regionCount; j++) {
+        regionCodes.add(readString(in));
+      }
+      countryCallingCodeToRegionCodeMap.put(countryCallingCode, regionCodes);
+    }
+
+    int metadataLength = readCount(in);
+    ByteBuffer metadataBuffer = in.slice();
+    metadataBuffer.limit(metadataLength);
+    in.position(in.position() + metadataLength);
+    MappedFileMetadataSourceImpl metadataSource = new MappedFileMetadataSourceImpl(metadataBuffer);
+    metadataSource.decodeAll();
+    PhoneNumberUtil phoneUtil =
+        new PhoneNumberUtil(metadataSource, countryCallingCodeToRegionCodeMap);
+
+    int automatonCount = readCount(in);
+    DfaBasedMatcher matcher = (DfaBasedMatcher) phoneUtil.getMatcherApi();
+    for (int i = 0; i < automatonCount; i++) {
+      String pattern = readString(in);
+      matcher.addCompiledAutomaton(pattern, readAutomaton(in));
+    }
+
+    int indexCount = readCount(in);
+    for (int i = 0; i < indexCount; i++) {
+      PhoneMetadata metadata = metadataSource.getMetadataForKey(in.getInt());
+      if (metadata == null) {
+        throw new IOException("snapshot index for missing metadata");
+      }
+      NumberTypeClassifier classifier = null;
+      if (readBoolean(in)) {
+        DigitAutomaton automaton = readAutomaton(in);
+        long possibleLengths = in.getLong();
+        boolean possibleLengthsOnly = readBoolean(in);
+        classifier = NumberTypeClassifier.restore(
+            metadata, automaton, possibleLengths, possibleLengthsOnly);
+      }
+      FormatSelector nationalFormatSelector =
+          new FormatSelector(readAutomaton(in), metadata.numberFormat.length);
+      FormatSelector intlFormatSelector =
+          new FormatSelector(readAutomaton(in), metadata.intlNumberFormat.length);
+      phoneUtil.setMetadataIndex(new MetadataIndex(
+          metadata, classifier, nationalFormatSelector, intlFormatSelector));
+    }
+    if (in.hasRemaining()) {
+      throw new IOException("trailing data in snapshot");
+    }
+    // These are quick to build from the classifiers, so they are not saved.
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      if (entry.getValue().size() > 1) {
+        phoneUtil.getRegionSelector(entry.getKey(), entry.getValue());
+      }
+    }
+    return phoneUtil;
+  }
+
+  private static void addIfNotNull(List<PhoneMetadata> metadataList, PhoneMetadata metadata) {
+    if (metadata != null) {
+      metadataList.add(metadata);
+    }
+  }
+
+  private static void writeAutomaton(DataOutputStream data, DigitAutomaton automaton)
+      throws IOException {
+    data.writeBoolean(automaton != null);
+    if (automaton != null) {
+      automaton.writeTo(data);
+    }
+  }
+
+  private static DigitAutomaton readAutomaton(ByteBuffer in) throws IOException {
+    return readBoolean(in) ? DigitAutomaton.readFrom(in) : null;
+  }
+
+  private static void writeString(DataOutputStream data, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static String readString(ByteBuffer in) throws IOException {
+    int length = readCount(in);
+    String string = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+    in.position(in.position() + length);
+    return string;
+  }
+
+  private static boolean readBoolean(ByteBuffer in) {
+    return in.get() != 0;
+  }
+
+  // Reads a count or length, rejecting those that can't be right for the data left, so that
+  // corrupt input can't make us allocate huge arrays.
+  private static int readCount(ByteBuffer in) throws IOException {
+    int count = in.getInt();
+    if (count < 0 || count > in.remaining()) {
+      throw new IOException("corrupt snapshot");
+    }
+    return count;
+  }
+}
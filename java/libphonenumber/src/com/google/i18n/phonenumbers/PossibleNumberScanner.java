@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * Finds the possible phone number in a string and checks whether it is viable, by scanning its
+ * characters rather than running regular expressions over them.
+ *
+ * <p>Each method accepts exactly what the corresponding regular expression in
+ * {@link PhoneNumberUtil} accepts: {@link PhoneNumberUtil#VALID_START_CHAR},
+ * {@link PhoneNumberUtil#UNWANTED_END_CHARS}, {@link PhoneNumberUtil#SECOND_NUMBER_START} and
+ * {@link PhoneNumberUtil#VALID_PHONE_NUMBER} followed by an optional extension. The expressions are
+ * kept there as the definition of what is accepted, and PossibleNumberScannerTest checks the two
+ * agree. Like the expressions, the methods work on code points, and on parts of the input given
+ * by indexes rather than on substrings of it.
+ */
+final class PossibleNumberScanner {
+  // The number of digits a number needs before it may contain letters.
+  private static final int MIN_LEADING_DIGITS = 3;
+
+  private PossibleNumberScanner() {
+  }
+
+  /**
+   * Returns the index of the first character in the number that can start a phone number, which is
+   * a plus sign or a digit, or -1 if there is none.
+   */
+  static int findPossibleNumberStart(CharSequence number) {
+    for (int i = 0, length = number.length(); i < length; ) {
+      int codePoint = Character.codePointAt(number, i);
+      if (isPlusSign(codePoint) || Character.isDigit(codePoint)) {
+        return i;
+      }
+      i += Character.charCount(codePoint);
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the end of the possible number starting at {@code start}: the start of any second
+   * number after it, such as the second extension in "(530) 583-6985 x302/x2303", or else the
+   * end of the number without its trailing characters that are neither letters nor digits.
+   */
+  static int findPossibleNumberEnd(CharSequence number, int start) {
+    int end = number.length();
+    int secondNumberStart = findSecondNumberStart(number, start, end);
+    // A second number ends with an 'x', which isn't trimmed, so it always comes before the
+    // trailing characters and they need not be looked at.
+    return (secondNumberStart >= 0) ? secondNumberStart : trimTrailingChars(number, start, end);
+  }
+
+  /**
+   * Returns the index of the first slash or backslash between {@code start} and {@code end} that is
+   * followed by an 'x', with only spaces in between, or -1 if there is none.
+   */
+  static int findSecondNumberStart(CharSequence number, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = number.charAt(i);
+      if (c == '/' || c == '\\') {
+        int next = i + 1;
+        while (next < end && number.charAt(next) == ' ') {
+          next++;
+        }
+        if (next < end && number.charAt(next) == 'x') {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the end of the part of the number between {@code start} and {@code end} left once
+   * the trailing characters that are neither letters, digits nor the hash sign are removed. The
+   * hash sign is kept as it may signify the previous block was an extension.
+   */
+  static int trimTrailingChars(CharSequence number, int start, int end) {
+    int i = end;
+    while (i > start) {
+      char c = number.charAt(i - 1);
+      int codePoint = c;
+      if (Character.isLowSurrogate(c) && i - 2 >= start
+          && Character.isHighSurrogate(number.charAt(i - 2))) {
+        codePoint = Character.toCodePoint(number.charAt(i - 2), c);
+      }
+      if (isWantedEndChar(codePoint)) {
+        return i;
+      }
+      i -= Character.charCount(codePoint);
+    }
+    return start;
+  }
+
+  /**
+   * Returns whether the first {@code end} characters of the number could be a phone number of some
+   * sort: either two digits alone, or any number of plus signs followed by at least three digits
+   * and then letters, digits and punctuation, optionally with an extension at the end. Only
+   * punctuation may come between the first three digits.
+   */
+  static boolean isViablePhoneNumber(CharSequence number, int end) {
+    if (isTwoDigits(number, end)) {
+      return true;
+    }
+    // The plus signs are taken possessively, so the digits must be after all of them.
+    int i = 0;
+    while (i < end && isPlusSign(number.charAt(i))) {
+      i++;
+    }
+    int digits = 0;
+    while (digits < MIN_LEADING_DIGITS && i < end) {
+      int codePoint = codePointAt(number, i, end);
+      if (Character.isDigit(codePoint)) {
+        digits++;
+      } else if (!isPunctuation(codePoint) && codePoint != '*') {
+        return false;
+      }
+      i += Character.charCount(codePoint);
+    }
+    if (digits < MIN_LEADING_DIGITS) {
+      return false;
+    }
+    int numberEnd = i;
+    while (numberEnd < end) {
+      int codePoint = codePointAt(number, numberEnd, end);
+      if (!Character.isDigit(codePoint) && !isPunctuation(codePoint) && codePoint != '*'
+          && !isAlpha(codePoint)) {
+        break;
+      }
+      numberEnd += Character.charCount(codePoint);
+    }
+    if (numberEnd == end) {
+      return true;
+    }
+    // Anything after the characters allowed in a number must be an extension, which may also start
+    // earlier, anywhere after the third digit.
+    int extensionStart = ExtensionScanner.findExtensionStart(number, i, end);
+    return extensionStart >= 0 && extensionStart <= numberEnd;
+  }
+
+  private static boolean isTwoDigits(CharSequence number, int end) {
+    if (end == 0) {
+      return false;
+    }
+    int first = codePointAt(number, 0, end);
+    int secondStart = Character.charCount(first);
+    if (!Character.isDigit(first) || secondStart >= end) {
+      return false;
+    }
+    int second = codePointAt(number, secondStart, end);
+    return Character.isDigit(second) && secondStart + Character.charCount(second) == end;
+  }
+
+  /**
+   * Returns the code point at the given index, without pairing a high surrogate just before
+   * {@code end} with a low surrogate after it.
+   */
+  private static int codePointAt(CharSequence number, int index, int end) {
+    char c = number.charAt(index);
+    if (Character.isHighSurrogate(c) && index + 1 < end) {
+      char low = number.charAt(index + 1);
+      if (Character.isLowSurrogate(low)) {
+        return Character.toCodePoint(c, low);
+      }
+    }
+    return c;
+  }
+
+  private static boolean isPlusSign(int codePoint) {
+    return codePoint == '+' || codePoint == '\uFF0B';
+  }
+
+  /**
+   * Returns whether the character is in {@link PhoneNumberUtil#VALID_PUNCTUATION}, matched case
+   * insensitively.
+   */
+  private static boolean isPunctuation(int codePoint) {
+    switch (codePoint) {
+      case '-':
+      case 'x':
+      case 'X':
+      case '\u2010':
+      case '\u2011':
+      case '\u2012':
+      case '\u2013':
+      case '\u2014':
+      case '\u2015':
+      case '\u2212':
+      case '\u30FC':
+      case '\uFF0D':
+      case '\uFF0E':
+      case '\uFF0F':
+      case ' ':
+      case '\u00A0':
+      case '\u00AD':
+      case '\u200B':
+      case '\u2060':
+      case '\u3000':
+      case '(':
+      case ')':
+      case '\uFF08':
+      case '\uFF09':
+      case '\uFF3B':
+      case '\uFF3D':
+      case '.':
+      case '[':
+      case ']':
+      case '/':
+      case '~':
+      case '\u2053':
+      case '\u223C':
+      case '\uFF5E':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns whether the character is an ASCII letter when matched case insensitively. Besides the
+   * ASCII letters themselves, this includes the few letters that Unicode case folding maps onto
+   * them, such as the Kelvin sign and the dotless i.
+   */
+  private static boolean isAlpha(int codePoint) {
+    int folded = Character.toLowerCase(Character.toUpperCase(codePoint));
+    return folded >= 'a' && folded <= 'z';
+  }
+
+  /**
+   * Returns whether the character is a letter, a number or the hash sign, none of which are
+   * trimmed from the end of a number.
+   */
+  private static boolean isWantedEndChar(int codePoint) {
+    if (codePoint == '#') {
+      return true;
+    }
+    switch (Character.getType(codePoint)) {
+      case Character.UPPERCASE_LETTER:
+      case Character.LOWERCASE_LETTER:
+      case Character.TITLECASE_LETTER:
+      case Character.MODIFIER_LETTER:
+      case Character.OTHER_LETTER:
+      case Character.DECIMAL_DIGIT_NUMBER:
+      case Character.LETTER_NUMBER:
+      case Character.OTHER_NUMBER:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -16,20 +16,26 @@
 
 package com.google.i18n.phonenumbers;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
- * LRU Cache for compiled regular expressions used by the libphonenumbers libary.
+ * Cache for compiled regular expressions used by the libphonenumbers libary.
+ *
+ * <p>Lookups never block: the patterns are kept in a {@link ConcurrentHashMap}, and a hit only
+ * marks the entry as recently used. When the cache grows beyond its size, entries are evicted
+ * using the CLOCK (second chance) approximation of LRU: entries are visited in insertion order,
+ * and those used since they were last visited are spared once.
  *
  * @author Shaopeng Jia
  */
 public class RegexCache {
-  private LRUCache<String, Pattern> cache;
+  private ClockCache<String, Pattern> cache;
 
   public RegexCache(int size) {
-    cache = new LRUCache<String, Pattern>(size);
+    cache = new ClockCache<String, Pattern>(size);
   }
 
   public Pattern getPatternForRegex(String regex) {
@@ -46,33 +52,83 @@ public class RegexCache {
     return cache.containsKey(regex);
   }
 
-  private static class LRUCache<K, V> {
-    // LinkedHashMap offers a straightforward implementation of LRU cache.
-    private LinkedHashMap<K, V> map;
-    private int size;
+  private static class ClockCache<K, V> {
+    private static class Entry<K, V> {
+      final K key;
+      final V value;
+      // Set when the entry is read, and cleared when the clock hand passes over it.
+      volatile boolean referenced = false;
+
+      Entry(K key, V value) {
+        this.key = key;
+        this.value = value;
+      }
+    }
 
-    @SuppressWarnings("serial")
-    public LRUCache(int size) {
+    private final ConcurrentHashMap<K, Entry<K, V>> map;
+    // The entries in the order the clock hand visits them; the head is under the hand.
+    private final ConcurrentLinkedQueue<Entry<K, V>> clock =
+        new ConcurrentLinkedQueue<Entry<K, V>>();
+    // The number of entries in the map, maintained separately since ConcurrentHashMap.size() is
+    // not a constant-time operation.
+    private final AtomicInteger count = new AtomicInteger();
+    private final Object evictionLock = new Object();
+    private final int size;
+
+    public ClockCache(int size) {
       this.size = size;
-      map = new LinkedHashMap<K, V>(size * 4 / 3 + 1, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-          return size() > LRUCache.this.size;
-        }
-      };
+      map = new ConcurrentHashMap<K, Entry<K, V>>(size * 4 / 3 + 1);
     }
 
-    public synchronized V get(K key) {
-      return map.get(key);
+    public V get(K key) {
+      Entry<K, V> entry = map.get(key);
+      if (entry == null) {
+        return null;
+      }
+      // Avoid writing to shared memory when the flag is already set.
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      return entry.value;
     }
 
-    public synchronized void put(K key, V value) {
-      map.put(key, value);
+    public void put(K key, V value) {
+      Entry<K, V> entry = new Entry<K, V>(key, value);
+      if (map.putIfAbsent(key, entry) != null) {
+        // Another thread got there first, which is fine since the values are equivalent.
+        return;
+      }
+      clock.add(entry);
+      if (count.incrementAndGet() > size) {
+        evict();
+      }
     }
 
-    public synchronized boolean containsKey(K key) {
+    public boolean containsKey(K key) {
       return map.containsKey(key);
     }
+
+    // Advances the clock hand until enough unreferenced entries have been removed. Only inserting
+    // threads get here, and compiling the pattern they insert costs far more than waiting here.
+    private void evict() {
+      synchronized (evictionLock) {
+        // Readers may keep setting the flags we clear, so after two full turns of the clock we stop
+        // giving entries a second chance.
+        int secondChances = 2 * count.get();
+        while (count.get() > size) {
+          Entry<K, V> entry = clock.poll();
+          if (entry == null) {
+            return;
+          }
+          if (entry.referenced && secondChances-- > 0) {
+            entry.referenced = false;
+            clock.add(entry);
+          } else {
+            map.remove(entry.key, entry);
+            count.decrementAndGet();
+          }
+        }
+      }
+    }
   }
 }
-
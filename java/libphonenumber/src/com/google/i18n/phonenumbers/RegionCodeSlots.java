@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+/**
+ * Maps region codes and non-geographical country calling codes to indexes in small arrays, so
+ * that metadata sources can look them up without hashing, locking or boxing.
+ */
+final class RegionCodeSlots {
+  /** The number of distinct region codes: two upper-case ASCII letters. */
+  static final int REGION_SLOTS = 26 * 26;
+  /** Country calling codes have at most three digits. */
+  static final int CALLING_CODE_SLOTS = 1000;
+
+  private RegionCodeSlots() {
+  }
+
+  /**
+   * Returns the index of the given region code, between 0 and {@link #REGION_SLOTS}, or -1 if it
+   * isn't made of two upper-case ASCII letters.
+   */
+  static int getRegionSlot(String regionCode) {
+    if (regionCode == null || regionCode.length() != 2) {
+      return -1;
+    }
+    return getRegionSlot(regionCode.charAt(0), regionCode.charAt(1));
+  }
+
+  /**
+   * Returns the index of the region code made of the given two characters, or -1 if they aren't
+   * both upper-case ASCII letters.
+   */
+  static int getRegionSlot(int first, int second) {
+    if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') {
+      return -1;
+    }
+    return (first - 'A') * 26 + (second - 'A');
+  }
+
+  /**
+   * Returns whether the given country calling code can be used as an index into an array of
+   * {@link #CALLING_CODE_SLOTS} entries.
+   */
+  static boolean isCallingCodeInRange(int countryCallingCode) {
+    return countryCallingCode >= 0 && countryCallingCode < CALLING_CODE_SLOTS;
+  }
+}
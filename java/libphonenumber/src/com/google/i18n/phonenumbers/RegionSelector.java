@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.internal.DigitAutomaton;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Narrows down the regions sharing a country calling code (such as the NANPA regions) that a
+ * national number could belong to, by looking up its first few digits in a table.
+ *
+ * <p>For each possible sequence of {@link #PREFIX_LENGTH} leading digits, the table lists the
+ * regions whose leading digits pattern, or whose number patterns, can still match a number
+ * starting that way. Only those regions need to be checked, in their original order, and for most
+ * numbers that is a single region.
+ */
+final class RegionSelector {
+  static final int PREFIX_LENGTH = 3;
+  private static final int PREFIX_COUNT = 1000;
+
+  // The regions this selector was built for, and their metadata at the time. Callers use these to
+  // detect that the selector needs rebuilding.
+  final List<String> regionCodes;
+  final PhoneMetadata[] metadata;
+  // For each prefix of PREFIX_LENGTH digits read as a number, the indexes in regionCodes of the
+  // regions the number could belong to, in increasing order. Null if the table could not be built,
+  // in which case all regions must always be checked.
+  private final int[][] candidates;
+
+  private RegionSelector(List<String> regionCodes, PhoneMetadata[] metadata, int[][] candidates) {
+    this.regionCodes = regionCodes;
+    this.metadata = metadata;
+    this.candidates = candidates;
+  }
+
+  /**
+   * Builds a selector for the given regions, which have the given metadata and number type
+   * classifiers. Missing metadata or classifiers are given as null, and result in a selector that
+   * doesn't narrow anything down.
+   */
+  static RegionSelector create(List<String> regionCodes, PhoneMetadata[] metadata,
+      NumberTypeClassifier[] classifiers) {
+    int regionCount = regionCodes.size();
+    DigitAutomaton[] leadingDigits = new DigitAutomaton[regionCount];
+    for (int i = 0; i < regionCount; i++) {
+      if (metadata[i] == null) {
+        return new RegionSelector(regionCodes, metadata, null);
+      }
+      if (metadata[i].leadingDigits.length() > 0) {
+        // The region is identified by lookingAt on its leading digits pattern.
+        leadingDigits[i] = DigitAutomaton.compile("(?:" + metadata[i].leadingDigits + ")\\d*");
+        if (leadingDigits[i] == null) {
+          return new RegionSelector(regionCodes, metadata, null);
+        }
+      } else if (classifiers[i] == null || !classifiers[i].isUsable()) {
+        return new RegionSelector(regionCodes, metadata, null);
+      }
+    }
+    int[][] candidates = new int[PREFIX_COUNT][];
+    // Many prefixes share the same list of candidates, so we share the arrays too.
+    Map<String, int[]> distinctCandidates = new HashMap<String, int[]>();
+    int[] regionIndexes = new int[regionCount];
+    StringBuilder prefix = new StringBuilder(PREFIX_LENGTH);
+    for (int value = 0; value < PREFIX_COUNT; value++) {
+      prefix.setLength(0);
+      prefix.append((char) ('0' + value / 100))
+          .append((char) ('0' + value / 10 % 10))
+          .append((char) ('0' + value % 10));
+      int count = 0;
+      for (int i = 0; i < regionCount; i++) {
+        boolean possible = (leadingDigits[i] != null)
+            ? leadingDigits[i].getFinalState(prefix) >= 0
+            : classifiers[i].canStartWith(prefix);
+        if (possible) {
+          regionIndexes[count++] = i;
+        }
+      }
+      StringBuilder key = new StringBuilder();
+      for (int i = 0; i < count; i++) {
+        key.append(regionIndexes[i]).append(',');
+      }
+      int[] shared = distinctCandidates.get(key.toString());
+      if (shared == null) {
+        shared = new int[count];
+        System.arraycopy(regionIndexes, 0, shared, 0, count);
+        distinctCandidates.put(key.toString(), shared);
+      }
+      candidates[value] = shared;
+    }
+    return new RegionSelector(regionCodes, metadata, candidates);
+  }
+
+  /**
+   * Returns the indexes in {@link #regionCodes} of the regions the given national significant
+   * number could belong to, or null if the number is too short or not all ASCII digits, or the
+   * table could not be built, in which case all the regions must be checked.
+   */
+  int[] getCandidates(CharSequence nationalNumber) {
+    if (candidates == null || nationalNumber.length() < PREFIX_LENGTH) {
+      return null;
+    }
+    int value = 0;
+    for (int i = 0; i < PREFIX_LENGTH; i++) {
+      int digit = nationalNumber.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return null;
+      }
+      value = value * 10 + digit;
+    }
+    return candidates[value];
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A source of metadata read from a metadata file in the format written by
+ * {@link MappedFileMetadataSourceImpl}, which can be reloaded while in use when the file changes.
+ *
+ * <p>Each version of the file is read and fully decoded in the background, and then published as
+ * one immutable snapshot: the metadata, the map from country calling codes to the regions in the
+ * file, and a {@link PhoneNumberUtil} built on them. Readers never block. A call on the instance
+ * returned by {@link #getPhoneNumberUtil} sees the version that was in use when the instance was
+ * got, for every region it looks at, even if a new version is swapped in meanwhile. To pick up new
+ * versions, get the instance again for each call or batch of calls rather than keeping it.
+ *
+ * <p>Used directly as a {@link MetadataSource}, each lookup reads the snapshot in use once, and
+ * returns metadata from that version. A {@link PhoneNumberUtil} created on this source keeps the
+ * regions it was created with, and looks metadata up again for each region it needs, so prefer
+ * {@link #getPhoneNumberUtil} when a call must see a single version.
+ *
+ * <p>Only the metadata of regions and non-geographical entities is reloaded. Short number metadata
+ * and alternate formats are always those bundled with the library. To avoid reading a partially
+ * written file, replace it by renaming a complete new file over it.
+ */
+public final class ReloadableMetadataSource implements MetadataSource {
+  private static final Logger logger = Logger.getLogger(ReloadableMetadataSource.class.getName());
+
+  private final File file;
+  // The version in use. Each reader reads this once, and then only uses that version.
+  private volatile Version currentVersion;
+  // Held while loading a new version, so that concurrent reloads don't race each other. Readers
+  // never take it.
+  private final Object reloadLock = new Object();
+
+  /**
+   * Creates a source reading from the given file, and loads the file.
+   *
+   * @throws IOException if the file cannot be read or is not a valid metadata file
+   */
+  public ReloadableMetadataSource(File file) throws IOException {
+    this.file = file;
+    reload();
+  }
+
+  @Override
+  public PhoneMetadata getMetadataForRegion(String regionCode) {
+    return currentVersion.source.getMetadataForRegion(regionCode);
+  }
+
+  @Override
+  public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
+    return currentVersion.source.getMetadataForNonGeographicalRegion(countryCallingCode);
+  }
+
+  /**
+   * Returns a {@link PhoneNumberUtil} for the version in use, which supports the regions and
+   * non-geographical entities in that version of the file, and only ever sees that version.
+   */
+  public PhoneNumberUtil getPhoneNumberUtil() {
+    return currentVersion.phoneNumberUtil;
+  }
+
+  /**
+   * Loads the file again and swaps in its contents. If the file cannot be loaded, the current
+   * version stays in use.
+   *
+   * @throws IOException if the file cannot be read or is not a valid metadata file
+   */
+  public void reload() throws IOException {
+    synchronized (reloadLock) {
+      long start = System.nanoTime();
+      // Read these first, so that a change made while we read the file is picked up next time.
+      long lastModified = file.lastModified();
+      long length = file.length();
+      MappedFileMetadataSourceImpl source = new MappedFileMetadataSourceImpl(readFile());
+      List<PhoneMetadata> metadataList;
+      try {
+        metadataList = source.decodeAll();
+      } catch (RuntimeException e) {
+        IOException exception =
+            new IOException("cannot load/parse metadata: " + file + ": " + e.getMessage());
+        exception.initCause(e);
+        throw exception;
+      }
+      PhoneNumberUtil phoneNumberUtil =
+          new PhoneNumberUtil(source, buildCountryCallingCodeToRegionCodeMap(metadataList));
+      Version previous = currentVersion;
+      int number = (previous == null) ? 1 : previous.number + 1;
+      currentVersion = new Version(source, phoneNumberUtil, number, lastModified, length,
+          System.currentTimeMillis(), System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Reloads the file if its modification time or length has changed since it was last loaded.
+   *
+   * @return whether a new version was loaded
+   * @throws IOException if the file has changed but cannot be loaded
+   */
+  public boolean reloadIfChanged() throws IOException {
+    synchronized (reloadLock) {
+      Version current = currentVersion;
+      if (file.lastModified() == current.lastModified && file.length() == current.length) {
+        return false;
+      }
+      reload();
+      return true;
+    }
+  }
+
+  /**
+   * Checks the file for changes periodically on the given executor, reloading it whenever it
+   * changes. Failures to load the file are logged, and the current version stays in use.
+   *
+   * @return the scheduled task, which can be cancelled to stop checking
+   */
+  public ScheduledFuture<?> startPolling(ScheduledExecutorService executor, long period,
+      TimeUnit unit) {
+    return executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (reloadIfChanged()) {
+            logger.log(Level.INFO, "reloaded metadata version " + getVersion() + " from " + file
+                + " in " + getLoadNanos() / 1000000 + " ms");
+          }
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "cannot reload metadata (keeping version " + getVersion()
+              + ")", e);
+        } catch (RuntimeException e) {
+          // Any exception would cancel the scheduled task, so we log it and carry on.
+          logger.log(Level.WARNING, "cannot reload metadata (keeping version " + getVersion()
+              + ")", e);
+        }
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Returns the number of the version in use, which is 1 for the version loaded on construction
+   * and goes up by one with each reload.
+   */
+  public int getVersion() {
+    return currentVersion.number;
+  }
+
+  /** Returns when the version in use was loaded, in milliseconds since the epoch. */
+  public long getLoadedAtMillis() {
+    return currentVersion.loadedAtMillis;
+  }
+
+  /** Returns how long it took to read and decode the version in use, in nanoseconds. */
+  public long getLoadNanos() {
+    return currentVersion.loadNanos;
+  }
+
+  // Reads the whole file into memory. We don't map it, since it may be replaced while in use.
+  private ByteBuffer readFile() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("metadata file too large: " + file);
+      }
+      byte[] contents = new byte[(int) length];
+      raf.readFully(contents);
+      return ByteBuffer.wrap(contents);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Builds the map from country calling codes to the regions using them, with the main region of
+   * each country calling code first and the others in alphabetical order, as in
+   * {@link CountryCodeToRegionCodeMap}.
+   */
+  // @VisibleForTesting
+  static Map<Integer, List<String>> buildCountryCallingCodeToRegionCodeMap(
+      List<PhoneMetadata> metadataList) {
+    Map<Integer, List<String>> countryCallingCodeToRegionCodeMap =
+        new HashMap<Integer, List<String>>();
+    Map<Integer, String> mainRegionCodes = new HashMap<Integer, String>();
+    for (PhoneMetadata metadata : metadataList) {
+      List<String> regionCodes = countryCallingCodeToRegionCodeMap.get(metadata.countryCode);
+      if (regionCodes == null) {
+        regionCodes = new ArrayList<String>(1);
+        countryCallingCodeToRegionCodeMap.put(metadata.countryCode, regionCodes);
+      }
+      regionCodes.add(metadata.id);
+      if (metadata.mainCountryForCode) {
+        mainRegionCodes.put(metadata.countryCode, metadata.id);
+      }
+    }
+    for (Map.Entry<Integer, List<String>> entry : countryCallingCodeToRegionCodeMap.entrySet()) {
+      List<String> regionCodes = entry.getValue();
+      Collections.sort(regionCodes);
+      String mainRegionCode = mainRegionCodes.get(entry.getKey());
+      if (mainRegionCode != null) {
+        regionCodes.remove(mainRegionCode);
+        regionCodes.add(0, mainRegionCode);
+      }
+    }
+    return countryCallingCodeToRegionCodeMap;
+  }
+
+  private static final class Version {
+    final MetadataSource source;
+    final PhoneNumberUtil phoneNumberUtil;
+    final int number;
+    final long lastModified;
+    final long length;
+    final long loadedAtMillis;
+    final long loadNanos;
+
+    Version(MetadataSource source, PhoneNumberUtil phoneNumberUtil, int number, long lastModified,
+        long length, long loadedAtMillis, long loadNanos) {
+      this.source = source;
+      this.phoneNumberUtil = phoneNumberUtil;
+      this.number = number;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.loadedAtMillis = loadedAtMillis;
+      this.loadNanos = loadNanos;
+    }
+  }
+}
@@ -19,11 +19,7 @@ package com.google.i18n.phonenumbers;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
 
-import java.io.InputStream;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -37,19 +33,9 @@ final class SingleFileMetadataSourceImpl implements MetadataSource {
   private static final String META_DATA_FILE_NAME =
       "/com/google/i18n/phonenumbers/data/SingleFilePhoneNumberMetadataProto";
 
-  // A mapping from a region code to the PhoneMetadata for that region.
-  // Note: Synchronization, though only needed for the Android version of the library, is used in
-  // all versions for consistency.
-  private final Map<String, PhoneMetadata> regionToMetadataMap =
-      Collections.synchronizedMap(new HashMap<String, PhoneMetadata>());
-
-  // A mapping from a country calling code for a non-geographical entity to the PhoneMetadata for
-  // that country calling code. Examples of the country calling codes include 800 (International
-  // Toll Free Service) and 808 (International Shared Cost Service).
-  // Note: Synchronization, though only needed for the Android version of the library, is used in
-  // all versions for consistency.
-  private final Map<Integer, PhoneMetadata> countryCodeToNonGeographicalMetadataMap =
-      Collections.synchronizedMap(new HashMap<Integer, PhoneMetadata>());
+  // All the metadata in the file, or null until it has been loaded. Once loaded it never changes,
+  // so lookups need no locking.
+  private volatile Snapshot snapshot;
 
   // The metadata file from which region data is loaded.
   private final String fileName;
@@ -70,30 +56,38 @@ final class SingleFileMetadataSourceImpl implements MetadataSource {
 
   @Override
   public PhoneMetadata getMetadataForRegion(String regionCode) {
-    synchronized (regionToMetadataMap) {
-      if (!regionToMetadataMap.containsKey(regionCode)) {
-        // The regionCode here will be valid and won't be '001', so we don't need to worry about
-        // what to pass in for the country calling code.
-        loadMetadataFromFile();
-      }
-    }
-    return regionToMetadataMap.get(regionCode);
+    int slot = RegionCodeSlots.getRegionSlot(regionCode);
+    return (slot < 0) ? null : getSnapshot().regions[slot];
   }
 
   @Override
   public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
-    synchronized (countryCodeToNonGeographicalMetadataMap) {
-      if (!countryCodeToNonGeographicalMetadataMap.containsKey(countryCallingCode)) {
-        loadMetadataFromFile();
+    if (!RegionCodeSlots.isCallingCodeInRange(countryCallingCode)) {
+      return null;
+    }
+    return getSnapshot().nonGeographicalRegions[countryCallingCode];
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot result = snapshot;
+    if (result == null) {
+      synchronized (this) {
+        result = snapshot;
+        if (result == null) {
+          result = loadMetadataFromFile();
+          snapshot = result;
+        }
       }
     }
-    return countryCodeToNonGeographicalMetadataMap.get(countryCallingCode);
+    return result;
   }
 
   // @VisibleForTesting
-  void loadMetadataFromFile() {
-    InputStream source = metadataLoader.loadMetadata(fileName);
-    if (source == null) {
+  Snapshot loadMetadataFromFile() {
+    PhoneMetadataCollection metadataCollection = MetadataManager.loadMetadata(
+        metadataLoader, fileName, MetadataManager.ALL_REGIONS_BUFFER_SIZE,
+        MetadataLoadListener.MetadataType.PHONE_NUMBER, fileName);
+    if (metadataCollection == null) {
       // This should not happen since clients shouldn't be using this implementation directly.
       // The single file implementation is experimental, only for when the jars contain a single
       // file with all regions' metadata. Currently we do not release such jars.
@@ -101,22 +95,41 @@ final class SingleFileMetadataSourceImpl implements MetadataSource {
       // loading depending on what data is available in the jar.
       throw new IllegalStateException("missing metadata: " + fileName);
     }
-    PhoneMetadataCollection metadataCollection =
-        MetadataManager.loadMetadataAndCloseInput(source, MetadataManager.ALL_REGIONS_BUFFER_SIZE);
     PhoneMetadata[] metadatas = metadataCollection.metadata;
     if (metadatas.length == 0) {
       // This should not happen since clients shouldn't be using this implementation!
       throw new IllegalStateException("empty metadata: " + fileName);
     }
+    Snapshot result = new Snapshot();
     for (PhoneMetadata metadata : metadatas) {
       String regionCode = metadata.id;
       int countryCallingCode = metadata.countryCode;
       boolean isNonGeoRegion = PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode);
       if (isNonGeoRegion) {
-        countryCodeToNonGeographicalMetadataMap.put(countryCallingCode, metadata);
+        if (RegionCodeSlots.isCallingCodeInRange(countryCallingCode)) {
+          result.nonGeographicalRegions[countryCallingCode] = metadata;
+          continue;
+        }
       } else {
-        regionToMetadataMap.put(regionCode, metadata);
+        int slot = RegionCodeSlots.getRegionSlot(regionCode);
+        if (slot >= 0) {
+          result.regions[slot] = metadata;
+          continue;
+        }
       }
+      logger.log(Level.WARNING, "invalid metadata (bad region code " + regionCode
+          + " or country calling code " + countryCallingCode + "): " + fileName);
     }
+    return result;
+  }
+
+  /**
+   * The metadata of all regions, indexed by {@link RegionCodeSlots}. It is filled in before being
+   * published through a volatile field, and never modified afterwards.
+   */
+  static final class Snapshot {
+    final PhoneMetadata[] regions = new PhoneMetadata[RegionCodeSlots.REGION_SLOTS];
+    final PhoneMetadata[] nonGeographicalRegions =
+        new PhoneMetadata[RegionCodeSlots.CALLING_CODE_SLOTS];
   }
 }
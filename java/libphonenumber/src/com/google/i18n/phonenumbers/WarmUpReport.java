@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of {@link PhoneNumberUtil#warmUp}: which regions were warmed up, and how long each
+ * step took. All durations are in nanoseconds, as measured by {@link System#nanoTime}.
+ */
+public final class WarmUpReport {
+  private final List<String> regionCodes;
+  private final List<String> unsupportedRegionCodes;
+  private final long metadataLoadNanos;
+  private final long patternCompileNanos;
+  private final long indexBuildNanos;
+  private final long exampleNumberNanos;
+  private final int exampleNumberCount;
+
+  WarmUpReport(List<String> regionCodes, List<String> unsupportedRegionCodes,
+      long metadataLoadNanos, long patternCompileNanos, long indexBuildNanos,
+      long exampleNumberNanos, int exampleNumberCount) {
+    this.regionCodes = Collections.unmodifiableList(regionCodes);
+    this.unsupportedRegionCodes = Collections.unmodifiableList(unsupportedRegionCodes);
+    this.metadataLoadNanos = metadataLoadNanos;
+    this.patternCompileNanos = patternCompileNanos;
+    this.indexBuildNanos = indexBuildNanos;
+    this.exampleNumberNanos = exampleNumberNanos;
+    this.exampleNumberCount = exampleNumberCount;
+  }
+
+  /**
+   * Returns the regions whose metadata was loaded, in the order they were warmed up. The
+   * non-geographical entities are listed as "001".
+   */
+  public List<String> getRegionCodes() {
+    return regionCodes;
+  }
+
+  /**
+   * Returns the region codes that were asked for but have no metadata, and were skipped.
+   */
+  public List<String> getUnsupportedRegionCodes() {
+    return unsupportedRegionCodes;
+  }
+
+  /** Returns the time spent loading metadata. */
+  public long getMetadataLoadNanos() {
+    return metadataLoadNanos;
+  }
+
+  /** Returns the time spent compiling the number patterns of the metadata. */
+  public long getPatternCompileNanos() {
+    return patternCompileNanos;
+  }
+
+  /**
+   * Returns the time spent building the automata used to classify numbers, choose formatting
+   * patterns and tell apart regions sharing a country calling code.
+   */
+  public long getIndexBuildNanos() {
+    return indexBuildNanos;
+  }
+
+  /**
+   * Returns the time spent parsing, validating and formatting the example numbers of the
+   * metadata, or 0 if that step was not run.
+   */
+  public long getExampleNumberNanos() {
+    return exampleNumberNanos;
+  }
+
+  /** Returns the number of example numbers that were exercised. */
+  public int getExampleNumberCount() {
+    return exampleNumberCount;
+  }
+
+  /** Returns the time spent on all the steps together. */
+  public long getTotalNanos() {
+    return metadataLoadNanos + patternCompileNanos + indexBuildNanos + exampleNumberNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "Warmed up " + regionCodes.size() + " regions in " + getTotalNanos() / 1000000
+        + " ms (metadata: " + metadataLoadNanos / 1000000
+        + " ms, patterns: " + patternCompileNanos / 1000000
+        + " ms, indexes: " + indexBuildNanos / 1000000
+        + " ms, " + exampleNumberCount + " example numbers: " + exampleNumberNanos / 1000000
+        + " ms)" + (unsupportedRegionCodes.isEmpty()
+            ? "" : ", unsupported regions: " + unsupportedRegionCodes);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers.internal;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implementation of the matcher API that compiles the regular expressions in the PhoneNumberDesc
+ * proto message into {@link DigitAutomaton}s, so that matching a national number is a single pass
+ * over its digits with no backtracking and no allocation.
+ *
+ * <p>Inputs that contain anything other than ASCII digits, and patterns that cannot be compiled,
+ * are handed to a {@link RegexBasedMatcher}, so the results are always identical to those of the
+ * regular expression engine.
+ */
+public final class DfaBasedMatcher implements MatcherApi {
+  public static MatcherApi create() {
+    return new DfaBasedMatcher();
+  }
+
+  // Stored in the cache for patterns that cannot be compiled, since ConcurrentHashMap does not
+  // allow null values.
+  private static final DigitAutomaton UNSUPPORTED = DigitAutomaton.compile("");
+
+  // The automata are small and the set of patterns in the metadata is bounded, so unlike the regex
+  // cache this one is never evicted.
+  private final ConcurrentHashMap<String, DigitAutomaton> automata =
+      new ConcurrentHashMap<String, DigitAutomaton>();
+  private final RegexBasedMatcher regexMatcher = (RegexBasedMatcher) RegexBasedMatcher.create();
+
+  private DfaBasedMatcher() {}
+
+  // @Override
+  public boolean matchesNationalNumber(String nationalNumber, PhoneNumberDesc numberDesc,
+      boolean allowPrefixMatch) {
+    return matchesNationalNumber((CharSequence) nationalNumber, numberDesc, allowPrefixMatch);
+  }
+
+  /**
+   * As {@link #matchesNationalNumber(String, PhoneNumberDesc, boolean)}, but for a national number
+   * held in any sequence of characters, such as a reusable buffer.
+   */
+  public boolean matchesNationalNumber(CharSequence nationalNumber, PhoneNumberDesc numberDesc,
+      boolean allowPrefixMatch) {
+    DigitAutomaton automaton = getAutomaton(numberDesc.nationalNumberPattern);
+    if (automaton == UNSUPPORTED) {
+      return regexMatcher.matchesNationalNumber(nationalNumber, numberDesc, allowPrefixMatch);
+    }
+    // A prefix match includes the case where the whole number matches.
+    boolean matches = allowPrefixMatch
+        ? automaton.matchesPrefix(nationalNumber) : automaton.matches(nationalNumber);
+    if (!matches && !isAsciiDigits(nationalNumber)) {
+      return regexMatcher.matchesNationalNumber(nationalNumber, numberDesc, allowPrefixMatch);
+    }
+    return matches;
+  }
+
+  // @Override
+  public boolean matchesPossibleNumber(String nationalNumber, PhoneNumberDesc numberDesc) {
+    return matchesPossibleNumber((CharSequence) nationalNumber, numberDesc);
+  }
+
+  /**
+   * As {@link #matchesPossibleNumber(String, PhoneNumberDesc)}, but for a national number held in
+   * any sequence of characters, such as a reusable buffer.
+   */
+  public boolean matchesPossibleNumber(CharSequence nationalNumber, PhoneNumberDesc numberDesc) {
+    DigitAutomaton automaton = getAutomaton(numberDesc.possibleNumberPattern);
+    if (automaton == UNSUPPORTED) {
+      return regexMatcher.matchesPossibleNumber(nationalNumber, numberDesc);
+    }
+    boolean matches = automaton.matches(nationalNumber);
+    if (!matches && !isAsciiDigits(nationalNumber)) {
+      return regexMatcher.matchesPossibleNumber(nationalNumber, numberDesc);
+    }
+    return matches;
+  }
+
+  /**
+   * Returns the automata compiled so far, keyed by regular expression, with null values for the
+   * regular expressions that could not be compiled and are matched by the regular expression
+   * engine. This is meant for saving them with {@link DigitAutomaton#writeTo}.
+   */
+  public Map<String, DigitAutomaton> getCompiledAutomata() {
+    Map<String, DigitAutomaton> result = new HashMap<String, DigitAutomaton>();
+    for (Map.Entry<String, DigitAutomaton> entry : automata.entrySet()) {
+      result.put(entry.getKey(), (entry.getValue() == UNSUPPORTED) ? null : entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Adds an automaton compiled earlier from the given regular expression, as returned by
+   * {@link #getCompiledAutomata}, so that it doesn't need to be compiled again. A null automaton
+   * means the regular expression could not be compiled.
+   */
+  public void addCompiledAutomaton(String regex, DigitAutomaton automaton) {
+    automata.putIfAbsent(regex, (automaton == null) ? UNSUPPORTED : automaton);
+  }
+
+  private DigitAutomaton getAutomaton(String regex) {
+    DigitAutomaton automaton = automata.get(regex);
+    if (automaton == null) {
+      automaton = DigitAutomaton.compile(regex);
+      if (automaton == null) {
+        automaton = UNSUPPORTED;
+      }
+      DigitAutomaton existing = automata.putIfAbsent(regex, automaton);
+      if (existing != null) {
+        automaton = existing;
+      }
+    }
+    return automaton;
+  }
+
+  private static boolean isAsciiDigits(CharSequence s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
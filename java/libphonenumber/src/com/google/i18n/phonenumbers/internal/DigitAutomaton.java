@@ -0,0 +1,837 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A deterministic finite automaton over the ten ASCII digits, compiled from one of the regular
+ * expressions found in the phone number metadata.
+ *
+ * <p>Only the subset of regular expression syntax used by the metadata is supported: digits,
+ * {@code \d}, character classes, grouping, alternation and the {@code ?}, {@code *}, {@code +} and
+ * {@code {n,m}} quantifiers. Patterns using anything else (anchors, back-references, look-arounds,
+ * possessive quantifiers, etc.) are rejected by {@link #compile} so that callers can fall back to
+ * {@link java.util.regex.Pattern}.
+ *
+ * <p>Matching runs in time linear in the length of the input and does not allocate. Instances are
+ * immutable and thread-safe.
+ */
+public final class DigitAutomaton {
+  /** Returned by {@link #getFinalState} when no pattern can match the input. */
+  public static final int NO_MATCH = -1;
+  /**
+   * Returned by {@link #getFinalState} when the input contains a character that is not an ASCII
+   * digit, in which case the automaton cannot tell whether the patterns match.
+   */
+  public static final int NOT_DIGITS = -2;
+
+  // The maximum number of states we are willing to build for a single automaton. The metadata
+  // patterns need far fewer than this, so hitting the limit means the pattern is pathological and
+  // it is better to keep using the regular expression engine.
+  static final int MAX_STATES = 10000;
+  // An upper bound on the number of patterns of an automaton read back with readFrom, so that
+  // corrupt input can't make us allocate huge arrays. The metadata needs a few hundred at most.
+  private static final int MAX_PATTERNS = 1 << 16;
+
+  // The transition table: the state reached from state s on digit d is stored at
+  // transitions[s * 10 + d], or NO_MATCH if no pattern can match from there.
+  private final int[] transitions;
+  // The set of patterns accepted in each state, as a bit set of wordsPerState longs per state.
+  private final long[] acceptSets;
+  private final int wordsPerState;
+  // For each pattern, the lengths of the strings it can match: bit n is set if some string of
+  // length n matches, for n < 63, and bit 63 is set if some string of length 63 or more does.
+  private final long[] lengthMasks;
+
+  private DigitAutomaton(int[] transitions, long[] acceptSets, int wordsPerState,
+      int patternCount) {
+    this.transitions = transitions;
+    this.acceptSets = acceptSets;
+    this.wordsPerState = wordsPerState;
+    this.lengthMasks = computeLengthMasks(patternCount);
+  }
+
+  private DigitAutomaton(int[] transitions, long[] acceptSets, int wordsPerState,
+      long[] lengthMasks) {
+    this.transitions = transitions;
+    this.acceptSets = acceptSets;
+    this.wordsPerState = wordsPerState;
+    this.lengthMasks = lengthMasks;
+  }
+
+  // Works out which lengths each pattern can match, by finding the states reachable with each
+  // number of digits.
+  private long[] computeLengthMasks(int patternCount) {
+    long[] masks = new long[patternCount];
+    int stateCount = getStateCount();
+    BitSet current = new BitSet(stateCount);
+    current.set(0);
+    for (int length = 0; length < 63 && !current.isEmpty(); length++) {
+      BitSet next = new BitSet(stateCount);
+      for (int state = current.nextSetBit(0); state >= 0; state = current.nextSetBit(state + 1)) {
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+          if (accepts(state, pattern)) {
+            masks[pattern] |= 1L << length;
+          }
+        }
+        for (int digit = 0; digit <= 9; digit++) {
+          int target = transitions[state * 10 + digit];
+          if (target >= 0) {
+            next.set(target);
+          }
+        }
+      }
+      current = next;
+    }
+    // Anything still reachable after 63 digits accounts for all longer lengths.
+    BitSet reachable = new BitSet(stateCount);
+    List<Integer> stack = new ArrayList<Integer>();
+    for (int state = current.nextSetBit(0); state >= 0; state = current.nextSetBit(state + 1)) {
+      reachable.set(state);
+      stack.add(state);
+    }
+    while (!stack.isEmpty()) {
+      int state = stack.remove(stack.size() - 1);
+      for (int pattern = 0; pattern < patternCount; pattern++) {
+        if (accepts(state, pattern)) {
+          masks[pattern] |= 1L << 63;
+        }
+      }
+      for (int digit = 0; digit <= 9; digit++) {
+        int target = transitions[state * 10 + digit];
+        if (target >= 0 && !reachable.get(target)) {
+          reachable.set(target);
+          stack.add(target);
+        }
+      }
+    }
+    return masks;
+  }
+
+  /**
+   * Compiles the given regular expression into an automaton.
+   *
+   * @return the automaton, or null if the regular expression uses syntax that is not supported
+   */
+  public static DigitAutomaton compile(String regex) {
+    return compile(new String[] {regex});
+  }
+
+  /**
+   * Compiles several regular expressions into a single automaton, which tracks which of them match
+   * the input read so far. The patterns are identified by their index in the array.
+   *
+   * @return the automaton, or null if any of the regular expressions uses syntax that is not
+   *     supported, or the automaton would be too large
+   */
+  public static DigitAutomaton compile(String[] regexes) {
+    Nfa nfa = new Nfa();
+    int start = nfa.newState();
+    int[] accepts = new int[regexes.length];
+    for (int i = 0; i < regexes.length; i++) {
+      Node root;
+      try {
+        root = new Parser(regexes[i]).parse();
+      } catch (UnsupportedSyntaxException e) {
+        return null;
+      }
+      int patternStart = nfa.newState();
+      accepts[i] = nfa.newState();
+      nfa.addEpsilon(start, patternStart);
+      nfa.build(root, patternStart, accepts[i]);
+    }
+    return nfa.toDfa(start, accepts);
+  }
+
+  /**
+   * Writes this automaton to the given output, so that it can be read back with
+   * {@link #readFrom} instead of being compiled again.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(getStateCount());
+    out.writeInt(wordsPerState);
+    out.writeInt(lengthMasks.length);
+    for (int transition : transitions) {
+      out.writeInt(transition);
+    }
+    for (long acceptSet : acceptSets) {
+      out.writeLong(acceptSet);
+    }
+    for (long lengthMask : lengthMasks) {
+      out.writeLong(lengthMask);
+    }
+  }
+
+  /**
+   * Reads an automaton written by {@link #writeTo} from the given buffer, starting at its position
+   * and leaving the position after the automaton.
+   *
+   * @throws IOException if the buffer does not hold a valid automaton
+   */
+  public static DigitAutomaton readFrom(ByteBuffer in) throws IOException {
+    try {
+      int stateCount = in.getInt();
+      int wordsPerState = in.getInt();
+      int patternCount = in.getInt();
+      if (stateCount <= 0 || stateCount > MAX_STATES || patternCount < 0
+          || patternCount > MAX_PATTERNS
+          || wordsPerState != Math.max(1, (patternCount + 63) >>> 6)) {
+        throw new IOException("corrupt automaton");
+      }
+      int[] transitions = new int[stateCount * 10];
+      long[] acceptSets = new long[stateCount * wordsPerState];
+      long[] lengthMasks = new long[patternCount];
+      in.asIntBuffer().get(transitions);
+      in.position(in.position() + 4 * transitions.length);
+      in.asLongBuffer().get(acceptSets).get(lengthMasks);
+      in.position(in.position() + 8 * (acceptSets.length + lengthMasks.length));
+      for (int transition : transitions) {
+        if (transition < NO_MATCH || transition >= stateCount) {
+          throw new IOException("corrupt automaton");
+        }
+      }
+      return new DigitAutomaton(transitions, acceptSets, wordsPerState, lengthMasks);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("truncated automaton");
+    }
+  }
+
+  /**
+   * Returns the number of states of this automaton.
+   */
+  public int getStateCount() {
+    return acceptSets.length / wordsPerState;
+  }
+
+  /**
+   * Runs the automaton over the given sequence of ASCII digits and returns the state it ends in,
+   * to be passed to {@link #accepts}. Returns {@link #NO_MATCH} if no pattern can match, and
+   * {@link #NOT_DIGITS} if a character that is not an ASCII digit is found before that is known.
+   */
+  public int getFinalState(CharSequence digits) {
+    int state = 0;
+    for (int i = 0, length = digits.length(); i < length; i++) {
+      int digit = digits.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return NOT_DIGITS;
+      }
+      state = transitions[state * 10 + digit];
+      if (state < 0) {
+        return NO_MATCH;
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Returns the state reached from the given state, which must not be negative, on reading the
+   * given ASCII digit, or {@link #NO_MATCH} if no pattern can match from there.
+   */
+  public int getNextState(int state, int digit) {
+    return transitions[state * 10 + digit];
+  }
+
+  /**
+   * Returns whether the pattern with the given index matches in the given state, which must have
+   * been returned by {@link #getFinalState} and not be negative.
+   */
+  public boolean accepts(int state, int patternIndex) {
+    return (acceptSets[state * wordsPerState + (patternIndex >>> 6)] & (1L << patternIndex)) != 0;
+  }
+
+  /**
+   * Returns the lengths of the digit sequences matched by the pattern with the given index, as a
+   * bit mask: bit n is set if some sequence of n digits matches, for n less than 63, and bit 63 is
+   * set if some sequence of 63 or more digits does.
+   */
+  public long getLengthMask(int patternIndex) {
+    return lengthMasks[patternIndex];
+  }
+
+  /**
+   * Returns whether the pattern with the given index can match some sequence of digits of the
+   * given length.
+   */
+  public boolean canMatchLength(int patternIndex, int length) {
+    return (lengthMasks[patternIndex] & (1L << Math.min(length, 63))) != 0;
+  }
+
+  /**
+   * Returns whether the patterns only constrain the number of digits and not their values, which
+   * is the case for patterns such as {@code \d{7,10}}. The lengths given by
+   * {@link #getLengthMask} then completely describe which sequences of digits match.
+   */
+  public boolean dependsOnlyOnLength() {
+    for (int state = 0; state < transitions.length; state += 10) {
+      for (int digit = 1; digit <= 9; digit++) {
+        if (transitions[state + digit] != transitions[state]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether the whole of the given sequence of ASCII digits matches the first pattern. Any
+   * character that is not an ASCII digit causes the match to fail.
+   */
+  public boolean matches(CharSequence digits) {
+    if (!canMatchLength(0, digits.length())) {
+      // Any sequence of this length either has the wrong number of digits or is not all digits.
+      return false;
+    }
+    int state = getFinalState(digits);
+    return state >= 0 && accepts(state, 0);
+  }
+
+  /**
+   * Returns whether some prefix of the given sequence of ASCII digits (including the empty prefix
+   * and the whole sequence) matches the first pattern. This is the equivalent of
+   * {@link java.util.regex.Matcher#lookingAt}.
+   */
+  public boolean matchesPrefix(CharSequence digits) {
+    int state = 0;
+    for (int i = 0, length = digits.length(); i < length; i++) {
+      if (accepts(state, 0)) {
+        return true;
+      }
+      int digit = digits.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return false;
+      }
+      state = transitions[state * 10 + digit];
+      if (state < 0) {
+        return false;
+      }
+    }
+    return accepts(state, 0);
+  }
+
+  /**
+   * Thrown by the parser when the regular expression uses syntax we cannot compile.
+   */
+  @SuppressWarnings("serial")
+  private static final class UnsupportedSyntaxException extends Exception {
+  }
+
+  /**
+   * A node in the parsed regular expression. Character classes are reduced to the set of digits
+   * they contain, since the input we match only ever contains digits.
+   */
+  private static final class Node {
+    static final int SET = 0;
+    static final int CONCAT = 1;
+    static final int ALTERNATION = 2;
+    static final int REPEAT = 3;
+
+    final int type;
+    // For SET nodes, a bit mask of the digits in the set.
+    final int digitMask;
+    // For CONCAT and ALTERNATION nodes, the child nodes. For REPEAT nodes, the single child.
+    final List<Node> children;
+    // For REPEAT nodes, the minimum and maximum number of repetitions. A maximum of -1 means there
+    // is no upper bound.
+    final int min;
+    final int max;
+
+    private Node(int type, int digitMask, List<Node> children, int min, int max) {
+      this.type = type;
+      this.digitMask = digitMask;
+      this.children = children;
+      this.min = min;
+      this.max = max;
+    }
+
+    static Node set(int digitMask) {
+      return new Node(SET, digitMask, null, 0, 0);
+    }
+
+    static Node concat(List<Node> children) {
+      return new Node(CONCAT, 0, children, 0, 0);
+    }
+
+    static Node alternation(List<Node> children) {
+      return new Node(ALTERNATION, 0, children, 0, 0);
+    }
+
+    static Node repeat(Node child, int min, int max) {
+      List<Node> children = new ArrayList<Node>(1);
+      children.add(child);
+      return new Node(REPEAT, 0, children, min, max);
+    }
+  }
+
+  /**
+   * A recursive-descent parser for the supported subset of the regular expression syntax.
+   */
+  private static final class Parser {
+    private static final int ALL_DIGITS = (1 << 10) - 1;
+
+    private final String regex;
+    private int pos = 0;
+
+    Parser(String regex) {
+      this.regex = regex;
+    }
+
+    Node parse() throws UnsupportedSyntaxException {
+      Node node = parseAlternation();
+      if (pos != regex.length()) {
+        // An unbalanced closing parenthesis.
+        throw new UnsupportedSyntaxException();
+      }
+      return node;
+    }
+
+    private boolean hasMore() {
+      return pos < regex.length();
+    }
+
+    private char peek() {
+      return regex.charAt(pos);
+    }
+
+    private Node parseAlternation() throws UnsupportedSyntaxException {
+      List<Node> alternatives = new ArrayList<Node>();
+      alternatives.add(parseConcatenation());
+      while (hasMore() && peek() == '|') {
+        pos++;
+        alternatives.add(parseConcatenation());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0) : Node.alternation(alternatives);
+    }
+
+    private Node parseConcatenation() throws UnsupportedSyntaxException {
+      List<Node> parts = new ArrayList<Node>();
+      while (hasMore() && peek() != '|' && peek() != ')') {
+        parts.add(parseQuantified(parseAtom()));
+      }
+      return parts.size() == 1 ? parts.get(0) : Node.concat(parts);
+    }
+
+    private Node parseQuantified(Node atom) throws UnsupportedSyntaxException {
+      while (hasMore()) {
+        char c = peek();
+        int min;
+        int max;
+        if (c == '?') {
+          pos++;
+          min = 0;
+          max = 1;
+        } else if (c == '*') {
+          pos++;
+          min = 0;
+          max = -1;
+        } else if (c == '+') {
+          pos++;
+          min = 1;
+          max = -1;
+        } else if (c == '{') {
+          pos++;
+          min = parseNumber();
+          max = min;
+          if (hasMore() && peek() == ',') {
+            pos++;
+            max = (hasMore() && peek() == '}') ? -1 : parseNumber();
+          }
+          expect('}');
+          if (max != -1 && max < min) {
+            throw new UnsupportedSyntaxException();
+          }
+        } else {
+          return atom;
+        }
+        if (hasMore() && peek() == '+') {
+          // Possessive quantifiers can change which strings match, so we don't support them.
+          throw new UnsupportedSyntaxException();
+        }
+        if (hasMore() && peek() == '?') {
+          // Reluctant quantifiers match the same set of strings, so we can treat them as greedy.
+          pos++;
+        }
+        atom = Node.repeat(atom, min, max);
+      }
+      return atom;
+    }
+
+    private int parseNumber() throws UnsupportedSyntaxException {
+      int start = pos;
+      int value = 0;
+      while (hasMore() && peek() >= '0' && peek() <= '9') {
+        value = value * 10 + (peek() - '0');
+        pos++;
+        if (value > 1000) {
+          throw new UnsupportedSyntaxException();
+        }
+      }
+      if (pos == start) {
+        throw new UnsupportedSyntaxException();
+      }
+      return value;
+    }
+
+    private void expect(char expected) throws UnsupportedSyntaxException {
+      if (!hasMore() || peek() != expected) {
+        throw new UnsupportedSyntaxException();
+      }
+      pos++;
+    }
+
+    private Node parseAtom() throws UnsupportedSyntaxException {
+      char c = peek();
+      pos++;
+      switch (c) {
+        case '(':
+          if (hasMore() && peek() == '?') {
+            // Only non-capturing groups are supported; look-arounds, flags and named groups are
+            // not.
+            pos++;
+            expect(':');
+          }
+          Node group = parseAlternation();
+          expect(')');
+          return group;
+        case '[':
+          return Node.set(parseClass());
+        case '.':
+          return Node.set(ALL_DIGITS);
+        case '\\':
+          return Node.set(parseEscape());
+        case '^':
+        case '$':
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+        case ')':
+        case ']':
+          throw new UnsupportedSyntaxException();
+        default:
+          return Node.set(digitMaskOf(c));
+      }
+    }
+
+    // Returns the set of digits matched by an escape sequence, after the backslash.
+    private int parseEscape() throws UnsupportedSyntaxException {
+      if (!hasMore()) {
+        throw new UnsupportedSyntaxException();
+      }
+      char c = peek();
+      pos++;
+      if (c == 'd') {
+        return ALL_DIGITS;
+      }
+      if (c == 'D' || c == 'w' || c == 'W' || c == 's' || c == 'S' || c == 'p' || c == 'P'
+          || Character.isLetterOrDigit(c)) {
+        // Other character classes, back-references and special escapes are not supported. An
+        // escaped punctuation character is a plain literal, and so never matches a digit.
+        throw new UnsupportedSyntaxException();
+      }
+      return 0;
+    }
+
+    private int parseClass() throws UnsupportedSyntaxException {
+      boolean negated = false;
+      if (hasMore() && peek() == '^') {
+        negated = true;
+        pos++;
+      }
+      int mask = 0;
+      boolean first = true;
+      while (true) {
+        if (!hasMore()) {
+          throw new UnsupportedSyntaxException();
+        }
+        char c = peek();
+        if (c == ']' && !first) {
+          pos++;
+          break;
+        }
+        first = false;
+        if (c == '[' || (c == '&' && pos + 1 < regex.length() && regex.charAt(pos + 1) == '&')) {
+          // Nested classes, unions and intersections are not supported.
+          throw new UnsupportedSyntaxException();
+        }
+        pos++;
+        int low;
+        if (c == '\\') {
+          if (hasMore() && peek() == 'd') {
+            pos++;
+            mask |= ALL_DIGITS;
+            continue;
+          }
+          if (!hasMore() || Character.isLetterOrDigit(peek())) {
+            throw new UnsupportedSyntaxException();
+          }
+          low = peek();
+          pos++;
+        } else {
+          low = c;
+        }
+        if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+          pos++;
+          char high = peek();
+          pos++;
+          if (high == '\\' || high == '[' || high < low) {
+            throw new UnsupportedSyntaxException();
+          }
+          for (int digit = 0; digit <= 9; digit++) {
+            if (low <= '0' + digit && '0' + digit <= high) {
+              mask |= 1 << digit;
+            }
+          }
+        } else {
+          mask |= digitMaskOf((char) low);
+        }
+      }
+      return negated ? (~mask & ALL_DIGITS) : mask;
+    }
+
+    private static int digitMaskOf(char c) {
+      return (c >= '0' && c <= '9') ? 1 << (c - '0') : 0;
+    }
+  }
+
+  /**
+   * A non-deterministic automaton built from the parsed expression using Thompson's construction,
+   * and then converted to a {@link DigitAutomaton} using the subset construction.
+   */
+  private static final class Nfa {
+    private int stateCount = 0;
+    // For each state, the states reachable without consuming input.
+    private int[][] epsilons = new int[64][];
+    private int[] epsilonCounts = new int[64];
+    // For each state, the digits on which it has a transition (as a bit mask), and the target of
+    // that transition. Every state has at most one such transition.
+    private int[] digitMasks = new int[64];
+    private int[] digitTargets = new int[64];
+    // Whether each state matters when comparing sets of states: those that read a character (even
+    // one that is never a digit) and accepting states. Sets of states that only differ in the
+    // others behave the same, so the subset construction only tracks these.
+    private boolean[] important = new boolean[64];
+
+    int newState() {
+      if (stateCount == digitMasks.length) {
+        int capacity = stateCount * 2;
+        epsilons = copyOf(epsilons, capacity);
+        epsilonCounts = copyOf(epsilonCounts, capacity);
+        digitMasks = copyOf(digitMasks, capacity);
+        digitTargets = copyOf(digitTargets, capacity);
+        important = copyOf(important, capacity);
+      }
+      epsilons[stateCount] = new int[2];
+      return stateCount++;
+    }
+
+    void addEpsilon(int from, int to) {
+      if (epsilonCounts[from] == epsilons[from].length) {
+        epsilons[from] = copyOf(epsilons[from], epsilonCounts[from] * 2);
+      }
+      epsilons[from][epsilonCounts[from]++] = to;
+    }
+
+    // Adds states and transitions so that going from {@code from} to {@code to} consumes exactly a
+    // string matched by {@code node}.
+    void build(Node node, int from, int to) {
+      switch (node.type) {
+        case Node.SET:
+          important[from] = true;
+          if (node.digitMask != 0) {
+            digitMasks[from] = node.digitMask;
+            digitTargets[from] = to;
+          }
+          break;
+        case Node.CONCAT: {
+          int current = from;
+          for (int i = 0; i < node.children.size(); i++) {
+            int next = (i == node.children.size() - 1) ? to : newState();
+            int partStart = newState();
+            addEpsilon(current, partStart);
+            build(node.children.get(i), partStart, next);
+            current = next;
+          }
+          if (node.children.isEmpty()) {
+            addEpsilon(from, to);
+          }
+          break;
+        }
+        case Node.ALTERNATION:
+          for (Node child : node.children) {
+            int branchStart = newState();
+            addEpsilon(from, branchStart);
+            build(child, branchStart, to);
+          }
+          break;
+        case Node.REPEAT: {
+          Node child = node.children.get(0);
+          int current = from;
+          for (int i = 0; i < node.min; i++) {
+            int next = newState();
+            int partStart = newState();
+            addEpsilon(current, partStart);
+            build(child, partStart, next);
+            current = next;
+          }
+          if (node.max == -1) {
+            // Kleene star on whatever is left.
+            int loopStart = newState();
+            int loopEnd = newState();
+            addEpsilon(current, loopStart);
+            build(child, loopStart, loopEnd);
+            addEpsilon(loopEnd, current);
+            addEpsilon(current, to);
+          } else {
+            for (int i = node.min; i < node.max; i++) {
+              addEpsilon(current, to);
+              int next = newState();
+              int partStart = newState();
+              addEpsilon(current, partStart);
+              build(child, partStart, next);
+              current = next;
+            }
+            addEpsilon(current, to);
+          }
+          break;
+        }
+        default:
+          throw new IllegalStateException("unknown node type: " + node.type);
+      }
+    }
+
+    // Returns, for each state, the important states reachable from it without consuming input.
+    private BitSet[] computeClosures() {
+      BitSet[] closures = new BitSet[stateCount];
+      int[] stack = new int[stateCount];
+      BitSet visited = new BitSet(stateCount);
+      for (int state = 0; state < stateCount; state++) {
+        BitSet closure = new BitSet();
+        visited.clear();
+        visited.set(state);
+        int size = 0;
+        stack[size++] = state;
+        while (size > 0) {
+          int current = stack[--size];
+          if (important[current]) {
+            closure.set(current);
+          }
+          for (int i = 0; i < epsilonCounts[current]; i++) {
+            int target = epsilons[current][i];
+            if (!visited.get(target)) {
+              visited.set(target);
+              stack[size++] = target;
+            }
+          }
+        }
+        closures[state] = closure;
+      }
+      return closures;
+    }
+
+    DigitAutomaton toDfa(int start, int[] accepts) {
+      for (int accept : accepts) {
+        important[accept] = true;
+      }
+      BitSet[] closures = computeClosures();
+      BitSet initial = closures[start];
+      List<BitSet> dfaStates = new ArrayList<BitSet>();
+      Map<BitSet, Integer> dfaStateIds = new HashMap<BitSet, Integer>();
+      dfaStates.add(initial);
+      dfaStateIds.put(initial, 0);
+      List<int[]> rows = new ArrayList<int[]>();
+      BitSet[] nextByDigit = new BitSet[10];
+      for (int current = 0; current < dfaStates.size(); current++) {
+        BitSet states = dfaStates.get(current);
+        for (int digit = 0; digit <= 9; digit++) {
+          nextByDigit[digit] = null;
+        }
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+          int mask = digitMasks[i];
+          for (int digit = 0; mask != 0; digit++, mask >>>= 1) {
+            if ((mask & 1) != 0) {
+              if (nextByDigit[digit] == null) {
+                nextByDigit[digit] = new BitSet();
+              }
+              nextByDigit[digit].or(closures[digitTargets[i]]);
+            }
+          }
+        }
+        int[] row = new int[10];
+        for (int digit = 0; digit <= 9; digit++) {
+          BitSet next = nextByDigit[digit];
+          if (next == null || next.isEmpty()) {
+            row[digit] = NO_MATCH;
+            continue;
+          }
+          Integer id = dfaStateIds.get(next);
+          if (id == null) {
+            if (dfaStates.size() >= MAX_STATES) {
+              return null;
+            }
+            id = dfaStates.size();
+            dfaStates.add(next);
+            dfaStateIds.put(next, id);
+          }
+          row[digit] = id;
+        }
+        rows.add(row);
+      }
+      int dfaStateCount = dfaStates.size();
+      int wordsPerState = Math.max(1, (accepts.length + 63) >>> 6);
+      int[] transitions = new int[dfaStateCount * 10];
+      long[] acceptSets = new long[dfaStateCount * wordsPerState];
+      for (int i = 0; i < dfaStateCount; i++) {
+        System.arraycopy(rows.get(i), 0, transitions, i * 10, 10);
+        BitSet states = dfaStates.get(i);
+        for (int pattern = 0; pattern < accepts.length; pattern++) {
+          if (states.get(accepts[pattern])) {
+            acceptSets[i * wordsPerState + (pattern >>> 6)] |= 1L << pattern;
+          }
+        }
+      }
+      return new DigitAutomaton(transitions, acceptSets, wordsPerState, accepts.length);
+    }
+
+    // Arrays.copyOf is not available in Java 5.
+    private static int[] copyOf(int[] array, int length) {
+      int[] copy = new int[length];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+    }
+
+    private static int[][] copyOf(int[][] array, int length) {
+      int[][] copy = new int[length][];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+    }
+
+    private static boolean[] copyOf(boolean[] array, int length) {
+      boolean[] copy = new boolean[length];
+      System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+      return copy;
+    }
+  }
+}
@@ -37,6 +37,15 @@ public final class RegexBasedMatcher implements MatcherApi {
   // @Override
   public boolean matchesNationalNumber(String nationalNumber, PhoneNumberDesc numberDesc,
       boolean allowPrefixMatch) {
+    return matchesNationalNumber((CharSequence) nationalNumber, numberDesc, allowPrefixMatch);
+  }
+
+  /**
+   * As {@link #matchesNationalNumber(String, PhoneNumberDesc, boolean)}, but for a national number
+   * held in any sequence of characters.
+   */
+  public boolean matchesNationalNumber(CharSequence nationalNumber, PhoneNumberDesc numberDesc,
+      boolean allowPrefixMatch) {
     Matcher nationalNumberPatternMatcher = regexCache.getPatternForRegex(
         numberDesc.nationalNumberPattern).matcher(nationalNumber);
     return nationalNumberPatternMatcher.matches()
@@ -45,6 +54,14 @@ public final class RegexBasedMatcher implements MatcherApi {
 
   // @Override
   public boolean matchesPossibleNumber(String nationalNumber, PhoneNumberDesc numberDesc) {
+    return matchesPossibleNumber((CharSequence) nationalNumber, numberDesc);
+  }
+
+  /**
+   * As {@link #matchesPossibleNumber(String, PhoneNumberDesc)}, but for a national number held in
+   * any sequence of characters.
+   */
+  public boolean matchesPossibleNumber(CharSequence nationalNumber, PhoneNumberDesc numberDesc) {
     Matcher possibleNumberPatternMatcher = regexCache.getPatternForRegex(
         numberDesc.possibleNumberPattern).matcher(nationalNumber);
     return possibleNumberPatternMatcher.matches();
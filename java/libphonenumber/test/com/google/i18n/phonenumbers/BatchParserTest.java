@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Unit tests for BatchParser.java and PhoneNumberUtil.parseAll.
+ */
+public class BatchParserTest extends TestMetadataTestCase {
+  private static final String[] NUMBERS = {
+      "033316005", "+1 650 253 0000", "not a number", "(650) 253-0000", "0011 54 9 11 8765 4321",
+      "+64 3 331 6005 ext. 1234", null, "1800 SIX-FLAG", "+02 366", "123 456 7890"};
+  private static final String[] REGIONS = {
+      RegionCode.NZ, RegionCode.US, RegionCode.US, RegionCode.US, RegionCode.AU, RegionCode.ZZ,
+      RegionCode.NZ, RegionCode.US, RegionCode.US, RegionCode.ZZ};
+
+  public void testGroupByRegion() {
+    String[] regions = {"US", "NZ", "US", null, "NZ", "US", null};
+    int[] order = BatchParser.groupByRegion(regions);
+    assertTrue(Arrays.equals(new int[] {0, 2, 5, 1, 4, 3, 6}, order));
+    assertEquals(0, BatchParser.groupByRegion(new String[0]).length);
+  }
+
+  public void testParseAllWithOneRegion() {
+    BatchParseResult result = phoneUtil.parseAll(Arrays.asList(NUMBERS), RegionCode.NZ);
+    assertEquals(NUMBERS.length, result.size());
+    int errorCount = 0;
+    for (int i = 0; i < NUMBERS.length; i++) {
+      PhoneNumber expected = new PhoneNumber();
+      NumberParseException.ErrorType expectedError =
+          phoneUtil.tryParse(NUMBERS[i], RegionCode.NZ, expected);
+      assertEquals(NUMBERS[i], expectedError, result.getErrorType(i));
+      if (expectedError == null) {
+        assertEquals(NUMBERS[i], expected, result.getNumber(i));
+      } else {
+        assertNull(NUMBERS[i], result.getNumber(i));
+        errorCount++;
+      }
+    }
+    assertEquals(errorCount, result.getErrorCount());
+    assertEquals(result.getNumber(0), result.getNumbers().get(0));
+  }
+
+  public void testParseAllWithRegionPerNumber() {
+    BatchParseResult result =
+        phoneUtil.parseAll(Arrays.asList(NUMBERS), Arrays.asList(REGIONS));
+    assertResultsMatchParse(NUMBERS, REGIONS, result);
+
+    try {
+      phoneUtil.parseAll(Arrays.asList(NUMBERS), Arrays.asList(RegionCode.US));
+      fail("Expected the number of regions to be checked");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testParseAllOnExecutor() throws Exception {
+    // Enough numbers for several tasks, with the regions mixed up so that groups span tasks.
+    int count = BatchParser.CHUNK_SIZE * 3 + 7;
+    String[] numbers = new String[count];
+    String[] regions = new String[count];
+    for (int i = 0; i < count; i++) {
+      numbers[i] = NUMBERS[i % NUMBERS.length];
+      regions[i] = REGIONS[(i / 3) % REGIONS.length];
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      assertResultsMatchParse(numbers, regions,
+          phoneUtil.parseAll(Arrays.asList(numbers), Arrays.asList(regions), executor));
+
+      List<CharSequence> builders = new ArrayList<CharSequence>();
+      for (String number : numbers) {
+        builders.add((number != null) ? new StringBuilder(number) : null);
+      }
+      String[] usRegions = new String[count];
+      Arrays.fill(usRegions, RegionCode.US);
+      assertResultsMatchParse(numbers, usRegions,
+          phoneUtil.parseAll(builders, RegionCode.US, executor));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testWorkersShareChunks() throws Exception {
+    int count = BatchParser.CHUNK_SIZE * 5;
+    String[] numbers = new String[count];
+    String[] regions = new String[count];
+    for (int i = 0; i < count; i++) {
+      numbers[i] = NUMBERS[i % NUMBERS.length];
+      regions[i] = REGIONS[i % REGIONS.length];
+    }
+    BatchParser parser =
+        new BatchParser(phoneUtil, Arrays.asList(numbers), null, Arrays.asList(regions));
+    final List<Runnable> workers = new ArrayList<Runnable>();
+    Future<Void> future = parser.start(new Executor() {
+      @Override
+      public void execute(Runnable worker) {
+        workers.add(worker);
+      }
+    });
+    assertTrue(workers.size() <= Math.min(5, Runtime.getRuntime().availableProcessors()));
+    try {
+      future.get(1, TimeUnit.MILLISECONDS);
+      fail("expected TimeoutException");
+    } catch (TimeoutException e) {
+      assertEquals(workers.size() + " batch parsing tasks still running", e.getMessage());
+    }
+    // The first worker to run takes every chunk, and the others find nothing left to do.
+    for (Runnable worker : workers) {
+      worker.run();
+    }
+    future.get(1, TimeUnit.MILLISECONDS);
+    assertResultsMatchParse(numbers, regions, parser.getResult());
+  }
+
+  private void assertResultsMatchParse(String[] numbers, String[] regions,
+      BatchParseResult result) {
+    assertEquals(numbers.length, result.size());
+    for (int i = 0; i < numbers.length; i++) {
+      try {
+        PhoneNumber expected = phoneUtil.parse(numbers[i], regions[i]);
+        assertNull(numbers[i], result.getErrorType(i));
+        assertEquals(numbers[i], expected, result.getNumber(i));
+      } catch (NumberParseException e) {
+        assertEquals(numbers[i], e.getErrorType(), result.getErrorType(i));
+        assertNull(numbers[i], result.getNumber(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for ExtensionScanner.java, which check it against the regular expression it replaced.
+ */
+public class ExtensionScannerTest extends TestCase {
+  private static final Pattern EXTN_PATTERN = Pattern.compile(
+      "(?:" + PhoneNumberUtil.EXTN_PATTERNS_FOR_PARSING + ")$", PhoneNumberUtil.REGEX_FLAGS);
+  // Ends exactly at the end of the region, as PossibleNumberScanner needs.
+  private static final Pattern EXTN_SUFFIX_PATTERN = Pattern.compile(
+      "(?:" + PhoneNumberUtil.EXTN_PATTERNS_FOR_PARSING + ")\\z", PhoneNumberUtil.REGEX_FLAGS);
+
+  // Pieces of extensions and of the numbers before them, in several cases and widths.
+  private static final String[] FRAGMENTS = {
+      "1", "2", "34", "567", "\u0663", "\uFF15", "\uD835\uDFCE", "\uD800", "\uDC00", " ", "  ",
+      "\u00A0", "\t", ",", "-", ":", ".", "\uFF0E", "#", "\uFF03", "~", "\uFF5E", "x", "X",
+      "\uFF58", "\uFF38", "e", "E", "xt", "ext", "EXT", "extn", "extensio", "extensio\u0301n",
+      "extensi\u00F3", "EXTENSI\u00D3N", "n", "\uFF45\uFF58\uFF54\uFF4E", "\uFF25\uFF38\uFF34",
+      "int", "\u0130NT", "\u0131nt", "anexo", "ANEXO", "\uFF49\uFF4E\uFF54", ";ext=", ";EXT=",
+      "=", ";", "\n", "\r", "\r\n", "\u2028", "a"};
+
+  public void testExamples() {
+    assertSameAsRegularExpression("650 253 0000 ext. 1234");
+    assertSameAsRegularExpression("650 253 0000;ext=1234");
+    assertSameAsRegularExpression("650 253 0000 - 503#");
+    assertSameAsRegularExpression("650 253 0000 x302");
+    assertSameAsRegularExpression("650 253 0000 anexo 33");
+    assertSameAsRegularExpression("650 253 0000 \uFF45\uFF58\uFF54\uFF4E\uFF11\uFF12");
+    assertSameAsRegularExpression("650 253 0000 ,, 45");
+    assertSameAsRegularExpression("650 253 0000 EXTENSI\u00D3N: 12");
+    assertSameAsRegularExpression("650 253 0000 \u0130NT 5");
+    assertSameAsRegularExpression("650 253 0000 ext 12345678");
+    assertSameAsRegularExpression("650 253 0000 ext 12\n");
+    assertSameAsRegularExpression("650 253 0000");
+    assertSameAsRegularExpression("");
+  }
+
+  public void testEveryCharacterInTheBmp() {
+    for (int i = Character.MIN_VALUE; i <= Character.MAX_VALUE; i++) {
+      char c = (char) i;
+      assertSameAsRegularExpression("1" + c + "12");
+      assertSameAsRegularExpression("1 " + c + "xt 12");
+      assertSameAsRegularExpression("1 ext" + c + "12#");
+    }
+  }
+
+  public void testRandomStrings() {
+    Random random = new Random(42);
+    for (int i = 0; i < 4000; i++) {
+      StringBuilder number = new StringBuilder();
+      for (int fragments = 1 + random.nextInt(8); fragments > 0; fragments--) {
+        number.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      assertSameAsRegularExpression(number.toString());
+      // PossibleNumberScanner looks for extensions in parts of a number.
+      Matcher m = EXTN_SUFFIX_PATTERN.matcher(number);
+      for (int from = 0; from <= number.length(); from++) {
+        assertEquals(number + " from " + from,
+            m.region(from, number.length()).find() ? m.start() : -1,
+            ExtensionScanner.findExtensionStart(number, from, number.length()));
+      }
+      for (int end = 0; end <= number.length(); end++) {
+        assertEquals(number + " up to " + end, m.region(0, end).find() ? m.start() : -1,
+            ExtensionScanner.findExtensionStart(number, 0, end));
+      }
+    }
+  }
+
+  public void testMaybeStripExtension() {
+    PhoneNumberUtil phoneUtil =
+        PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    StringBuilder number = new StringBuilder("1 800 253 0000 ext. 1234");
+    assertEquals("1234", phoneUtil.maybeStripExtension(number));
+    assertEquals("1 800 253 0000", number.toString());
+    // The number before the extension must be viable.
+    number = new StringBuilder("1 x 34");
+    assertEquals("", phoneUtil.maybeStripExtension(number));
+    assertEquals("1 x 34", number.toString());
+    number = new StringBuilder("253 0000 x\uD835\uDFCF\uD835\uDFD0\n");
+    assertEquals("\uD835\uDFCF\uD835\uDFD0", phoneUtil.maybeStripExtension(number));
+    assertEquals("253 0000", number.toString());
+  }
+
+  private void assertSameAsRegularExpression(String number) {
+    Matcher m = EXTN_PATTERN.matcher(number);
+    int end = ExtensionScanner.endBeforeFinalLineTerminator(number);
+    int start = ExtensionScanner.findExtensionStart(number, 0, end);
+    if (!m.find()) {
+      assertEquals(number, -1, start);
+      return;
+    }
+    assertEquals(number, m.start(), start);
+    String extension = null;
+    for (int i = 1; i <= m.groupCount() && extension == null; i++) {
+      extension = m.group(i);
+    }
+    int digitsEnd = ExtensionScanner.findDigitsEnd(number, start, end);
+    assertEquals(number, extension,
+        number.substring(ExtensionScanner.findDigitsStart(number, start, digitsEnd), digitsEnd));
+  }
+}
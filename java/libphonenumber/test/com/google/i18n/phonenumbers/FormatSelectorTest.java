@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Verifies that FormatSelector picks the same formatting patterns as
+ * PhoneNumberUtil.chooseFormattingPatternForNumber, for the metadata of every supported region.
+ */
+public class FormatSelectorTest extends TestCase {
+  private static final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testAgreesWithRegularExpressions() {
+    Random random = new Random(3);
+    for (String regionCode : phoneUtil.getSupportedRegions()) {
+      PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+      FormatSelector nationalSelector = FormatSelector.create(metadata.numberFormat);
+      FormatSelector intlSelector = FormatSelector.create(metadata.intlNumberFormat);
+      for (PhoneNumberDesc desc : new PhoneNumberDesc[] {
+          metadata.fixedLine, metadata.mobile, metadata.tollFree, metadata.premiumRate,
+          metadata.sharedCost, metadata.uan}) {
+        String example = desc.exampleNumber;
+        if (example.length() == 0) {
+          continue;
+        }
+        StringBuilder mutated = new StringBuilder(example);
+        mutated.setCharAt(random.nextInt(mutated.length()), (char) ('0' + random.nextInt(10)));
+        for (String number : new String[] {
+            example, mutated.toString(), example.substring(1), example + random.nextInt(10)}) {
+          assertChoosesAsRegex(regionCode, metadata.numberFormat, nationalSelector, number);
+          assertChoosesAsRegex(regionCode, metadata.intlNumberFormat, intlSelector, number);
+        }
+      }
+    }
+  }
+
+  public void testNonDigitsAreUndetermined() {
+    PhoneMetadata metadata = phoneUtil.getMetadataForRegion(RegionCode.DE);
+    FormatSelector selector = FormatSelector.create(metadata.numberFormat);
+    assertEquals(FormatSelector.UNDETERMINED, selector.choose("3012345a"));
+  }
+
+  public void testNoFormats() {
+    FormatSelector selector = FormatSelector.create(new NumberFormat[0]);
+    assertEquals(FormatSelector.NO_FORMAT, selector.choose("1234"));
+  }
+
+  private static void assertChoosesAsRegex(String regionCode, NumberFormat[] formats,
+      FormatSelector selector, String number) {
+    NumberFormat expected = phoneUtil.chooseFormattingPatternForNumber(formats, number);
+    int choice = selector.choose(number);
+    assertEquals(regionCode + ": " + number, expected,
+        choice == FormatSelector.NO_FORMAT ? null : formats[choice]);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.protobuf.nano.MessageNano;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for MappedFileMetadataSourceImpl.java.
+ */
+public class MappedFileMetadataSourceImplTest extends TestCase {
+  private static final MetadataSource multiFileSource =
+      new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  private File metadataFile;
+
+  @Override
+  protected void setUp() throws IOException {
+    metadataFile = File.createTempFile("metadata", ".dat");
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (String regionCode : Arrays.asList(RegionCode.US, RegionCode.GB, RegionCode.DE)) {
+      metadataList.add(multiFileSource.getMetadataForRegion(regionCode));
+    }
+    metadataList.add(multiFileSource.getMetadataForNonGeographicalRegion(800));
+    MappedFileMetadataSourceImpl.writeMetadataFile(
+        metadataList, new FileOutputStream(metadataFile));
+  }
+
+  @Override
+  protected void tearDown() {
+    metadataFile.delete();
+  }
+
+  public void testReadsWrittenMetadata() throws IOException {
+    MetadataSource source = new MappedFileMetadataSourceImpl(metadataFile);
+    for (String regionCode : Arrays.asList(RegionCode.US, RegionCode.GB, RegionCode.DE)) {
+      assertTrue(regionCode, MessageNano.messageNanoEquals(
+          multiFileSource.getMetadataForRegion(regionCode),
+          source.getMetadataForRegion(regionCode)));
+    }
+    assertTrue(MessageNano.messageNanoEquals(
+        multiFileSource.getMetadataForNonGeographicalRegion(800),
+        source.getMetadataForNonGeographicalRegion(800)));
+    // Each region is decoded only once.
+    assertSame(source.getMetadataForRegion(RegionCode.US),
+        source.getMetadataForRegion(RegionCode.US));
+  }
+
+  public void testMissingRegionsAreNull() throws IOException {
+    MetadataSource source = new MappedFileMetadataSourceImpl(metadataFile);
+    assertNull(source.getMetadataForRegion(RegionCode.FR));
+    assertNull(source.getMetadataForRegion("No Such Region"));
+    assertNull(source.getMetadataForRegion("us"));
+    assertNull(source.getMetadataForRegion("\u0141\u0141"));
+    assertNull(source.getMetadataForNonGeographicalRegion(808));
+    assertNull(source.getMetadataForNonGeographicalRegion(-1));
+    assertNull(source.getMetadataForNonGeographicalRegion(100000));
+  }
+
+  public void testPhoneNumberUtilFromMetadataFile() throws IOException {
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.createInstanceFromMetadataFile(metadataFile);
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertTrue(phoneUtil.isValidNumber(usNumber));
+    assertEquals("+1 650-253-0000",
+        phoneUtil.format(usNumber, PhoneNumberUtil.PhoneNumberFormat.INTERNATIONAL));
+    PhoneNumber tollFreeNumber = new PhoneNumber().setCountryCode(800).setNationalNumber(12345678L);
+    assertTrue(phoneUtil.isValidNumber(tollFreeNumber));
+  }
+
+  public void testRejectsInvalidFiles() throws IOException {
+    assertInvalid(new byte[] {1, 2, 3});
+    assertInvalid(new byte[16]);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MappedFileMetadataSourceImpl.writeMetadataFile(
+        Arrays.asList(multiFileSource.getMetadataForRegion(RegionCode.US)), out);
+    byte[] valid = out.toByteArray();
+    new MappedFileMetadataSourceImpl(ByteBuffer.wrap(valid));
+    // Cut off part of the metadata the index refers to.
+    byte[] truncated = new byte[valid.length - 1];
+    System.arraycopy(valid, 0, truncated, 0, truncated.length);
+    assertInvalid(truncated);
+  }
+
+  private static void assertInvalid(byte[] contents) {
+    try {
+      new MappedFileMetadataSourceImpl(ByteBuffer.wrap(contents));
+      fail("expected IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
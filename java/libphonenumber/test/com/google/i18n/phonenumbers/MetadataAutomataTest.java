@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.internal.DigitAutomaton;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles every pattern in the bundled metadata into a {@link DigitAutomaton}, and checks that
+ * they all compile and that none of them needs more states than expected.
+ */
+public class MetadataAutomataTest extends TestCase {
+  // The number of states the largest automaton for a single pattern of the bundled metadata needs,
+  // including the short number and alternate formats metadata. If new metadata needs more, check
+  // that the pattern is not pathological before raising this.
+  private static final int MAX_STATES_FOR_METADATA = 353;
+
+  private static final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testEveryPatternCompilesWithinBound() {
+    int maxStates = 0;
+    String largest = null;
+    for (String pattern : getAllPatterns()) {
+      DigitAutomaton automaton = DigitAutomaton.compile(pattern);
+      assertNotNull(pattern, automaton);
+      if (automaton.getStateCount() > maxStates) {
+        maxStates = automaton.getStateCount();
+        largest = pattern;
+      }
+    }
+    assertTrue(largest + " needs " + maxStates + " states", maxStates <= MAX_STATES_FOR_METADATA);
+  }
+
+  private static List<String> getAllPatterns() {
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (String regionCode : phoneUtil.getSupportedRegions()) {
+      metadataList.add(phoneUtil.getMetadataForRegion(regionCode));
+    }
+    for (int countryCallingCode : phoneUtil.getSupportedGlobalNetworkCallingCodes()) {
+      metadataList.add(phoneUtil.getMetadataForNonGeographicalRegion(countryCallingCode));
+    }
+    for (String regionCode : ShortNumbersRegionCodeSet.getRegionCodeSet()) {
+      metadataList.add(MetadataManager.getShortNumberMetadataForRegion(regionCode));
+    }
+    for (int countryCallingCode : AlternateFormatsCountryCodeSet.getCountryCodeSet()) {
+      metadataList.add(MetadataManager.getAlternateFormatsForCountry(countryCallingCode));
+    }
+    List<String> patterns = new ArrayList<String>();
+    for (PhoneMetadata metadata : metadataList) {
+      for (PhoneNumberDesc desc : new PhoneNumberDesc[] {
+          metadata.generalDesc, metadata.fixedLine, metadata.mobile, metadata.tollFree,
+          metadata.premiumRate, metadata.sharedCost, metadata.personalNumber, metadata.voip,
+          metadata.pager, metadata.uan, metadata.emergency, metadata.voicemail,
+          metadata.shortCode, metadata.standardRate, metadata.carrierSpecific,
+          metadata.noInternationalDialling}) {
+        if (desc != null) {
+          patterns.add(desc.nationalNumberPattern);
+          patterns.add(desc.possibleNumberPattern);
+        }
+      }
+      for (NumberFormat[] formats
+          : new NumberFormat[][] {metadata.numberFormat, metadata.intlNumberFormat}) {
+        for (NumberFormat format : formats) {
+          patterns.add(format.pattern);
+          for (String leadingDigits : format.leadingDigitsPattern) {
+            patterns.add(leadingDigits);
+          }
+        }
+      }
+    }
+    return patterns;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import junit.framework.TestCase;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Unit tests for MetadataInterner.java.
+ */
+public class MetadataInternerTest extends TestCase {
+  private static final MetadataSource source =
+      new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testInternReturnsPooledInstance() {
+    String first = new String("\\d{10}");
+    String second = new String("\\d{10}");
+    assertSame(MetadataInterner.intern(first), MetadataInterner.intern(second));
+    assertNull(MetadataInterner.intern((String) null));
+  }
+
+  public void testPoolDoesNotKeepStringsAlive() throws InterruptedException {
+    String string = new String("\\d{" + System.nanoTime() + "}");
+    assertSame(string, MetadataInterner.intern(string));
+    WeakReference<String> reference = new WeakReference<String>(string);
+    string = null;
+    for (int i = 0; i < 100 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(reference.get());
+  }
+
+  public void testLoadedMetadataSharesStrings() {
+    PhoneMetadata usMetadata = source.getMetadataForRegion(RegionCode.US);
+    PhoneMetadata caMetadata = source.getMetadataForRegion(RegionCode.CA);
+    // The NANPA regions have the same international and national prefixes.
+    assertSame(usMetadata.internationalPrefix, caMetadata.internationalPrefix);
+    assertSame(usMetadata.nationalPrefix, caMetadata.nationalPrefix);
+    assertSame(usMetadata.generalDesc.nationalNumberPattern,
+        MetadataInterner.intern(new String(usMetadata.generalDesc.nationalNumberPattern)));
+  }
+
+  public void testFootprintCountsSharedStringsOnce() {
+    PhoneMetadata usMetadata = source.getMetadataForRegion(RegionCode.US);
+    PhoneMetadata caMetadata = source.getMetadataForRegion(RegionCode.CA);
+    long sharedBytes =
+        MetadataFootprint.estimateBytes(Arrays.asList(usMetadata, caMetadata), true);
+    long unsharedBytes =
+        MetadataFootprint.estimateBytes(Arrays.asList(usMetadata, caMetadata), false);
+    assertTrue(sharedBytes > 0);
+    assertTrue(sharedBytes < unsharedBytes);
+    // Counting the same metadata twice adds nothing.
+    assertEquals(sharedBytes, MetadataFootprint.estimateBytes(
+        Arrays.asList(usMetadata, caMetadata, usMetadata), true));
+  }
+}
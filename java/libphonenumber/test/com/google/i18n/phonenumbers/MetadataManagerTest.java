@@ -17,9 +17,21 @@
 package com.google.i18n.phonenumbers;
 
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
+import com.google.protobuf.nano.MessageNano;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Some basic tests to check that the phone number metadata can be correctly loaded.
  */
@@ -48,4 +60,129 @@ public class MetadataManagerTest extends TestCase {
     PhoneMetadata noShortNumberMetadata = MetadataManager.getShortNumberMetadataForRegion("XXX");
     assertNull(noShortNumberMetadata);
   }
+
+  public void testConcurrentLoadsReturnSameMetadata() throws Exception {
+    final List<String> regionCodes =
+        new ArrayList<String>(MetadataManager.getShortNumberMetadataSupportedRegions());
+    final PhoneMetadata[][] results = new PhoneMetadata[4][regionCodes.size()];
+    Thread[] threads = new Thread[results.length];
+    for (int t = 0; t < threads.length; t++) {
+      final PhoneMetadata[] result = results[t];
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < result.length; i++) {
+            result[i] = MetadataManager.getShortNumberMetadataForRegion(regionCodes.get(i));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < regionCodes.size(); i++) {
+      assertNotNull(regionCodes.get(i), results[0][i]);
+      for (int t = 1; t < results.length; t++) {
+        assertSame(regionCodes.get(i), results[0][i], results[t][i]);
+      }
+    }
+  }
+
+  private static final String US_METADATA_FILE =
+      "/com/google/i18n/phonenumbers/data/PhoneNumberMetadataProto_US";
+
+  public void testLoadsBundledFileAsObjectInputStreamWould() throws Exception {
+    byte[] file = readResource(US_METADATA_FILE);
+    PhoneMetadataCollection expected = loadWithObjectInputStream(file);
+    assertTrue(expected.metadata.length > 0);
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadataAndCloseInput(
+        new ByteArrayInputStream(file), MetadataManager.DEFAULT_BUFFER_SIZE)));
+    // The buffer has to grow to hold the file.
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadataAndCloseInput(
+        new ByteArrayInputStream(file), 1)));
+  }
+
+  public void testLoadsUnframedProtocolBuffer() throws Exception {
+    PhoneMetadataCollection expected = loadWithObjectInputStream(readResource(US_METADATA_FILE));
+    byte[] unframed = MessageNano.toByteArray(expected);
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadataAndCloseInput(
+        new ByteArrayInputStream(unframed), MetadataManager.DEFAULT_BUFFER_SIZE)));
+  }
+
+  public void testLoadsFromByteBuffers() throws Exception {
+    byte[] file = readResource(US_METADATA_FILE);
+    PhoneMetadataCollection expected = loadWithObjectInputStream(file);
+    byte[] unframed = MessageNano.toByteArray(expected);
+
+    // Unframed metadata in the middle of a larger array.
+    byte[] padded = new byte[unframed.length + 20];
+    System.arraycopy(unframed, 0, padded, 10, unframed.length);
+    ByteBuffer slice = ByteBuffer.wrap(padded, 10, unframed.length).slice();
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadata(slice)));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(file.length);
+    direct.put(file);
+    direct.flip();
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadata(direct)));
+    // The buffer must be left untouched.
+    assertEquals(0, direct.position());
+
+    ByteBuffer framed = ByteBuffer.wrap(file);
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadata(framed)));
+    // Unframing happens in a copy, not in the array backing the buffer.
+    assertTrue(MessageNano.messageNanoEquals(expected, loadWithObjectInputStream(file)));
+  }
+
+  public void testByteBufferMetadataLoaderIsUsed() throws Exception {
+    final byte[] file = readResource(US_METADATA_FILE);
+    ByteBufferMetadataLoader loader = new ByteBufferMetadataLoader() {
+      public ByteBuffer loadMetadataBuffer(String metadataFileName) {
+        return metadataFileName.equals(US_METADATA_FILE) ? ByteBuffer.wrap(file) : null;
+      }
+
+      public InputStream loadMetadata(String metadataFileName) {
+        throw new AssertionError("the buffer should be used");
+      }
+    };
+    assertEquals(RegionCode.US, MetadataManager.loadMetadata(
+        loader, US_METADATA_FILE, MetadataManager.DEFAULT_BUFFER_SIZE).metadata[0].id);
+    assertNull(MetadataManager.loadMetadata(
+        loader, "no/such/file", MetadataManager.DEFAULT_BUFFER_SIZE));
+  }
+
+  public void testFallsBackForOtherFraming() throws Exception {
+    PhoneMetadataCollection expected = loadWithObjectInputStream(readResource(US_METADATA_FILE));
+    byte[] unframed = MessageNano.toByteArray(expected);
+    // A reset in the middle of the data is skipped by ObjectInputStream, but isn't block data.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.write(unframed, 0, 100);
+    oos.reset();
+    oos.write(unframed, 100, unframed.length - 100);
+    oos.close();
+    assertTrue(MessageNano.messageNanoEquals(expected, MetadataManager.loadMetadataAndCloseInput(
+        new ByteArrayInputStream(out.toByteArray()), MetadataManager.DEFAULT_BUFFER_SIZE)));
+  }
+
+  private static byte[] readResource(String name) throws IOException {
+    InputStream in = MetadataManagerTest.class.getResourceAsStream(name);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int nRead;
+    while ((nRead = in.read(buffer)) != -1) {
+      out.write(buffer, 0, nRead);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static PhoneMetadataCollection loadWithObjectInputStream(byte[] file)
+      throws IOException {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(file));
+    PhoneMetadataCollection metadataCollection = new PhoneMetadataCollection();
+    metadataCollection.mergeFrom(
+        MetadataManager.convertStreamToByteBuffer(in, MetadataManager.DEFAULT_BUFFER_SIZE));
+    return metadataCollection;
+  }
 }
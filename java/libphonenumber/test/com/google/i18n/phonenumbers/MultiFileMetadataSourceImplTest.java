@@ -18,7 +18,18 @@ package com.google.i18n.phonenumbers;
 
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 
 /**
@@ -64,4 +75,127 @@ public class MultiFileMetadataSourceImplTest extends TestCase {
       assertTrue("Unexpected error: " + e, e.getMessage().contains("no/such/file_123"));
     }
   }
+
+  public void testPreloadAllLoadsEveryRegion() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    MetadataLoader countingLoader = new MetadataLoader() {
+      @Override
+      public InputStream loadMetadata(String metadataFileName) {
+        loads.incrementAndGet();
+        return PhoneNumberUtil.DEFAULT_METADATA_LOADER.loadMetadata(metadataFileName);
+      }
+    };
+    MultiFileMetadataSourceImpl source = new MultiFileMetadataSourceImpl(countingLoader);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      source.preloadAll(CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap(), executor)
+          .get(60, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+    int fileCount = 0;
+    for (List<String> regionCodes :
+        CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap().values()) {
+      fileCount += regionCodes.size();
+    }
+    assertEquals(fileCount, loads.get());
+    // Everything is already loaded, so these don't touch the loader.
+    assertNotNull(source.getMetadataForRegion("CH"));
+    assertNotNull(source.getMetadataForNonGeographicalRegion(800));
+    assertEquals(fileCount, loads.get());
+  }
+
+  public void testPreloadAllReportsFailures() throws Exception {
+    MultiFileMetadataSourceImpl source =
+        new MultiFileMetadataSourceImpl("no/such/file", PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      source.preloadAll(CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap(), executor)
+          .get(60, TimeUnit.SECONDS);
+      fail("expected exception");
+    } catch (ExecutionException e) {
+      assertTrue("Unexpected error: " + e.getCause(),
+          e.getCause().getMessage().contains("no/such/file"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testPreloadMetadataLoadsOnlyTheRegionsOfTheInstance() throws Exception {
+    final List<String> loadedFiles = Collections.synchronizedList(new ArrayList<String>());
+    MetadataLoader recordingLoader = new MetadataLoader() {
+      @Override
+      public InputStream loadMetadata(String metadataFileName) {
+        loadedFiles.add(metadataFileName);
+        return PhoneNumberUtil.DEFAULT_METADATA_LOADER.loadMetadata(metadataFileName);
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      PhoneNumberUtil restrictedUtil = PhoneNumberUtil.createRestrictedInstance(
+          recordingLoader, Arrays.asList("CH"), Collections.<Integer>emptyList());
+      restrictedUtil.preloadMetadata(executor).get(60, TimeUnit.SECONDS);
+      assertEquals(Arrays.asList("/com/google/i18n/phonenumbers/data/PhoneNumberMetadataProto_CH"),
+          loadedFiles);
+
+      // An instance on the test metadata, which has no files for most of the real regions.
+      loadedFiles.clear();
+      Map<Integer, List<String>> testMap =
+          CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap();
+      PhoneNumberUtil testUtil = new PhoneNumberUtil(new MultiFileMetadataSourceImpl(
+          TestMetadataTestCase.TEST_META_DATA_FILE_PREFIX, recordingLoader), testMap);
+      testUtil.preloadMetadata(executor).get(60, TimeUnit.SECONDS);
+      int fileCount = 0;
+      for (List<String> regionCodes : testMap.values()) {
+        fileCount += regionCodes.size();
+      }
+      assertEquals(fileCount, loadedFiles.size());
+      for (String fileName : loadedFiles) {
+        assertTrue(fileName, fileName.startsWith(TestMetadataTestCase.TEST_META_DATA_FILE_PREFIX));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void testLoadListenerIsToldAboutLookupsAndLoads() {
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    PhoneNumberUtil.setMetadataLoadListener(new MetadataLoadListener() {
+      @Override
+      public void onCacheLookup(MetadataType type, String key, boolean hit) {
+        events.add((hit ? "hit " : "miss ") + type + " " + key);
+      }
+
+      @Override
+      public void onLoadStarted(MetadataType type, String key) {
+        events.add("start " + type + " " + key);
+      }
+
+      @Override
+      public void onLoadFinished(MetadataType type, String key, int bytes, long nanos,
+          boolean succeeded) {
+        assertTrue(bytes > 0);
+        assertTrue(nanos >= 0);
+        events.add("finish " + type + " " + key + " " + succeeded);
+      }
+    });
+    try {
+      MultiFileMetadataSourceImpl source =
+          new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+      source.getMetadataForRegion("CH");
+      source.getMetadataForRegion("CH");
+      source.getMetadataForNonGeographicalRegion(800);
+      assertEquals(Arrays.asList(
+          "miss PHONE_NUMBER CH", "start PHONE_NUMBER CH", "finish PHONE_NUMBER CH true",
+          "hit PHONE_NUMBER CH",
+          "miss PHONE_NUMBER 800", "start PHONE_NUMBER 800", "finish PHONE_NUMBER 800 true"),
+          events);
+    } finally {
+      PhoneNumberUtil.setMetadataLoadListener(null);
+    }
+    // Once the listener is removed, nothing more is reported.
+    new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER)
+        .getMetadataForRegion("DE");
+    assertEquals(7, events.size());
+  }
 }
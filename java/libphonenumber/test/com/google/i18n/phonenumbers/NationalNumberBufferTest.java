@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for NationalNumberBuffer.java
+ */
+public class NationalNumberBufferTest extends TestCase {
+  private static final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testSameAsNationalSignificantNumber() {
+    NationalNumberBuffer buffer = new NationalNumberBuffer();
+    PhoneNumber[] numbers = {
+      new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L),
+      new PhoneNumber().setCountryCode(39).setNationalNumber(236618300L)
+          .setItalianLeadingZero(true),
+      new PhoneNumber().setCountryCode(39).setNationalNumber(1L).setItalianLeadingZero(true)
+          .setNumberOfLeadingZeros(2),
+      // Lots of leading zeros make the buffer grow.
+      new PhoneNumber().setCountryCode(39).setNationalNumber(Long.MAX_VALUE)
+          .setItalianLeadingZero(true).setNumberOfLeadingZeros(30),
+      new PhoneNumber().setCountryCode(1).setNationalNumber(0L),
+      new PhoneNumber().setCountryCode(1).setNationalNumber(-123L),
+      new PhoneNumber().setCountryCode(1).setNationalNumber(Long.MIN_VALUE),
+      // A shorter number after a longer one must not keep any of the old digits.
+      new PhoneNumber().setCountryCode(1).setNationalNumber(7L),
+    };
+    for (PhoneNumber number : numbers) {
+      buffer.setNumber(number);
+      String expected = phoneUtil.getNationalSignificantNumber(number);
+      assertEquals(expected, buffer.toString());
+      assertEquals(expected.length(), buffer.length());
+      for (int i = 0; i < expected.length(); i++) {
+        assertEquals(expected.charAt(i), buffer.charAt(i));
+      }
+    }
+  }
+
+  public void testCharSequenceMethods() {
+    NationalNumberBuffer buffer = new NationalNumberBuffer();
+    assertEquals(0, buffer.length());
+    assertEquals("", buffer.toString());
+    buffer.setNumber(new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L));
+    assertEquals("253", buffer.subSequence(3, 6).toString());
+    try {
+      buffer.charAt(10);
+      fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+    try {
+      buffer.subSequence(5, 11);
+      fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.ValidationResult;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies that NumberTypeClassifier gives the same answers as matching the number descriptions
+ * one at a time with regular expressions, for the metadata of every supported region.
+ */
+public class NumberTypeClassifierTest extends TestCase {
+  private static final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testAgreesWithRegularExpressions() {
+    Random random = new Random(7);
+    for (String regionCode : phoneUtil.getSupportedRegions()) {
+      PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+      NumberTypeClassifier classifier = NumberTypeClassifier.create(metadata);
+      for (PhoneNumberDesc desc : new PhoneNumberDesc[] {
+          metadata.fixedLine, metadata.mobile, metadata.tollFree, metadata.premiumRate,
+          metadata.voip, metadata.uan}) {
+        String example = desc.exampleNumber;
+        if (example.length() == 0) {
+          continue;
+        }
+        assertClassifiedAsRegex(regionCode, classifier, metadata, example);
+        // Also try numbers that are one digit different, shorter or longer.
+        StringBuilder mutated = new StringBuilder(example);
+        mutated.setCharAt(random.nextInt(mutated.length()), (char) ('0' + random.nextInt(10)));
+        assertClassifiedAsRegex(regionCode, classifier, metadata, mutated.toString());
+        assertClassifiedAsRegex(regionCode, classifier, metadata,
+            example.substring(0, example.length() - 1));
+        assertClassifiedAsRegex(regionCode, classifier, metadata, example + random.nextInt(10));
+      }
+    }
+  }
+
+  public void testNumberLengthAgreesWithRegularExpressions() {
+    Random random = new Random(11);
+    for (String regionCode : phoneUtil.getSupportedRegions()) {
+      PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+      NumberTypeClassifier classifier = NumberTypeClassifier.create(metadata);
+      Pattern possibleNumberPattern = Pattern.compile(metadata.generalDesc.possibleNumberPattern);
+      StringBuilder number = new StringBuilder();
+      for (int length = 0; length <= 20; length++) {
+        ValidationResult result = classifier.testNumberLength(number.toString());
+        if (result != null) {
+          Matcher matcher = possibleNumberPattern.matcher(number);
+          ValidationResult expected = matcher.matches() ? ValidationResult.IS_POSSIBLE
+              : matcher.lookingAt() ? ValidationResult.TOO_LONG : ValidationResult.TOO_SHORT;
+          assertEquals(regionCode + ": " + number, expected, result);
+        }
+        number.append((char) ('0' + random.nextInt(10)));
+      }
+    }
+    PhoneMetadata usMetadata = phoneUtil.getMetadataForRegion(RegionCode.US);
+    NumberTypeClassifier usClassifier = NumberTypeClassifier.create(usMetadata);
+    assertEquals(ValidationResult.TOO_SHORT, usClassifier.testNumberLength("123456"));
+    assertEquals(ValidationResult.IS_POSSIBLE, usClassifier.testNumberLength("1234567"));
+    assertEquals(ValidationResult.TOO_LONG, usClassifier.testNumberLength("12345678901"));
+    assertNull(usClassifier.testNumberLength("123456a"));
+  }
+
+  public void testWrongLengthIsUnknown() {
+    NumberTypeClassifier classifier =
+        NumberTypeClassifier.create(phoneUtil.getMetadataForRegion(RegionCode.US));
+    assertEquals(PhoneNumberType.UNKNOWN, classifier.classify("65025300001234"));
+    assertNull(classifier.classify("65025300001234a"));
+  }
+
+  public void testNonDigitsAreNotClassified() {
+    NumberTypeClassifier classifier =
+        NumberTypeClassifier.create(phoneUtil.getMetadataForRegion(RegionCode.US));
+    assertNull(classifier.classify("650253000a"));
+    assertEquals(PhoneNumberType.UNKNOWN, classifier.classify("0"));
+  }
+
+  private static void assertClassifiedAsRegex(String regionCode, NumberTypeClassifier classifier,
+      PhoneMetadata metadata, String number) {
+    assertEquals(regionCode + ": " + number,
+        getNumberTypeWithRegularExpressions(number, metadata), classifier.classify(number));
+  }
+
+  private static boolean matches(String number, PhoneNumberDesc desc) {
+    return Pattern.compile(desc.possibleNumberPattern).matcher(number).matches()
+        && Pattern.compile(desc.nationalNumberPattern).matcher(number).matches();
+  }
+
+  private static PhoneNumberType getNumberTypeWithRegularExpressions(
+      String number, PhoneMetadata metadata) {
+    if (!matches(number, metadata.generalDesc)) {
+      return PhoneNumberType.UNKNOWN;
+    }
+    if (matches(number, metadata.premiumRate)) {
+      return PhoneNumberType.PREMIUM_RATE;
+    }
+    if (matches(number, metadata.tollFree)) {
+      return PhoneNumberType.TOLL_FREE;
+    }
+    if (matches(number, metadata.sharedCost)) {
+      return PhoneNumberType.SHARED_COST;
+    }
+    if (matches(number, metadata.voip)) {
+      return PhoneNumberType.VOIP;
+    }
+    if (matches(number, metadata.personalNumber)) {
+      return PhoneNumberType.PERSONAL_NUMBER;
+    }
+    if (matches(number, metadata.pager)) {
+      return PhoneNumberType.PAGER;
+    }
+    if (matches(number, metadata.uan)) {
+      return PhoneNumberType.UAN;
+    }
+    if (matches(number, metadata.voicemail)) {
+      return PhoneNumberType.VOICEMAIL;
+    }
+    if (matches(number, metadata.fixedLine)) {
+      if (metadata.sameMobileAndFixedLinePattern || matches(number, metadata.mobile)) {
+        return PhoneNumberType.FIXED_LINE_OR_MOBILE;
+      }
+      return PhoneNumberType.FIXED_LINE;
+    }
+    if (!metadata.sameMobileAndFixedLinePattern && matches(number, metadata.mobile)) {
+      return PhoneNumberType.MOBILE;
+    }
+    return PhoneNumberType.UNKNOWN;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for ParseContext.java, which check that reusing a context doesn't make it grow.
+ */
+public class ParseContextTest extends TestCase {
+  private final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testReusingContextDoesNotGrowIt() throws Exception {
+    ParseContext context = new ParseContext();
+    PhoneNumber number = new PhoneNumber();
+    phoneUtil.parse("+64 3 331 6005", RegionCode.NZ, number, context);
+    int matcherCount = context.matcherCount();
+    for (int i = 0; i < 10; i++) {
+      phoneUtil.parse("+64 3 331 6005", RegionCode.NZ, number, context);
+      assertEquals(matcherCount, context.matcherCount());
+    }
+  }
+
+  public void testContextUsedForEveryRegionStaysBounded() throws Exception {
+    // There are more expressions among all the regions than the regex cache holds, so some are
+    // evicted and compiled again on every pass.
+    ParseContext context = new ParseContext();
+    PhoneNumber number = new PhoneNumber();
+    for (int pass = 0; pass < 5; pass++) {
+      for (String regionCode : phoneUtil.getSupportedRegions()) {
+        PhoneNumber exampleNumber = phoneUtil.getExampleNumber(regionCode);
+        if (exampleNumber != null) {
+          String formatted =
+              phoneUtil.format(exampleNumber, PhoneNumberUtil.PhoneNumberFormat.NATIONAL);
+          number.clear();
+          phoneUtil.parse(formatted, regionCode, number, context);
+          assertEquals(formatted, exampleNumber, number);
+          assertTrue(context.matcherCount() <= ParseContext.MAX_MATCHERS);
+        }
+      }
+    }
+  }
+
+  public void testDefaultRegionIsOnlyUsedByItsOwner() throws Exception {
+    PhoneNumberUtil otherUtil =
+        PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    ParseContext context = new ParseContext();
+    // Metadata of the wrong region, recorded by another instance, must not be used.
+    context.setDefaultRegion(otherUtil, RegionCode.NZ, otherUtil.getMetadataForRegion("DE"));
+    PhoneNumber number = new PhoneNumber();
+    phoneUtil.parse("03-331 6005", RegionCode.NZ, number, context);
+    assertEquals(phoneUtil.parse("03-331 6005", RegionCode.NZ), number);
+    assertFalse(context.hasDefaultRegion(phoneUtil, RegionCode.NZ));
+    assertTrue(context.hasDefaultRegion(otherUtil, RegionCode.NZ));
+    assertFalse(context.hasDefaultRegion(otherUtil, null));
+  }
+
+  public void testMatcherIsReusedForRecompiledPattern() {
+    ParseContext context = new ParseContext();
+    Matcher matcher = context.matcher(Pattern.compile("\\d+"), "123");
+    assertTrue(matcher.matches());
+    // The same expression compiled again gets the same matcher, now using the new pattern.
+    Pattern recompiled = Pattern.compile("\\d+");
+    assertSame(matcher, context.matcher(recompiled, "abc"));
+    assertSame(recompiled, matcher.pattern());
+    assertFalse(matcher.matches());
+    assertEquals(1, context.matcherCount());
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for PhoneNumberNormalizer.java, which check its tables against the mappings and the
+ * regular expression they replaced.
+ */
+public class PhoneNumberNormalizerTest extends TestCase {
+  private static final Pattern VALID_ALPHA_PHONE_PATTERN =
+      Pattern.compile(PhoneNumberUtil.VALID_ALPHA_PHONE);
+
+  // Pieces of numbers, including digits and letters in other scripts and widths, letters whose
+  // upper case is an ASCII letter, and line terminators, which stop a number being an alpha number.
+  private static final String[] FRAGMENTS = {
+      "1", "800", "\uFF11", "\u0664", "\u06F5", "A", "b", "Z", "\u0131", "\u017F", "\u212A",
+      "\u00E9", " ", "-", "\u2013", "\uFF0D", "\n", "\r", "\u0085", "\u2028", "+", "*", "#",
+      "\uD835\uDFCE"};
+
+  public void testEveryCharacterInTheBmp() {
+    for (int i = Character.MIN_VALUE; i <= Character.MAX_VALUE; i++) {
+      char c = (char) i;
+      String number = String.valueOf(c);
+      int digit = Character.digit(c, 10);
+      assertEquals(number, (digit == -1) ? "" : String.valueOf(digit),
+          PhoneNumberUtil.normalizeDigitsOnly(number));
+      assertEquals(number, (digit == -1) ? '\0' : Character.forDigit(digit, 10),
+          PhoneNumberNormalizer.toAsciiDigit(c));
+      assertEquals(number, replace(number, PhoneNumberUtil.ALPHA_PHONE_MAPPINGS, false),
+          PhoneNumberUtil.convertAlphaCharactersInNumber(number));
+      assertEquals(number, replace(number, PhoneNumberUtil.DIALLABLE_CHAR_MAPPINGS, true),
+          PhoneNumberUtil.normalizeDiallableCharsOnly(number));
+      StringBuilder normalized = new StringBuilder();
+      PhoneNumberNormalizer.normalizeNumberGroupingChars(number, normalized);
+      assertEquals(number, replace(number, PhoneNumberUtil.ALL_PLUS_NUMBER_GROUPING_SYMBOLS, true),
+          normalized.toString());
+      // Enough letters for the number to be normalized as an alpha number.
+      String alphaNumber = "abc" + c;
+      assertEquals(alphaNumber, normalizeWithMappings(alphaNumber),
+          PhoneNumberUtil.normalize(alphaNumber));
+    }
+  }
+
+  public void testRandomStrings() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder number = new StringBuilder();
+      for (int fragments = 1 + random.nextInt(10); fragments > 0; fragments--) {
+        number.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      String expected = normalizeWithMappings(number.toString());
+      assertEquals(number.toString(), expected, PhoneNumberUtil.normalize(number.toString()));
+      PhoneNumberUtil.normalize(number);
+      assertEquals(expected, number.toString());
+    }
+  }
+
+  public void testAppendsToBuffer() {
+    StringBuilder buffer = new StringBuilder("Tel: ");
+    PhoneNumberUtil.normalizeDigitsOnly("\uFF13\uFF10-\u0664\u06F5 x", buffer);
+    assertEquals("Tel: 3045", buffer.toString());
+    buffer.setLength(0);
+    PhoneNumberUtil.convertAlphaCharactersInNumber("1800-six-FLAG", buffer);
+    assertEquals("1800-749-3524", buffer.toString());
+    buffer.setLength(0);
+    PhoneNumberNormalizer.normalize(new StringBuilder("1800 SIX\u2013flag"), buffer);
+    assertEquals("18007493524", buffer.toString());
+  }
+
+  /** Normalizes the number as PhoneNumberUtil did before it used PhoneNumberNormalizer. */
+  private static String normalizeWithMappings(String number) {
+    if (VALID_ALPHA_PHONE_PATTERN.matcher(number).matches()) {
+      return replace(number, PhoneNumberUtil.ALPHA_PHONE_MAPPINGS, true);
+    }
+    StringBuilder normalized = new StringBuilder();
+    for (char c : number.toCharArray()) {
+      int digit = Character.digit(c, 10);
+      if (digit != -1) {
+        normalized.append(digit);
+      }
+    }
+    return normalized.toString();
+  }
+
+  private static String replace(String number, Map<Character, Character> replacements,
+                                boolean removeNonMatches) {
+    StringBuilder normalized = new StringBuilder();
+    for (char c : number.toCharArray()) {
+      Character replacement = replacements.get(Character.toUpperCase(c));
+      if (replacement != null) {
+        normalized.append(replacement);
+      } else if (!removeNonMatches) {
+        normalized.append(c);
+      }
+    }
+    return normalized.toString();
+  }
+}
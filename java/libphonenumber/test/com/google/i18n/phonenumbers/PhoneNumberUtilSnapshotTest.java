@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberType;
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.internal.RegexBasedMatcher;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for PhoneNumberUtilSnapshot.java.
+ */
+public class PhoneNumberUtilSnapshotTest extends TestCase {
+  private static final List<String> REGION_CODES =
+      Arrays.asList(RegionCode.US, RegionCode.CA, RegionCode.GB, RegionCode.DE);
+
+  private final PhoneNumberUtil phoneUtil = PhoneNumberUtil.createRestrictedInstance(
+      PhoneNumberUtil.DEFAULT_METADATA_LOADER, REGION_CODES, Arrays.asList(800));
+
+  public void testRestoredInstanceGivesSameResults() throws Exception {
+    File snapshotFile = File.createTempFile("snapshot", ".dat");
+    try {
+      phoneUtil.writeSnapshot(new FileOutputStream(snapshotFile));
+      PhoneNumberUtil restoredUtil = PhoneNumberUtil.createInstanceFromSnapshot(snapshotFile);
+      assertEquals(phoneUtil.getSupportedRegions(), restoredUtil.getSupportedRegions());
+      assertEquals(Collections.singleton(800),
+          restoredUtil.getSupportedGlobalNetworkCallingCodes());
+      for (String regionCode : REGION_CODES) {
+        for (PhoneNumberType type : PhoneNumberType.values()) {
+          PhoneNumber exampleNumber = phoneUtil.getExampleNumberForType(regionCode, type);
+          if (exampleNumber != null) {
+            assertSameResults(restoredUtil, exampleNumber);
+          }
+        }
+      }
+      assertSameResults(restoredUtil, phoneUtil.getExampleNumberForNonGeoEntity(800));
+      assertEquals(phoneUtil.parse("+44 20 7031 3000", RegionCode.DE),
+          restoredUtil.parse("+44 20 7031 3000", RegionCode.DE));
+      // Regions outside the snapshot stay unsupported.
+      assertFalse(restoredUtil.isValidNumber(
+          new PhoneNumber().setCountryCode(33).setNationalNumber(123456789L)));
+    } finally {
+      snapshotFile.delete();
+    }
+  }
+
+  public void testRejectsInvalidSnapshots() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    phoneUtil.writeSnapshot(out);
+    byte[] valid = out.toByteArray();
+    PhoneNumberUtilSnapshot.read(ByteBuffer.wrap(valid));
+
+    assertInvalid(new byte[] {1, 2, 3});
+    byte[] wrongVersion = valid.clone();
+    wrongVersion[7]++;
+    assertInvalid(wrongVersion);
+    byte[] truncated = new byte[valid.length - 1];
+    System.arraycopy(valid, 0, truncated, 0, truncated.length);
+    assertInvalid(truncated);
+    // A snapshot with no calling codes that ends in the middle of the metadata length, so reading
+    // it underflows. The underflow is kept as the cause.
+    byte[] endsMidInt = new byte[14];
+    System.arraycopy(valid, 0, endsMidInt, 0, 8);
+    IOException e = assertInvalid(endsMidInt);
+    assertTrue(e.getMessage().startsWith("truncated snapshot: "));
+    assertTrue(e.getCause() instanceof BufferUnderflowException);
+    byte[] trailing = new byte[valid.length + 1];
+    System.arraycopy(valid, 0, trailing, 0, valid.length);
+    assertInvalid(trailing);
+  }
+
+  public void testCannotWriteSnapshotOfCustomMatcher() throws IOException {
+    PhoneNumberUtil customUtil = PhoneNumberUtil.createInstance(
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER),
+        RegexBasedMatcher.create());
+    final boolean[] closed = new boolean[1];
+    try {
+      customUtil.writeSnapshot(new ByteArrayOutputStream() {
+        @Override
+        public void close() {
+          closed[0] = true;
+        }
+      });
+      fail("expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // Expected.
+    }
+    // The stream is closed even though nothing could be written.
+    assertTrue(closed[0]);
+  }
+
+  private void assertSameResults(PhoneNumberUtil restoredUtil, PhoneNumber number) {
+    assertEquals(phoneUtil.isValidNumber(number), restoredUtil.isValidNumber(number));
+    assertEquals(phoneUtil.getNumberType(number), restoredUtil.getNumberType(number));
+    assertEquals(phoneUtil.getRegionCodeForNumber(number),
+        restoredUtil.getRegionCodeForNumber(number));
+    for (PhoneNumberFormat format : PhoneNumberFormat.values()) {
+      assertEquals(phoneUtil.format(number, format), restoredUtil.format(number, format));
+    }
+  }
+
+  private static IOException assertInvalid(byte[] contents) throws IOException {
+    File snapshotFile = File.createTempFile("snapshot", ".dat");
+    try {
+      FileOutputStream out = new FileOutputStream(snapshotFile);
+      out.write(contents);
+      out.close();
+      PhoneNumberUtil.createInstanceFromSnapshot(snapshotFile);
+      fail("expected IOException");
+      return null;
+    } catch (IOException e) {
+      return e;
+    } finally {
+      snapshotFile.delete();
+    }
+  }
+}
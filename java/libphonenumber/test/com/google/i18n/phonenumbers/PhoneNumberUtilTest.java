@@ -19,11 +19,17 @@ package com.google.i18n.phonenumbers;
 import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
 import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber.CountryCodeSource;
+import com.google.i18n.phonenumbers.internal.MatcherApi;
+import com.google.i18n.phonenumbers.internal.RegexBasedMatcher;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.NumberFormat;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
 import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -132,6 +138,98 @@ public class PhoneNumberUtilTest extends TestMetadataTestCase {
     assertNull(phoneUtil.getMetadataForNonGeographicalRegion(-1));
   }
 
+  public void testWarmUp() {
+    WarmUpReport report = phoneUtil.warmUp(
+        Arrays.asList(RegionCode.US, RegionCode.GB, RegionCode.UN001, "No Such Region"));
+    assertEquals(Arrays.asList(RegionCode.US, RegionCode.GB, RegionCode.UN001),
+        report.getRegionCodes());
+    assertEquals(Arrays.asList("No Such Region"), report.getUnsupportedRegionCodes());
+    assertTrue(report.getExampleNumberCount() > 0);
+    assertTrue(report.getMetadataLoadNanos() >= 0);
+    assertTrue(report.getPatternCompileNanos() >= 0);
+    assertTrue(report.getIndexBuildNanos() >= 0);
+    assertTrue(report.getTotalNanos() >= report.getExampleNumberNanos());
+
+    report = phoneUtil.warmUp(Arrays.asList(RegionCode.DE), false);
+    assertEquals(0, report.getExampleNumberCount());
+    assertEquals(0, report.getUnsupportedRegionCodes().size());
+    // Warming up must not change any results.
+    assertTrue(phoneUtil.isValidNumber(US_NUMBER));
+    assertEquals(PhoneNumberUtil.PhoneNumberType.FIXED_LINE_OR_MOBILE,
+                 phoneUtil.getNumberType(US_NUMBER));
+  }
+
+  public void testRestrictedInstance() throws Exception {
+    final List<String> loadedFiles = Collections.synchronizedList(new ArrayList<String>());
+    MetadataLoader countingLoader = new MetadataLoader() {
+      @Override
+      public InputStream loadMetadata(String metadataFileName) {
+        loadedFiles.add(metadataFileName);
+        return PhoneNumberUtil.DEFAULT_METADATA_LOADER.loadMetadata(metadataFileName);
+      }
+    };
+    // BS shares its country calling code with the US, which is therefore kept too.
+    PhoneNumberUtil restrictedUtil = new PhoneNumberUtil(
+        new MultiFileMetadataSourceImpl(TEST_META_DATA_FILE_PREFIX, countingLoader),
+        PhoneNumberUtil.restrictCountryCallingCodeMap(
+            CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap(),
+            Arrays.asList(RegionCode.BS, RegionCode.DE), Arrays.asList(800)));
+    assertEquals(new HashSet<String>(Arrays.asList(RegionCode.US, RegionCode.BS, RegionCode.DE)),
+        restrictedUtil.getSupportedRegions());
+    assertEquals(Collections.singleton(800),
+        restrictedUtil.getSupportedGlobalNetworkCallingCodes());
+
+    assertTrue(restrictedUtil.isValidNumber(BS_NUMBER));
+    assertTrue(restrictedUtil.isValidNumber(DE_NUMBER));
+    assertTrue(restrictedUtil.isValidNumber(INTERNATIONAL_TOLL_FREE));
+    assertFalse(restrictedUtil.isValidNumber(GB_NUMBER));
+    assertNull(restrictedUtil.getRegionCodeForNumber(GB_NUMBER));
+    assertEquals(DE_NUMBER, restrictedUtil.parse("030 123456", RegionCode.DE));
+    try {
+      restrictedUtil.parse("+44 20 7031 3000", RegionCode.DE);
+      fail("Numbers from other regions should be rejected.");
+    } catch (NumberParseException e) {
+      assertEquals(NumberParseException.ErrorType.INVALID_COUNTRY_CODE, e.getErrorType());
+    }
+    try {
+      restrictedUtil.parse("020 7031 3000", RegionCode.GB);
+      fail("Other regions should be treated as unknown.");
+    } catch (NumberParseException e) {
+      assertEquals(NumberParseException.ErrorType.INVALID_COUNTRY_CODE, e.getErrorType());
+    }
+
+    MetadataFootprint footprint = restrictedUtil.estimateMetadataFootprint();
+    assertEquals(3, footprint.getRegionCount());
+    assertEquals(1, footprint.getGlobalNetworkCallingCodeCount());
+    assertTrue(footprint.getEstimatedBytes() > 0);
+    assertTrue(footprint.getEstimatedBytes()
+        < phoneUtil.estimateMetadataFootprint().getEstimatedBytes());
+    // Only the metadata of the listed regions was ever loaded.
+    for (String fileName : loadedFiles) {
+      assertTrue(fileName, fileName.endsWith("_US") || fileName.endsWith("_BS")
+          || fileName.endsWith("_DE") || fileName.endsWith("_800"));
+    }
+  }
+
+  public void testRestrictedInstanceRejectsUnsupportedRegions() {
+    try {
+      PhoneNumberUtil.restrictCountryCallingCodeMap(
+          CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap(),
+          Arrays.asList(RegionCode.US, "No Such Region"), Collections.<Integer>emptyList());
+      fail("Unsupported region codes should be rejected.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      PhoneNumberUtil.restrictCountryCallingCodeMap(
+          CountryCodeToRegionCodeMapForTesting.getCountryCodeToRegionCodeMap(),
+          Arrays.asList(RegionCode.US), Arrays.asList(1));
+      fail("Calling codes of geographical regions should be rejected.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
   private boolean exactlySame(PhoneNumberDesc first, PhoneNumberDesc second) {
     return first.nationalNumberPattern.equals(second.nationalNumberPattern) &&
         first.possibleNumberPattern.equals(second.possibleNumberPattern) &&
@@ -1172,6 +1270,53 @@ public class PhoneNumberUtilTest extends TestMetadataTestCase {
     assertTrue(phoneUtil.isValidNumber(nzNumber));
   }
 
+  public void testIsValidNumberWithCustomMatcherApi() {
+    final MatcherApi regexMatcher = RegexBasedMatcher.create();
+    final int[] calls = new int[1];
+    MatcherApi countingMatcher = new MatcherApi() {
+      public boolean matchesNationalNumber(String nationalNumber, PhoneNumberDesc numberDesc,
+          boolean allowPrefixMatch) {
+        calls[0]++;
+        return regexMatcher.matchesNationalNumber(nationalNumber, numberDesc, allowPrefixMatch);
+      }
+
+      public boolean matchesPossibleNumber(String nationalNumber, PhoneNumberDesc numberDesc) {
+        calls[0]++;
+        return regexMatcher.matchesPossibleNumber(nationalNumber, numberDesc);
+      }
+    };
+    PhoneNumberUtil util = PhoneNumberUtil.createInstance(
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER), countingMatcher);
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertTrue(util.isValidNumber(usNumber));
+    assertEquals(RegionCode.US, util.getRegionCodeForNumber(usNumber));
+    assertTrue(calls[0] > 0);
+
+    try {
+      PhoneNumberUtil.createInstance(
+          new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER), null);
+      fail("Null matcherApi should not be accepted.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testValidationWithNationalNumberBuffer() {
+    NationalNumberBuffer buffer = new NationalNumberBuffer();
+    for (PhoneNumber number : new PhoneNumber[] {
+        US_NUMBER, BS_NUMBER, IT_NUMBER, IT_MOBILE, GB_MOBILE, US_TOLLFREE, US_PREMIUM,
+        AU_NUMBER, INTERNATIONAL_TOLL_FREE, US_LOCAL_NUMBER, NZ_NUMBER}) {
+      assertEquals(number.toString(), phoneUtil.isValidNumber(number),
+          phoneUtil.isValidNumber(number, buffer));
+      assertEquals(number.toString(), phoneUtil.getNumberType(number),
+          phoneUtil.getNumberType(number, buffer));
+      assertEquals(number.toString(), phoneUtil.isValidNumberForRegion(number, RegionCode.US),
+          phoneUtil.isValidNumberForRegion(number, RegionCode.US, buffer));
+    }
+    assertTrue(phoneUtil.isValidNumberForRegion(BS_NUMBER, RegionCode.BS, buffer));
+    assertFalse(phoneUtil.isValidNumberForRegion(BS_NUMBER, RegionCode.US, buffer));
+  }
+
   public void testIsValidForRegion() {
     // This number is valid for the Bahamas, but is not a valid US number.
     assertTrue(phoneUtil.isValidNumber(BS_NUMBER));
@@ -2207,6 +2352,101 @@ public class PhoneNumberUtilTest extends TestMetadataTestCase {
     assertEquals(nzNumberWithRawInput, phoneUtil.parseAndKeepRawInput("+64 3 331 6005", null));
   }
 
+  public void testParseWithContext() throws Exception {
+    // The same context is used for every number. Any CharSequence may be parsed, not just a String.
+    ParseContext context = new ParseContext();
+    assertParsesWithContext(US_NUMBER, "(650) 253-0000", RegionCode.US, context);
+    assertParsesWithContext(NZ_NUMBER, "+64 3 331 6005", RegionCode.ZZ, context);
+    assertParsesWithContext(NZ_NUMBER, "033316005", RegionCode.NZ, context);
+    assertParsesWithContext(NZ_NUMBER, "tel:03-331-6005;isub=12345;phone-context=+64",
+                            RegionCode.ZZ, context);
+    assertParsesWithContext(new PhoneNumber().mergeFrom(US_NUMBER).setExtension("1234"),
+                            "+1 650 253 0000 ext. 1234", RegionCode.GB, context);
+    assertParsesWithContext(AR_MOBILE, "0011 54 9 11 8765 4321", RegionCode.AU, context);
+    assertParsesWithContext(new PhoneNumber().setCountryCode(1).setNationalNumber(8007493524L),
+                            "1800 SIX-FLAG", RegionCode.US, context);
+    assertParsesWithContext(NZ_NUMBER, "\uFF10\uFF13\uFF13\uFF13\uFF11\uFF16\uFF10\uFF10\uFF15",
+                            RegionCode.NZ, context);
+    assertParsesWithContext(new PhoneNumber().mergeFrom(NZ_NUMBER).setExtension("302"),
+                            "0 3 331 6005 x302/x2303", RegionCode.NZ, context);
+    assertParseFailsWithContext(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                                "+ 00 210 3 331 6005", RegionCode.NZ, context);
+    assertParseFailsWithContext(NumberParseException.ErrorType.NOT_A_NUMBER, "12. March",
+                                RegionCode.US, context);
+    assertParseFailsWithContext(NumberParseException.ErrorType.INVALID_COUNTRY_CODE, "+02 366",
+                                RegionCode.US, context);
+    assertParseFailsWithContext(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                                "123 456 7890", RegionCode.CS, context);
+    assertParseFailsWithContext(NumberParseException.ErrorType.NOT_A_NUMBER, "", RegionCode.US,
+                                context);
+
+    PhoneNumber number = new PhoneNumber();
+    phoneUtil.parseAndKeepRawInput(new StringBuilder("+64 3 331 6005"), RegionCode.ZZ, number,
+                                   context);
+    assertEquals(new PhoneNumber().mergeFrom(NZ_NUMBER).setRawInput("+64 3 331 6005")
+        .setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITH_PLUS_SIGN)
+        .setPreferredDomesticCarrierCode(""), number);
+    number.clear();
+    phoneUtil.parseAndKeepRawInput(new StringBuilder("0011 54 9 11 8765 4321"), RegionCode.AU,
+                                   number, context);
+    assertEquals(new PhoneNumber().mergeFrom(AR_MOBILE).setRawInput("0011 54 9 11 8765 4321")
+        .setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITH_IDD)
+        .setPreferredDomesticCarrierCode(""), number);
+    number.clear();
+    phoneUtil.parseAndKeepRawInput(new StringBuilder("1800 SIX-FLAG"), RegionCode.US, number,
+                                   context);
+    assertEquals(new PhoneNumber().setCountryCode(1).setNationalNumber(8007493524L)
+        .setRawInput("1800 SIX-FLAG")
+        .setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITHOUT_PLUS_SIGN)
+        .setPreferredDomesticCarrierCode(""), number);
+  }
+
+  private void assertParsesWithContext(PhoneNumber expected, String numberToParse,
+      String defaultRegion, ParseContext context) throws NumberParseException {
+    PhoneNumber number = new PhoneNumber();
+    phoneUtil.parse(new StringBuilder(numberToParse), defaultRegion, number, context);
+    assertEquals(numberToParse, expected, number);
+  }
+
+  private void assertParseFailsWithContext(NumberParseException.ErrorType expectedError,
+      String numberToParse, String defaultRegion, ParseContext context) {
+    try {
+      phoneUtil.parse(new StringBuilder(numberToParse), defaultRegion, new PhoneNumber(), context);
+      fail("Expected " + expectedError + " for " + numberToParse);
+    } catch (NumberParseException e) {
+      assertEquals(numberToParse, expectedError, e.getErrorType());
+    }
+  }
+
+  public void testTryParse() throws Exception {
+    PhoneNumber number = new PhoneNumber();
+    assertNull(phoneUtil.tryParse("033316005", RegionCode.NZ, number));
+    assertEquals(NZ_NUMBER, number);
+    number.clear();
+    assertNull(phoneUtil.tryParseAndKeepRawInput("+64 3 331 6005", null, number));
+    assertEquals(new PhoneNumber().mergeFrom(NZ_NUMBER).setRawInput("+64 3 331 6005")
+        .setCountryCodeSource(CountryCodeSource.FROM_NUMBER_WITH_PLUS_SIGN)
+        .setPreferredDomesticCarrierCode(""), number);
+
+    assertEquals(NumberParseException.ErrorType.NOT_A_NUMBER,
+                 phoneUtil.tryParse(null, RegionCode.NZ, new PhoneNumber()));
+    assertEquals(NumberParseException.ErrorType.NOT_A_NUMBER,
+                 phoneUtil.tryParse("This is not a phone number", RegionCode.NZ,
+                                    new PhoneNumber()));
+    assertEquals(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                 phoneUtil.tryParse("123 456 7890", RegionCode.ZZ, new PhoneNumber()));
+    // The plus sign is stripped and the country calling code looked for again, as in parse.
+    assertEquals(NumberParseException.ErrorType.INVALID_COUNTRY_CODE,
+                 phoneUtil.tryParse("+02 366", RegionCode.US, new PhoneNumber()));
+    assertEquals(NumberParseException.ErrorType.TOO_SHORT_AFTER_IDD,
+                 phoneUtil.tryParse("0044------", RegionCode.GB, new PhoneNumber()));
+    assertEquals(NumberParseException.ErrorType.TOO_SHORT_NSN,
+                 phoneUtil.tryParse("+49 0", RegionCode.DE, new PhoneNumber()));
+    assertEquals(NumberParseException.ErrorType.TOO_LONG,
+                 phoneUtil.tryParseAndKeepRawInput("01495 72553301873 810104", RegionCode.GB,
+                                                   new PhoneNumber(), new ParseContext()));
+  }
+
   public void testParseNumberTooShortIfNationalPrefixStripped() throws Exception {
     // Test that a number whose first digits happen to coincide with the national prefix does not
     // get them stripped if doing so would result in a number too short to be a possible (regular
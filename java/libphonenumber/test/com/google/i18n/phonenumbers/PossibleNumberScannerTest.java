@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for PossibleNumberScanner.java, which check it against the regular expressions it
+ * replaced.
+ */
+public class PossibleNumberScannerTest extends TestCase {
+  private static final Pattern VALID_START_CHAR_PATTERN =
+      Pattern.compile(PhoneNumberUtil.VALID_START_CHAR);
+  private static final Pattern UNWANTED_END_CHAR_PATTERN =
+      Pattern.compile(PhoneNumberUtil.UNWANTED_END_CHARS);
+  private static final Pattern SECOND_NUMBER_START_PATTERN =
+      Pattern.compile(PhoneNumberUtil.SECOND_NUMBER_START);
+  private static final Pattern VALID_PHONE_NUMBER_PATTERN = Pattern.compile(
+      PhoneNumberUtil.VALID_PHONE_NUMBER + "(?:" + PhoneNumberUtil.EXTN_PATTERNS_FOR_PARSING + ")?",
+      PhoneNumberUtil.REGEX_FLAGS);
+
+  // Pieces of phone numbers and the text around them, including digits and letters outside the
+  // BMP, unpaired surrogates, and the starts of extensions.
+  private static final String[] FRAGMENTS = {
+      "0", "1", "5", "9", "\u0663", "\uFF15", "\uD835\uDFCE", "\uD835\uDC00", "\uD800", "\uDC00",
+      "+", "\uFF0B", " ", "-", "x", "X", "/", "\\", "#", "\uFF03", "*", ";ext=", "ext.", "extensi",
+      "o\u0301n", "\u00F3", "anexo", "int", "\uFF45\uFF58\uFF54", "\uFF58", ",", ":", "\n", "\r\n",
+      "\t", "a", "Z", "\u212A", "\u0131", "(", ")", "\uFF08", "\u3000", "\u00A0", "~", "\uFF5E",
+      ".", "\u2212", "tel:", "=", "\u00BD", "\u2160"};
+
+  public void testExamples() {
+    assertSameAsRegularExpressions("(530) 583-6985 x302/x2303");
+    assertSameAsRegularExpressions("Tel: +1 650 253 0000 ext. 1234");
+    assertSameAsRegularExpressions("1800 SIX-FLAG... ");
+    assertSameAsRegularExpressions("+49 (0) 30 1234567 \\ x 12");
+    assertSameAsRegularExpressions("650 253 0000;ext=1234");
+    assertSameAsRegularExpressions("650 253 0000 - 1234#");
+    assertSameAsRegularExpressions("650 253 0000 ext 1234\n");
+    assertSameAsRegularExpressions("12 \uD835\uDFCF!");
+    assertSameAsRegularExpressions("no number here");
+    assertSameAsRegularExpressions("");
+  }
+
+  public void testEveryCharacterInTheBmp() {
+    for (int i = Character.MIN_VALUE; i <= Character.MAX_VALUE; i++) {
+      char c = (char) i;
+      // Only whole strings are checked for viability here, which is much quicker.
+      assertFoundSameAsRegularExpressions(c + "12");
+      assertViableSameAsRegularExpressions(c + "12", 3);
+      assertViableSameAsRegularExpressions("1" + c + "23", 4);
+      assertFoundSameAsRegularExpressions("+123" + c + "4");
+      assertViableSameAsRegularExpressions("+123" + c + "4", 6);
+    }
+  }
+
+  public void testRandomStrings() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder number = new StringBuilder();
+      for (int fragments = 1 + random.nextInt(12); fragments > 0; fragments--) {
+        number.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      assertSameAsRegularExpressions(number.toString());
+    }
+  }
+
+  private void assertSameAsRegularExpressions(String number) {
+    assertFoundSameAsRegularExpressions(number);
+    // Every prefix is checked, as maybeStripExtension checks the number before an extension.
+    for (int end = 0; end <= number.length(); end++) {
+      assertViableSameAsRegularExpressions(number, end);
+    }
+  }
+
+  private void assertFoundSameAsRegularExpressions(String number) {
+    Matcher startMatcher = VALID_START_CHAR_PATTERN.matcher(number);
+    int start = startMatcher.find() ? startMatcher.start() : -1;
+    assertEquals(number, start, PossibleNumberScanner.findPossibleNumberStart(number));
+    if (start >= 0) {
+      int end = number.length();
+      Matcher trailingCharsMatcher = UNWANTED_END_CHAR_PATTERN.matcher(number);
+      if (trailingCharsMatcher.region(start, end).find()) {
+        end = trailingCharsMatcher.start();
+      }
+      Matcher secondNumberMatcher = SECOND_NUMBER_START_PATTERN.matcher(number);
+      if (secondNumberMatcher.region(start, end).find()) {
+        end = secondNumberMatcher.start();
+      }
+      assertEquals(number, end, PossibleNumberScanner.findPossibleNumberEnd(number, start));
+    }
+
+    // PhoneNumberMatcher trims candidates with these on their own.
+    Matcher trailingCharsMatcher = UNWANTED_END_CHAR_PATTERN.matcher(number);
+    int trimmedEnd = trailingCharsMatcher.find() ? trailingCharsMatcher.start() : number.length();
+    assertEquals(number, trimmedEnd,
+        PossibleNumberScanner.trimTrailingChars(number, 0, number.length()));
+    Matcher secondNumberMatcher = SECOND_NUMBER_START_PATTERN.matcher(number);
+    assertEquals(number, secondNumberMatcher.find() ? secondNumberMatcher.start() : -1,
+        PossibleNumberScanner.findSecondNumberStart(number, 0, number.length()));
+  }
+
+  private void assertViableSameAsRegularExpressions(String number, int end) {
+    assertEquals(number + " up to " + end,
+        VALID_PHONE_NUMBER_PATTERN.matcher(number).region(0, end).matches(),
+        PossibleNumberScanner.isViablePhoneNumber(number, end));
+  }
+}
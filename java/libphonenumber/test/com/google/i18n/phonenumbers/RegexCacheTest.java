@@ -18,6 +18,9 @@ package com.google.i18n.phonenumbers;
 
 import junit.framework.TestCase;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Unittests for LRU Cache for compiled regular expressions used by the libphonenumbers libary.
  *
@@ -52,4 +55,44 @@ public class RegexCacheTest extends TestCase {
     assertFalse(regexCache.containsRegex(regex2));
     assertTrue(regexCache.containsRegex(regex1));
   }
+
+  public void testConcurrentAccess() throws Exception {
+    final RegexCache sharedCache = new RegexCache(10);
+    final int threadCount = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    for (int t = 0; t < threadCount; t++) {
+      final int seed = t;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < 2000; i++) {
+              String regex = "[0-" + ((seed + i) % 10) + "]\\d{" + (i % 15) + "}";
+              if (!sharedCache.getPatternForRegex(regex).pattern().equals(regex)) {
+                failure.set(regex);
+              }
+            }
+          } catch (InterruptedException e) {
+            failure.set(e.toString());
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+    assertNull(failure.get());
+    // Entries that are in use stay in the cache.
+    final String regex = "[1-5]";
+    sharedCache.getPatternForRegex(regex);
+    for (int i = 0; i < 100; i++) {
+      sharedCache.getPatternForRegex(regex);
+      sharedCache.getPatternForRegex("\\d{" + i + "}");
+    }
+    assertTrue(sharedCache.containsRegex(regex));
+  }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies that RegionSelector never leaves out a region that getRegionCodeForNumber would pick
+ * when checking every region sharing the country calling code.
+ */
+public class RegionSelectorTest extends TestCase {
+  private static final PhoneNumberUtil phoneUtil =
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  public void testAgreesWithCheckingAllRegions() throws Exception {
+    Random random = new Random(5);
+    Set<Integer> countryCallingCodes = new TreeSet<Integer>();
+    for (String regionCode : phoneUtil.getSupportedRegions()) {
+      countryCallingCodes.add(phoneUtil.getCountryCodeForRegion(regionCode));
+    }
+    for (int countryCallingCode : countryCallingCodes) {
+      List<String> regionCodes = phoneUtil.getRegionCodesForCountryCode(countryCallingCode);
+      if (regionCodes.size() < 2) {
+        continue;
+      }
+      RegionSelector selector = createSelector(regionCodes);
+      for (String regionCode : regionCodes) {
+        PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+        for (PhoneNumberDesc desc : new PhoneNumberDesc[] {
+            metadata.fixedLine, metadata.mobile, metadata.tollFree, metadata.premiumRate,
+            metadata.voip, metadata.uan}) {
+          String example = desc.exampleNumber;
+          if (example.length() == 0) {
+            continue;
+          }
+          StringBuilder mutated = new StringBuilder(example);
+          mutated.setCharAt(random.nextInt(mutated.length()), (char) ('0' + random.nextInt(10)));
+          for (String number : new String[] {example, mutated.toString()}) {
+            assertSelectsAsFullScan(countryCallingCode, regionCodes, selector, number);
+          }
+        }
+      }
+    }
+  }
+
+  public void testNanpaAreaCodes() {
+    List<String> regionCodes = phoneUtil.getRegionCodesForCountryCode(1);
+    RegionSelector selector = createSelector(regionCodes);
+    int[] candidates = selector.getCandidates("6502530000");
+    assertEquals(1, candidates.length);
+    assertEquals(RegionCode.US, regionCodes.get(candidates[0]));
+    candidates = selector.getCandidates("4165550000");
+    assertEquals(1, candidates.length);
+    assertEquals(RegionCode.CA, regionCodes.get(candidates[0]));
+  }
+
+  public void testShortOrNonDigitNumbersAreNotNarrowed() {
+    RegionSelector selector = createSelector(phoneUtil.getRegionCodesForCountryCode(1));
+    assertNull(selector.getCandidates("65"));
+    assertNull(selector.getCandidates("6a02530000"));
+  }
+
+  public void testMissingMetadataIsNotNarrowed() {
+    List<String> regionCodes = phoneUtil.getRegionCodesForCountryCode(1);
+    RegionSelector selector = RegionSelector.create(regionCodes,
+        new PhoneMetadata[regionCodes.size()], new NumberTypeClassifier[regionCodes.size()]);
+    assertNull(selector.getCandidates("6502530000"));
+  }
+
+  public void testMetadataThatKeepsChangingFallsBackToCheckingAllRegions() throws Exception {
+    // A source handing out a changed copy of the metadata every time, so the selector is always
+    // stale. The change wraps the general pattern in a group, which doesn't change what it matches.
+    final MetadataSource source =
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    PhoneNumberUtil changingUtil = PhoneNumberUtil.createInstance(new MetadataSource() {
+      private final AtomicInteger lookups = new AtomicInteger();
+
+      public PhoneMetadata getMetadataForRegion(String regionCode) {
+        return change(copy(source.getMetadataForRegion(regionCode)));
+      }
+
+      public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
+        return change(copy(source.getMetadataForNonGeographicalRegion(countryCallingCode)));
+      }
+
+      private PhoneMetadata change(PhoneMetadata metadata) {
+        if (metadata != null && lookups.incrementAndGet() % 2 == 0) {
+          metadata.generalDesc.nationalNumberPattern =
+              "(?:" + metadata.generalDesc.nationalNumberPattern + ")";
+        }
+        return metadata;
+      }
+    });
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertEquals(RegionCode.US, changingUtil.getRegionCodeForNumber(usNumber));
+    PhoneNumber caNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(4165550000L);
+    assertEquals(RegionCode.CA, changingUtil.getRegionCodeForNumber(caNumber));
+  }
+
+  public void testNewCopiesOfTheSameMetadataKeepWhatWasBuilt() throws Exception {
+    // A source handing out a new copy of unchanged metadata every time, as a metadata source is
+    // allowed to.
+    final MetadataSource source =
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    PhoneNumberUtil copyingUtil = PhoneNumberUtil.createInstance(new MetadataSource() {
+      public PhoneMetadata getMetadataForRegion(String regionCode) {
+        return copy(source.getMetadataForRegion(regionCode));
+      }
+
+      public PhoneMetadata getMetadataForNonGeographicalRegion(int countryCallingCode) {
+        return copy(source.getMetadataForNonGeographicalRegion(countryCallingCode));
+      }
+    });
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertEquals(RegionCode.US, copyingUtil.getRegionCodeForNumber(usNumber));
+    RegionSelector selector = copyingUtil.getRegionSelector(1,
+        copyingUtil.getCountryCallingCodeToRegionCodeMap().get(1));
+    NumberTypeClassifier classifier = copyingUtil.getMetadataIndex(
+        copyingUtil.getMetadataForRegion(RegionCode.US)).getNumberTypeClassifier();
+    PhoneMetadata gbMetadata = copyingUtil.getMetadataForRegion(RegionCode.GB);
+    FormatSelector formatSelector =
+        copyingUtil.getMetadataIndex(gbMetadata).getFormatSelector(gbMetadata.numberFormat);
+
+    PhoneNumber caNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(4165550000L);
+    assertEquals(RegionCode.CA, copyingUtil.getRegionCodeForNumber(caNumber));
+    assertTrue(copyingUtil.isValidNumber(usNumber));
+    assertSame(selector, copyingUtil.getRegionSelector(1,
+        copyingUtil.getCountryCallingCodeToRegionCodeMap().get(1)));
+    assertSame(classifier, copyingUtil.getMetadataIndex(
+        copyingUtil.getMetadataForRegion(RegionCode.US)).getNumberTypeClassifier());
+    gbMetadata = copyingUtil.getMetadataForRegion(RegionCode.GB);
+    assertSame(formatSelector,
+        copyingUtil.getMetadataIndex(gbMetadata).getFormatSelector(gbMetadata.numberFormat));
+  }
+
+  private static PhoneMetadata copy(PhoneMetadata metadata) {
+    if (metadata == null) {
+      return null;
+    }
+    try {
+      return MessageNano.mergeFrom(new PhoneMetadata(), MessageNano.toByteArray(metadata));
+    } catch (InvalidProtocolBufferNanoException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static RegionSelector createSelector(List<String> regionCodes) {
+    PhoneMetadata[] metadata = new PhoneMetadata[regionCodes.size()];
+    NumberTypeClassifier[] classifiers = new NumberTypeClassifier[regionCodes.size()];
+    for (int i = 0; i < metadata.length; i++) {
+      metadata[i] = phoneUtil.getMetadataForRegion(regionCodes.get(i));
+      classifiers[i] = NumberTypeClassifier.create(metadata[i]);
+    }
+    return RegionSelector.create(regionCodes, metadata, classifiers);
+  }
+
+  private static void assertSelectsAsFullScan(int countryCallingCode, List<String> regionCodes,
+      RegionSelector selector, String nationalNumber) throws Exception {
+    PhoneNumber number = phoneUtil.parse("+" + countryCallingCode + nationalNumber, "ZZ");
+    String nsn = phoneUtil.getNationalSignificantNumber(number);
+    String expected = null;
+    for (String regionCode : regionCodes) {
+      PhoneMetadata metadata = phoneUtil.getMetadataForRegion(regionCode);
+      boolean fromRegion = (metadata.leadingDigits.length() > 0)
+          ? Pattern.compile(metadata.leadingDigits).matcher(nsn).lookingAt()
+          : phoneUtil.isValidNumberForRegion(number, regionCode);
+      if (fromRegion) {
+        expected = regionCode;
+        break;
+      }
+    }
+    int[] candidates = selector.getCandidates(nsn);
+    if (expected != null && candidates != null) {
+      boolean found = false;
+      for (int candidate : candidates) {
+        found |= regionCodes.get(candidate).equals(expected);
+      }
+      assertTrue(countryCallingCode + " " + nsn + " should be a candidate for " + expected, found);
+    }
+    assertEquals(countryCallingCode + " " + nsn, expected,
+        phoneUtil.getRegionCodeForNumber(number));
+  }
+}
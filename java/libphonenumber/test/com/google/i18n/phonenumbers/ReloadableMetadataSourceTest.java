@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.Phonenumber.PhoneNumber;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import com.google.protobuf.nano.MessageNano;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for ReloadableMetadataSource.java.
+ */
+public class ReloadableMetadataSourceTest extends TestCase {
+  private static final MetadataSource multiFileSource =
+      new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+
+  private File metadataFile;
+
+  @Override
+  protected void setUp() throws IOException {
+    metadataFile = File.createTempFile("metadata", ".dat");
+    writeUsMetadata(metadataFile, "1");
+  }
+
+  @Override
+  protected void tearDown() {
+    metadataFile.delete();
+  }
+
+  public void testReloadSwapsInNewMetadata() throws IOException {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    PhoneNumberUtil phoneUtil = PhoneNumberUtil.createInstance(source);
+    assertEquals(1, source.getVersion());
+    assertEquals("1", phoneUtil.getNddPrefixForRegion(RegionCode.US, false));
+    PhoneMetadata oldMetadata = source.getMetadataForRegion(RegionCode.US);
+
+    replaceMetadataFile("7");
+    assertTrue(source.reloadIfChanged());
+    assertEquals(2, source.getVersion());
+    assertEquals("7", phoneUtil.getNddPrefixForRegion(RegionCode.US, false));
+    // Readers holding on to the old metadata still see the old version, unchanged.
+    assertEquals("1", oldMetadata.nationalPrefix);
+    // Cached patterns and indexes are rebuilt for the new metadata.
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertTrue(phoneUtil.isValidNumber(usNumber));
+    assertTrue(source.getLoadedAtMillis() > 0);
+    assertTrue(source.getLoadNanos() >= 0);
+  }
+
+  public void testPhoneNumberUtilSeesOneVersion() throws IOException {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    PhoneNumberUtil oldUtil = source.getPhoneNumberUtil();
+    assertSame(oldUtil, source.getPhoneNumberUtil());
+    // The file only has metadata for the US, so that is all the instance supports.
+    assertEquals(Collections.singleton(RegionCode.US), oldUtil.getSupportedRegions());
+    assertEquals("1", oldUtil.getNddPrefixForRegion(RegionCode.US, false));
+
+    replaceMetadataFile("7");
+    assertTrue(source.reloadIfChanged());
+    // The instance got before the reload still sees the old version, and a new one the new.
+    assertEquals("1", oldUtil.getNddPrefixForRegion(RegionCode.US, false));
+    PhoneNumberUtil newUtil = source.getPhoneNumberUtil();
+    assertNotSame(oldUtil, newUtil);
+    assertEquals("7", newUtil.getNddPrefixForRegion(RegionCode.US, false));
+    PhoneNumber usNumber = new PhoneNumber().setCountryCode(1).setNationalNumber(6502530000L);
+    assertTrue(oldUtil.isValidNumber(usNumber));
+    assertTrue(newUtil.isValidNumber(usNumber));
+  }
+
+  public void testRegionMapMatchesBundledMap() {
+    Map<Integer, List<String>> bundledMap =
+        CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap();
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (Map.Entry<Integer, List<String>> entry : bundledMap.entrySet()) {
+      for (String regionCode : entry.getValue()) {
+        metadataList.add(PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode)
+            ? multiFileSource.getMetadataForNonGeographicalRegion(entry.getKey())
+            : multiFileSource.getMetadataForRegion(regionCode));
+      }
+    }
+    Collections.shuffle(metadataList, new Random(1));
+    assertEquals(bundledMap,
+        ReloadableMetadataSource.buildCountryCallingCodeToRegionCodeMap(metadataList));
+  }
+
+  public void testReloadIfChangedSkipsUnchangedFile() throws IOException {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    PhoneMetadata metadata = source.getMetadataForRegion(RegionCode.US);
+    assertFalse(source.reloadIfChanged());
+    assertEquals(1, source.getVersion());
+    assertSame(metadata, source.getMetadataForRegion(RegionCode.US));
+  }
+
+  public void testFailedReloadKeepsCurrentVersion() throws IOException {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    PhoneMetadata metadata = source.getMetadataForRegion(RegionCode.US);
+    FileOutputStream out = new FileOutputStream(metadataFile);
+    out.write(new byte[] {1, 2, 3});
+    out.close();
+    try {
+      source.reload();
+      fail("expected IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertEquals(1, source.getVersion());
+    assertSame(metadata, source.getMetadataForRegion(RegionCode.US));
+  }
+
+  public void testFailedDecodeKeepsCause() throws IOException {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    // Keep the header and index, which are 24 bytes for the one entry, but garble the metadata.
+    byte[] contents = new byte[(int) metadataFile.length()];
+    Arrays.fill(contents, 24, contents.length, (byte) 0xFF);
+    RandomAccessFile raf = new RandomAccessFile(metadataFile, "rw");
+    try {
+      raf.readFully(contents, 0, 24);
+      raf.seek(0);
+      raf.write(contents);
+    } finally {
+      raf.close();
+    }
+    try {
+      source.reload();
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("cannot load/parse metadata: "));
+      assertTrue(e.getCause() instanceof RuntimeException);
+    }
+    assertEquals(1, source.getVersion());
+  }
+
+  public void testPollingPicksUpChanges() throws Exception {
+    ReloadableMetadataSource source = new ReloadableMetadataSource(metadataFile);
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ScheduledFuture<?> polling = source.startPolling(executor, 10, TimeUnit.MILLISECONDS);
+      replaceMetadataFile("7");
+      long deadline = System.currentTimeMillis() + 10000;
+      while (source.getVersion() == 1 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      polling.cancel(false);
+      assertEquals(2, source.getVersion());
+      assertEquals("7", source.getMetadataForRegion(RegionCode.US).nationalPrefix);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Writes a new file with the given national prefix for the US, and renames it over the metadata
+  // file, with a modification time that is sure to differ from the old one.
+  private void replaceMetadataFile(String nationalPrefix) throws IOException {
+    File newFile = File.createTempFile("metadata", ".tmp", metadataFile.getParentFile());
+    writeUsMetadata(newFile, nationalPrefix);
+    assertTrue(newFile.setLastModified(metadataFile.lastModified() + 10000));
+    assertTrue(newFile.renameTo(metadataFile));
+  }
+
+  private static void writeUsMetadata(File file, String nationalPrefix) throws IOException {
+    PhoneMetadata metadata;
+    try {
+      metadata = MessageNano.mergeFrom(new PhoneMetadata(),
+          MessageNano.toByteArray(multiFileSource.getMetadataForRegion(RegionCode.US)));
+    } catch (InvalidProtocolBufferNanoException e) {
+      throw new IOException(e.getMessage());
+    }
+    metadata.nationalPrefix = nationalPrefix;
+    MappedFileMetadataSourceImpl.writeMetadataFile(
+        Arrays.asList(metadata), new FileOutputStream(file));
+  }
+}
@@ -16,8 +16,19 @@
 
 package com.google.i18n.phonenumbers;
 
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadataCollection;
+import com.google.protobuf.nano.MessageNano;
+
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Unit tests for SingleFileMetadataSourceImpl.java.
  */
@@ -37,4 +48,43 @@ public class SingleFileMetadataSourceImplTest extends TestCase {
       assertTrue("Unexpected error: " + e, e.getMessage().contains("no/such/file"));
     }
   }
+
+  public void testLooksUpLoadedMetadata() throws IOException {
+    MetadataSource multiFileSource =
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    PhoneMetadataCollection collection = new PhoneMetadataCollection();
+    collection.metadata = new PhoneMetadata[] {
+      multiFileSource.getMetadataForRegion(RegionCode.US),
+      multiFileSource.getMetadataForRegion(RegionCode.GB),
+      multiFileSource.getMetadataForNonGeographicalRegion(800),
+    };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(out);
+    oos.write(MessageNano.toByteArray(collection));
+    oos.close();
+    final byte[] file = out.toByteArray();
+    final AtomicInteger loads = new AtomicInteger();
+    SingleFileMetadataSourceImpl source = new SingleFileMetadataSourceImpl(
+        "single/file", new MetadataLoader() {
+          @Override
+          public InputStream loadMetadata(String metadataFileName) {
+            loads.incrementAndGet();
+            return new ByteArrayInputStream(file);
+          }
+        });
+
+    assertEquals(RegionCode.US, source.getMetadataForRegion(RegionCode.US).id);
+    assertEquals(RegionCode.GB, source.getMetadataForRegion(RegionCode.GB).id);
+    assertEquals(800, source.getMetadataForNonGeographicalRegion(800).countryCode);
+    assertSame(source.getMetadataForRegion(RegionCode.US),
+        source.getMetadataForRegion(RegionCode.US));
+    assertNull(source.getMetadataForRegion(RegionCode.FR));
+    assertNull(source.getMetadataForRegion("No Such Region"));
+    assertNull(source.getMetadataForRegion(null));
+    assertNull(source.getMetadataForNonGeographicalRegion(808));
+    assertNull(source.getMetadataForNonGeographicalRegion(-1));
+    assertNull(source.getMetadataForNonGeographicalRegion(1000));
+    // Missing regions don't cause the file to be loaded again.
+    assertEquals(1, loads.get());
+  }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers.internal;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneNumberDesc;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Unit tests for DigitAutomaton and DfaBasedMatcher.
+ */
+public class DfaBasedMatcherTest extends TestCase {
+  // A selection of patterns taken from the metadata, covering the syntax it uses.
+  private static final String[] PATTERNS = {
+    "\\d{7,10}",
+    "[2-9]\\d{9}",
+    "(?:[2-9]\\d{2}|1[01])\\d{6}",
+    "[1-35-9]\\d{3,14}|[34]\\d{3,13}",
+    "(?:5[1-79]\\d|6\\d{2}|8[4-79]\\d|9(?:0[1-9]|[1-8]\\d))\\d{5}",
+    "1(?:5[0-25-9]\\d{8}|(?:6[023]|7\\d)\\d{7,8})",
+    "(?:1[0-2]|2[0-3])?\\d{4}",
+    "[^0-3]\\d{2}",
+    "8(?:00|66|77)\\d*",
+    "0+1",
+    "1(?:1[2-8]|[2-8]\\d)?",
+    "NA",
+  };
+
+  private final MatcherApi dfaMatcher = DfaBasedMatcher.create();
+  private final MatcherApi regexMatcher = RegexBasedMatcher.create();
+
+  public void testCompileSupportedSyntax() {
+    for (String pattern : PATTERNS) {
+      assertNotNull(pattern, DigitAutomaton.compile(pattern));
+    }
+  }
+
+  public void testCompileUnsupportedSyntax() {
+    assertNull(DigitAutomaton.compile("^\\d+"));
+    assertNull(DigitAutomaton.compile("(\\d)\\1"));
+    assertNull(DigitAutomaton.compile("\\d++"));
+    assertNull(DigitAutomaton.compile("(?=1)\\d"));
+    assertNull(DigitAutomaton.compile("[[1-3]&&[2-4]]"));
+    assertNull(DigitAutomaton.compile("(12"));
+    assertNull(DigitAutomaton.compile("\\d{3,2}"));
+  }
+
+  public void testMatches() {
+    DigitAutomaton automaton = DigitAutomaton.compile("(?:1[0-2]|2[0-3])?\\d{4}");
+    assertTrue(automaton.matches("1234"));
+    assertTrue(automaton.matches("101234"));
+    assertFalse(automaton.matches("131234"));
+    assertFalse(automaton.matches("123"));
+    assertFalse(automaton.matches("12a4"));
+    assertTrue(automaton.matchesPrefix("1234567"));
+    assertFalse(automaton.matchesPrefix("123"));
+  }
+
+  public void testSeveralPatterns() {
+    DigitAutomaton automaton = DigitAutomaton.compile(new String[] {"\\d{4}", "1\\d{3}", "2\\*"});
+    int state = automaton.getFinalState("1234");
+    assertTrue(automaton.accepts(state, 0));
+    assertTrue(automaton.accepts(state, 1));
+    assertFalse(automaton.accepts(state, 2));
+    state = automaton.getFinalState("2234");
+    assertTrue(automaton.accepts(state, 0));
+    assertFalse(automaton.accepts(state, 1));
+    assertEquals(DigitAutomaton.NO_MATCH, automaton.getFinalState("12345"));
+    assertEquals(DigitAutomaton.NOT_DIGITS, automaton.getFinalState("2*"));
+  }
+
+  public void testLengthMasks() {
+    DigitAutomaton automaton = DigitAutomaton.compile(new String[] {"\\d{7}(?:\\d{3})?", "1\\d*"});
+    assertEquals((1L << 7) | (1L << 10), automaton.getLengthMask(0));
+    assertEquals(~1L, automaton.getLengthMask(1));
+    assertTrue(automaton.canMatchLength(1, 100));
+    assertFalse(automaton.canMatchLength(0, 8));
+    assertTrue(DigitAutomaton.compile("\\d{7}(?:\\d{3})?").dependsOnlyOnLength());
+    assertFalse(DigitAutomaton.compile("[2-9]\\d{6}").dependsOnlyOnLength());
+  }
+
+  public void testLiteralsNeverMatchDigits() {
+    DigitAutomaton automaton = DigitAutomaton.compile("NA");
+    assertFalse(automaton.matches(""));
+    assertFalse(automaton.matchesPrefix("12"));
+  }
+
+  public void testAgreesWithRegexBasedMatcher() {
+    Random random = new Random(42);
+    for (String pattern : PATTERNS) {
+      PhoneNumberDesc desc = new PhoneNumberDesc();
+      desc.nationalNumberPattern = pattern;
+      desc.possibleNumberPattern = pattern;
+      for (int i = 0; i < 2000; i++) {
+        String number = randomDigits(random, random.nextInt(16));
+        assertAgrees(desc, number);
+      }
+    }
+  }
+
+  public void testFallsBackToRegexForNonDigitInput() {
+    PhoneNumberDesc desc = new PhoneNumberDesc();
+    desc.nationalNumberPattern = "12\\*";
+    desc.possibleNumberPattern = "\\d{2}\\*";
+    assertTrue(dfaMatcher.matchesNationalNumber("12*", desc, false));
+    assertTrue(dfaMatcher.matchesPossibleNumber("12*", desc));
+    assertFalse(dfaMatcher.matchesNationalNumber("12", desc, false));
+  }
+
+  public void testFallsBackToRegexForUnsupportedPatterns() {
+    PhoneNumberDesc desc = new PhoneNumberDesc();
+    desc.nationalNumberPattern = "(\\d)\\1{2}";
+    desc.possibleNumberPattern = "(\\d)\\1{2}";
+    assertTrue(dfaMatcher.matchesNationalNumber("555", desc, false));
+    assertFalse(dfaMatcher.matchesNationalNumber("556", desc, false));
+    assertTrue(dfaMatcher.matchesNationalNumber("5556", desc, true));
+    assertTrue(dfaMatcher.matchesPossibleNumber("111", desc));
+  }
+
+  private void assertAgrees(PhoneNumberDesc desc, String number) {
+    String message = desc.nationalNumberPattern + " / " + number;
+    assertEquals(message, regexMatcher.matchesNationalNumber(number, desc, false),
+        dfaMatcher.matchesNationalNumber(number, desc, false));
+    assertEquals(message, regexMatcher.matchesNationalNumber(number, desc, true),
+        dfaMatcher.matchesNationalNumber(number, desc, true));
+    assertEquals(message, regexMatcher.matchesPossibleNumber(number, desc),
+        dfaMatcher.matchesPossibleNumber(number, desc));
+  }
+
+  private static String randomDigits(Random random, int length) {
+    StringBuilder digits = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      digits.append((char) ('0' + random.nextInt(10)));
+    }
+    return digits.toString();
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import com.google.i18n.phonenumbers.nano.Phonemetadata.PhoneMetadata;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tool to write the metadata of all the regions and non-geographical entities bundled with the
+ * library to a single file, in the format read by {@link MappedFileMetadataSourceImpl}.
+ */
+public class BuildMappedMetadataFile extends Command {
+  private static final Logger LOGGER = Logger.getLogger(BuildMappedMetadataFile.class.getName());
+
+  @Override
+  public String getCommandName() {
+    return "BuildMappedMetadataFile";
+  }
+
+  @Override
+  public boolean start() {
+    String[] args = getArgs();
+    if (args.length != 2) {
+      LOGGER.log(Level.SEVERE, "usage: BuildMappedMetadataFile /path/to/output/file");
+      return false;
+    }
+    MetadataSource source =
+        new MultiFileMetadataSourceImpl(PhoneNumberUtil.DEFAULT_METADATA_LOADER);
+    List<PhoneMetadata> metadataList = new ArrayList<PhoneMetadata>();
+    for (Map.Entry<Integer, List<String>> entry :
+        CountryCodeToRegionCodeMap.getCountryCodeToRegionCodeMap().entrySet()) {
+      for (String regionCode : entry.getValue()) {
+        PhoneMetadata metadata =
+            PhoneNumberUtil.REGION_CODE_FOR_NON_GEO_ENTITY.equals(regionCode)
+            ? source.getMetadataForNonGeographicalRegion(entry.getKey())
+            : source.getMetadataForRegion(regionCode);
+        if (metadata != null) {
+          metadataList.add(metadata);
+        }
+      }
+    }
+    try {
+      // writeMetadataFile closes the stream.
+      MappedFileMetadataSourceImpl.writeMetadataFile(metadataList,
+          new BufferedOutputStream(new FileOutputStream(args[1])));
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage());
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 The Libphonenumber Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.i18n.phonenumbers;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tool to write a snapshot of a {@link PhoneNumberUtil} using the metadata bundled with the
+ * library, which {@link PhoneNumberUtil#createInstanceFromSnapshot} can restore.
+ */
+public class BuildPhoneNumberUtilSnapshot extends Command {
+  private static final Logger LOGGER =
+      Logger.getLogger(BuildPhoneNumberUtilSnapshot.class.getName());
+
+  @Override
+  public String getCommandName() {
+    return "BuildPhoneNumberUtilSnapshot";
+  }
+
+  @Override
+  public boolean start() {
+    String[] args = getArgs();
+    if (args.length != 2) {
+      LOGGER.log(Level.SEVERE, "usage: BuildPhoneNumberUtilSnapshot /path/to/output/file");
+      return false;
+    }
+    try {
+      // writeSnapshot closes the stream, even if it fails.
+      PhoneNumberUtil.createInstance(PhoneNumberUtil.DEFAULT_METADATA_LOADER)
+          .writeSnapshot(new FileOutputStream(args[1]));
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, e.getMessage());
+      return false;
+    }
+    return true;
+  }
+}
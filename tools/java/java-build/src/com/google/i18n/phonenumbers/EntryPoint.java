@@ -28,8 +28,10 @@ public class EntryPoint {
 
   public static void main(String[] args) {
     boolean status = new CommandDispatcher(args, new Command[] {
+      new BuildMappedMetadataFile(),
       new BuildMetadataJsonFromXml(),
       new BuildMetadataProtoFromXml(),
+      new BuildPhoneNumberUtilSnapshot(),
       new GeneratePhonePrefixDataEntryPoint(),
       new GenerateTimeZonesMapDataEntryPoint(),
     }).start();